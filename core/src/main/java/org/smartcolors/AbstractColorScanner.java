@@ -14,7 +14,8 @@ import org.smartcolors.core.SmartColors;
 import javax.annotation.concurrent.GuardedBy;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static com.google.common.base.Preconditions.checkState;
 
@@ -23,21 +24,82 @@ import static com.google.common.base.Preconditions.checkState;
  */
 public abstract class AbstractColorScanner<TRACK extends ColorTrack> implements ColorScanner {
     protected final NetworkParameters params;
-    protected Set<TRACK> tracks = Sets.newHashSet();
+    protected final TrackRegistry<TRACK> tracks;
     protected final ColorDefinition unknownDefinition;
     protected final ColorDefinition bitcoinDefinition;
     // General lock.  Wallet lock is internally obtained first for any wallet related work.
-    protected final ReentrantLock lock = Threading.lock("colorScanner");
+    // Queries that change nothing take the read lock and run in parallel, everything else takes the write lock.
+    private final ReentrantReadWriteLock readWriteLock = Threading.factory.newReentrantReadWriteLock("colorScanner");
+    protected final ReentrantReadWriteLock.WriteLock lock = readWriteLock.writeLock();
+    protected final ReentrantReadWriteLock.ReadLock readLock = readWriteLock.readLock();
     @GuardedBy("lock")
     protected Multimap<Transaction, SettableFuture<Transaction>> unknownTransactionFutures = ArrayListMultimap.create();
     @GuardedBy("lock")
     Map<Sha256Hash, Transaction> pending = Maps.newConcurrentMap();
     protected ColorKeyChain colorKeyChain;
+    protected final KernelCache kernelCache = new KernelCache();
+    // Kernel results of cache misses are computed here, one for each reader thread
+    private final ThreadLocal<KernelOutputs> kernelScratch = new ThreadLocal<KernelOutputs>() {
+        @Override
+        protected KernelOutputs initialValue() {
+            return new KernelOutputs();
+        }
+    };
+    // The outputs of all tracks, by outpoint
+    protected final OutPointIndex outPointIndex = new OutPointIndex();
+    // Running balances of the wallet the scanner listens to, see listenForBalances
+    @GuardedBy("lock")
+    private final AssetBalances balances = new AssetBalances();
+    private volatile MultiWallet balancesWallet;
+    @GuardedBy("lock")
+    private ColorKeyChain balancesChain;
+    @GuardedBy("lock")
+    private int balancesHeight;
+    // Coinbase outputs of the wallet, counted in the balances once they mature
+    @GuardedBy("lock")
+    private final Map<TransactionOutPoint, TransactionOutput> immatureCoinbases = Maps.newHashMap();
+    // The balances must be computed again from all the spend candidates.  Only after a reset or a definition change.
+    private volatile boolean balancesStale = true;
+    // Colors changed since the balances were read, so candidates may have to be reclassified
+    @GuardedBy("lock")
+    private boolean balancesColorsChanged;
+    @GuardedBy("lock")
+    private final Set<TransactionOutPoint> changedCandidates = Sets.newHashSet();
+    // Bumped on every change, for snapshots
+    private final AtomicLong version = new AtomicLong();
+    // Copy of the pending transactions shared between snapshots, null after they change
+    private volatile ImmutableMap<Sha256Hash, Transaction> pendingCopy;
+    // The last snapshot taken, returned again while the version and wallet height stay the same
+    private volatile PublishedSnapshot published;
+    // Copies of the outputs of tracks that did not change since, shared between snapshots
+    private final Map<ColorTrack, ImmutableMap<TransactionOutPoint, Long>> outputCopies = Maps.newConcurrentMap();
+    private final ColorTrack.OutputListener outputListener = new ColorTrack.OutputListener() {
+        @Override
+        public void onOutputChanged(ColorTrack track, TransactionOutPoint point) {
+            outPointIndex.update(track, point);
+            kernelCache.invalidate(point);
+            outputCopies.remove(track);
+            markChanged();
+            if (balances.get(point) != null)
+                changedCandidates.add(point);
+            balancesColorsChanged = true;
+        }
+
+        @Override
+        public void onOutputsReset(ColorTrack track) {
+            outPointIndex.reindex(track);
+            invalidateKernels(track);
+            outputCopies.remove(track);
+            markChanged();
+            balancesStale = true;
+        }
+    };
 
     public AbstractColorScanner(NetworkParameters params) {
         this.bitcoinDefinition = ColorDefinition.makeBitcoin(params);
         this.unknownDefinition = ColorDefinition.makeUnknown(params);
         this.params = params;
+        this.tracks = new TrackRegistry<TRACK>(bitcoinDefinition, unknownDefinition);
     }
 
     @Override
@@ -58,11 +120,6 @@ public abstract class AbstractColorScanner<TRACK extends ColorTrack> implements
     /** Add a color to the set of tracked colors */
     @Override
     public void addDefinition(ColorDefinition definition) throws ColorDefinitionExists, ColorDefinitionOutdated {
-        boolean exists = false;
-        if (exists) {
-            throw new ColorDefinitionExists();
-        }
-
         boolean outdated = false;
         if (outdated) {
             throw new ColorDefinitionOutdated();
@@ -70,12 +127,28 @@ public abstract class AbstractColorScanner<TRACK extends ColorTrack> implements
 
         lock.lock();
         try {
-            tracks.add(makeTrack(definition));
+            TRACK track = makeTrack(definition);
+            // Registered first, so a duplicate leaves no trace in the index
+            if (!tracks.add(track))
+                throw new ColorDefinitionExists();
+            track.setListener(outputListener);
+            outPointIndex.reindex(track);
+            invalidateKernels(track);
+            balancesStale = true;
+            markChanged();
         } finally {
             lock.unlock();
         }
     }
 
+    // Drop kernel results that used the colors of the track, and those its outputs would now change
+    private void invalidateKernels(ColorTrack track) {
+        kernelCache.invalidate(track.getDefinition());
+        for (TransactionOutPoint point : track.getOutputs().keySet()) {
+            kernelCache.invalidate(point);
+        }
+    }
+
     @Override
     public List<ListenableFuture<Transaction>> rescanUnknown(MultiWallet wallet, ColorKeyChain colorKeyChain) {
         return Lists.newArrayList();
@@ -84,48 +157,55 @@ public abstract class AbstractColorScanner<TRACK extends ColorTrack> implements
     /** Add a pending transaction from a peer or outgoing from us */
     @Override
     public void addPending(Transaction t) {
-        pending.put(t.getHash(), t);
+        lock.lock();
+        try {
+            pending.put(t.getHash(), t);
+            markPendingChanged();
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
     public void start(MultiWallet wallet) {
         addAllPending(wallet, wallet.getTransactionPool(WalletTransaction.Pool.PENDING).values());
+        listenForBalances(wallet);
     }
 
     protected abstract TRACK makeTrack(ColorDefinition definition);
 
     @Override
     public ColorDefinition getColorDefinitionByHash(HashCode hash) {
-        for (ColorDefinition def : getDefinitions()) {
-            if (def.getHash().equals(hash))
-                return def;
-        }
-        return null;
+        return tracks.getDefinition(hash);
     }
 
     @Override
     public boolean removeDefinition(ColorDefinition def) {
-        HashCode hash = def.getHash();
-        ColorTrack track = getColorTrackByHash(hash);
-        return tracks.remove(track);
+        lock.lock();
+        try {
+            TRACK track = tracks.get(def);
+            if (!tracks.remove(track))
+                return false;
+            track.setListener(null);
+            kernelCache.invalidate(def);
+            outPointIndex.remove(track);
+            outputCopies.remove(track);
+            balancesStale = true;
+            markChanged();
+            return true;
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
     public ColorTrack getColorTrackByHash(HashCode hash) {
-        for (ColorTrack track : tracks) {
-            if (track.getDefinition().getHash().equals(hash))
-                return track;
-        }
-        return null;
+        return tracks.get(hash);
     }
 
     @Override
     public ColorTrack getColorTrackByDefinition(ColorDefinition def) {
-        for (ColorTrack track : tracks) {
-            if (track.getDefinition().equals(def))
-                return track;
-        }
-        return null;
+        return tracks.get(def);
     }
 
     /**
@@ -147,30 +227,26 @@ public abstract class AbstractColorScanner<TRACK extends ColorTrack> implements
     }
 
     private void applyNetAssetChange(Transaction tx, MultiWallet wallet, ColorKeyChain chain, Map<ColorDefinition, Long> res) {
-        lock.lock();
+        readLock.lock();
         try {
             for (TransactionOutput out : tx.getOutputs()) {
                 if (chain.isOutputToMe(out)) {
                     applyOutputValue(out, res);
                 }
             }
-            inps:
             for (TransactionInput inp : tx.getInputs()) {
                 if (SmartColors.isInputMine(inp, wallet)) {
-                    for (ColorTrack track : tracks) {
-                        Long value = track.getOutputs().get(inp.getOutpoint());
-                        if (value != null) {
-                            Long existing = res.get(track.getDefinition());
-                            if (existing == null)
-                                existing = 0L;
-                            res.put(track.getDefinition(), existing - value);
-                            continue inps;
-                        }
+                    OutPointIndex.Entry entry = outPointIndex.get(inp.getOutpoint());
+                    if (entry != null) {
+                        Long existing = res.get(entry.getDefinition());
+                        if (existing == null)
+                            existing = 0L;
+                        res.put(entry.getDefinition(), existing - entry.getValue());
                     }
                 }
             }
         } finally {
-            lock.unlock();
+            readLock.unlock();
         }
     }
 
@@ -178,7 +254,7 @@ public abstract class AbstractColorScanner<TRACK extends ColorTrack> implements
     public Map<ColorDefinition, Long> getOutputValues(Transaction tx, Wallet _wallet, ColorKeyChain chain) {
         SmartWallet wallet = (SmartWallet) _wallet;
         wallet.lock();
-        lock.lock();
+        readLock.lock();
         try {
             Map<ColorDefinition, Long> res = Maps.newHashMap();
             for (TransactionOutput out : tx.getOutputs()) {
@@ -188,80 +264,69 @@ public abstract class AbstractColorScanner<TRACK extends ColorTrack> implements
             }
             return res;
         } finally {
-            lock.unlock();
+            readLock.unlock();
             wallet.unlock();
         }
     }
 
-    public Map<ColorDefinition, Long> getOutputValue(TransactionOutput output, Wallet _wallet) {
-        SmartWallet wallet = (SmartWallet) _wallet;
-        wallet.lock();
-        lock.lock();
+    // Only scanner state is read, so the wallet is not locked
+    public Map<ColorDefinition, Long> getOutputValue(TransactionOutput output, Wallet wallet) {
+        readLock.lock();
         try {
             Map<ColorDefinition, Long> res = Maps.newHashMap();
             applyOutputValue(output, res, false);
             return res;
         } finally {
-            lock.unlock();
-            wallet.unlock();
+            readLock.unlock();
         }
     }
 
-    public Map<ColorDefinition, Long> getInputValue(TransactionInput input, Wallet _wallet) {
-        SmartWallet wallet = (SmartWallet) _wallet;
-        wallet.lock();
-        lock.lock();
-        try {
-            Map<ColorDefinition, Long> res = Maps.newHashMap();
-            for (ColorTrack track : tracks) {
-                TransactionOutPoint point = input.getOutpoint();
-                Long value = track.getOutputs().get(point);
-                if (value != null) {
-                    res.put(track.getDefinition(), value);
-                }
-            }
-            return res;
-        } finally {
-            lock.unlock();
-            wallet.unlock();
+    // The outpoint index is read without locking, so this never waits for writers
+    public Map<ColorDefinition, Long> getInputValue(TransactionInput input, Wallet wallet) {
+        Map<ColorDefinition, Long> res = Maps.newHashMap();
+        for (OutPointIndex.Entry entry = outPointIndex.get(input.getOutpoint()); entry != null; entry = entry.getNext()) {
+            res.put(entry.getDefinition(), entry.getValue());
         }
+        return res;
     }
 
     @Override
     public boolean contains(TransactionOutPoint point) {
-        lock.lock();
-        try {
-            for (ColorTrack track : tracks) {
-                Long value = track.getOutputs().get(point);
-                if (value != null)
-                    return true;
-            }
-            return false;
-        } finally {
-            lock.unlock();
-        }
+        return outPointIndex.contains(point);
     }
 
     protected boolean applyOutputValue(TransactionOutput out, Map<ColorDefinition, Long> res) {
         return applyOutputValue(out, res, true);
     }
 
+    // Called with the read lock at least.  The kernel cache is synchronized, since readers fill it in parallel.
     protected boolean applyOutputValue(TransactionOutput out, Map<ColorDefinition, Long> res, boolean useUnknown) {
         TransactionOutPoint point = out.getOutPointFor();
-        for (ColorTrack track : tracks) {
-            Long value = track.getOutputs().get(point);
-            if (value == null) {
-                // We don't know about this output yet, try applying the color kernel to figure
-                // it out from the inputs.  This is likely an unconfirmed transaction.
-                Long[] colorOuts = track.applyKernel(out.getParentTransaction());
-                value = colorOuts[out.getIndex()];
-            }
-            if (value != null) {
-                Long existing = res.get(track.getDefinition());
-                if (existing != null)
-                    value = existing + value;
-                res.put(track.getDefinition(), value);
-                return true;
+        Transaction tx = out.getParentTransaction();
+        int index = out.getIndex();
+        OutPointIndex.Entry indexed = outPointIndex.get(point);
+        if (indexed != null) {
+            Long existing = res.get(indexed.getDefinition());
+            res.put(indexed.getDefinition(), existing == null ? indexed.getValue() : existing + indexed.getValue());
+            return true;
+        }
+        if (index < ColorDefinition.MAX_COLOR_OUTPUTS) {
+            // We don't know about this output yet, try applying the color kernel to figure
+            // it out from the inputs.  This is likely an unconfirmed transaction.
+            // The kernels of all tracks are evaluated together, once, and remembered for the transaction.
+            KernelCache.Entry entry = kernelCache.get(tx);
+            if (entry == null)
+                entry = kernelCache.put(tx, kernelScratch.get().compute(tx, outPointIndex));
+            for (int slot = 0; slot < entry.size(); slot++) {
+                Long value = entry.get(slot, index);
+                if (value != null) {
+                    ColorDefinition def = entry.getDefinition(slot);
+                    Long existing = res.get(def);
+                    if (existing != null)
+                        value = existing + value;
+                    res.put(def, value);
+                    return true;
+                }
             }
         }
 
@@ -278,27 +343,281 @@ public abstract class AbstractColorScanner<TRACK extends ColorTrack> implements
 
     @Override
     public Map<ColorDefinition, Long> getBalances(MultiWallet wallet, ColorKeyChain colorKeyChain) {
+        return getBalances(wallet, colorKeyChain, Wallet.BalanceType.ESTIMATED);
+    }
+
+    @Override
+    public Map<ColorDefinition, Long> getBalances(MultiWallet wallet, ColorKeyChain colorKeyChain, Wallet.BalanceType type) {
+        AssetBalances.Availability availability = makeAvailability(wallet);
+        int height = wallet.currentHeight();
+        // Usually the running balances are current, and reading them locks neither the wallet nor out writers
+        readLock.lock();
+        try {
+            if (wallet == balancesWallet && colorKeyChain == balancesChain && isBalancesCurrent(height))
+                return withBitcoin(balances.getBalances(type, availability));
+        } finally {
+            readLock.unlock();
+        }
+
         wallet.lock();
         lock.lock();
         try {
-            List<TransactionOutput> all = wallet.calculateAllSpendCandidates(true, false);
-            return getBalances(colorKeyChain, all);
+            if (wallet == balancesWallet && colorKeyChain == balancesChain) {
+                refreshBalances(wallet);
+                return withBitcoin(balances.getBalances(type, availability));
+            }
+            // Not listening to this wallet, go over all the spend candidates
+            AssetBalances all = new AssetBalances();
+            for (TransactionOutput output : wallet.calculateAllSpendCandidates(true, false)) {
+                putBalance(all, colorKeyChain, output, availability);
+            }
+            return withBitcoin(all.getBalances(type, availability));
         } finally {
             lock.unlock();
             wallet.unlock();
         }
     }
 
-    private Map<ColorDefinition, Long> getBalances(ColorKeyChain colorKeyChain, List<TransactionOutput> all) {
-        Map<ColorDefinition, Long> res = Maps.newHashMap();
-        res.put(bitcoinDefinition, 0L);
-        for (TransactionOutput output : all) {
-            if (colorKeyChain.isOutputToMe(output))
-                applyOutputValue(output, res);
+    private Map<ColorDefinition, Long> withBitcoin(Map<ColorDefinition, Long> res) {
+        if (!res.containsKey(bitcoinDefinition))
+            res.put(bitcoinDefinition, 0L);
+        return res;
+    }
+
+    /** Keep the balances of the wallet up to date as its transactions arrive, so that reading them is cheap */
+    protected void listenForBalances(MultiWallet wallet) {
+        if (colorKeyChain == null)
+            return;
+        lock.lock();
+        try {
+            balancesWallet = wallet;
+            balancesChain = colorKeyChain;
+            balancesStale = true;
+        } finally {
+            lock.unlock();
+        }
+        wallet.addEventListener(new MultiWallet.MultiWalletEventListener() {
+            @Override
+            public void onTransaction(MultiWallet wallet, Transaction tx, boolean isNewCoin) {
+                updateBalances(wallet, tx);
+            }
+
+            @Override
+            public void onSyncState(MultiWallet wallet, boolean isSynced, long height) {
+                // The transactions of the sync are reported one by one
+            }
+
+            @Override
+            public void onTransactionConfidenceChanged(MultiWallet wallet, Transaction tx) {
+                updateConfidence(wallet, tx);
+            }
+
+            @Override
+            public void onReorganize(MultiWallet wallet) {
+                reorganizeBalances(wallet);
+            }
+        }, Threading.SAME_THREAD);
+    }
+
+    // Spend the inputs of the transaction and add its outputs to the balances
+    private void updateBalances(MultiWallet wallet, Transaction tx) {
+        wallet.lock();
+        lock.lock();
+        try {
+            if (wallet != balancesWallet || balancesStale)
+                return; // Computed in full on the next read
+            if (tx.getConfidence(wallet.getContext()).getConfidenceType() == TransactionConfidence.ConfidenceType.DEAD) {
+                removeDead(wallet, tx);
+            } else {
+                for (TransactionInput input : tx.getInputs()) {
+                    balances.remove(input.getOutpoint());
+                    immatureCoinbases.remove(input.getOutpoint());
+                }
+                putOutputs(wallet, tx);
+            }
+            markChanged();
+        } finally {
+            lock.unlock();
+            wallet.unlock();
+        }
+    }
+
+    // Move the outputs of the transaction between available and estimated, or out of the balances if it died
+    private void updateConfidence(MultiWallet wallet, Transaction tx) {
+        // Most changes are confirmed transactions getting deeper, which changes nothing here
+        readLock.lock();
+        try {
+            if (wallet != balancesWallet || balancesStale || !isConfidenceRelevant(wallet, tx))
+                return;
+        } finally {
+            readLock.unlock();
+        }
+        wallet.lock();
+        lock.lock();
+        try {
+            if (wallet != balancesWallet || balancesStale)
+                return;
+            if (tx.getConfidence(wallet.getContext()).getConfidenceType() == TransactionConfidence.ConfidenceType.DEAD)
+                removeDead(wallet, tx);
             else
-                res.put(bitcoinDefinition, res.get(bitcoinDefinition) + output.getValue().getValue());
+                putOutputs(wallet, tx);
+            markChanged();
+        } finally {
+            lock.unlock();
+            wallet.unlock();
         }
-        return res;
+    }
+
+    // Whether a confidence change of the transaction can change the balances.  The read lock is held.
+    private boolean isConfidenceRelevant(MultiWallet wallet, Transaction tx) {
+        if (tx.getConfidence(wallet.getContext()).getConfidenceType() != TransactionConfidence.ConfidenceType.BUILDING)
+            return true;
+        for (TransactionOutput output : tx.getOutputs()) {
+            TransactionOutPoint point = output.getOutPointFor();
+            if (balances.isUnsettled(point) || immatureCoinbases.containsKey(point))
+                return true;
+        }
+        return false;
+    }
+
+    // The affected transactions are reported one by one, only the depth of the rest changed
+    private void reorganizeBalances(MultiWallet wallet) {
+        wallet.lock();
+        lock.lock();
+        try {
+            if (wallet != balancesWallet || balancesStale)
+                return;
+            AssetBalances.Availability availability = makeAvailability(wallet);
+            for (TransactionOutput output : Lists.newArrayList(immatureCoinbases.values())) {
+                putCandidate(wallet, output, availability);
+            }
+            for (TransactionOutput output : balances.getUnsettled()) {
+                putCandidate(wallet, output, availability);
+            }
+            markChanged();
+        } finally {
+            lock.unlock();
+            wallet.unlock();
+        }
+    }
+
+    // A double spent transaction - its outputs are gone, and the outputs it spent are ours to spend again
+    private void removeDead(MultiWallet wallet, Transaction tx) {
+        for (TransactionOutput output : tx.getOutputs()) {
+            balances.remove(output.getOutPointFor());
+            immatureCoinbases.remove(output.getOutPointFor());
+        }
+        AssetBalances.Availability availability = makeAvailability(wallet);
+        for (TransactionInput input : tx.getInputs()) {
+            TransactionOutPoint point = input.getOutpoint();
+            Transaction parent = wallet.getTransaction(point.getHash());
+            if (parent == null || point.getIndex() >= parent.getOutputs().size())
+                continue;
+            TransactionOutput output = parent.getOutput((int) point.getIndex());
+            if (output.isMineOrWatched(wallet))
+                putCandidate(wallet, output, availability);
+        }
+    }
+
+    private void putOutputs(MultiWallet wallet, Transaction tx) {
+        AssetBalances.Availability availability = makeAvailability(wallet);
+        for (TransactionOutput output : wallet.getWalletOutputs(tx)) {
+            putCandidate(wallet, output, availability);
+        }
+    }
+
+    // Count the output in the balances as it is now, or leave it out if it can't be spent yet
+    private void putCandidate(MultiWallet wallet, TransactionOutput output, AssetBalances.Availability availability) {
+        TransactionOutPoint point = output.getOutPointFor();
+        if (!output.isAvailableForSpending()) {
+            balances.remove(point);
+            immatureCoinbases.remove(point);
+        } else if (isImmature(wallet, output.getParentTransaction())) {
+            balances.remove(point);
+            immatureCoinbases.put(point, output);
+        } else {
+            immatureCoinbases.remove(point);
+            putBalance(balances, balancesChain, output, availability);
+        }
+    }
+
+    private boolean isImmature(MultiWallet wallet, Transaction tx) {
+        return tx.isCoinBase() && tx.getConfidence(wallet.getContext()).getDepthInBlocks() < params.getSpendableCoinbaseDepth();
+    }
+
+    // Whether the running balances can be read as they are.  The read lock is held.
+    private boolean isBalancesCurrent(int height) {
+        // Only coinbases mature with the height, everything else is updated as the wallet reports it
+        return !balancesStale && !balancesColorsChanged && (height == balancesHeight || immatureCoinbases.isEmpty());
+    }
+
+    // Bring the running balances up to date.  The wallet lock and the write lock are held.
+    private void refreshBalances(MultiWallet wallet) {
+        int height = wallet.currentHeight();
+        AssetBalances.Availability availability = makeAvailability(wallet);
+        if (balancesStale) {
+            // Cleared first, so that a concurrent invalidation is not lost
+            balancesStale = false;
+            balancesHeight = height;
+            markChanged();
+            balances.clear();
+            immatureCoinbases.clear();
+            for (TransactionOutput output : wallet.calculateAllSpendCandidates(false, false)) {
+                putCandidate(wallet, output, availability);
+            }
+        } else {
+            if (height != balancesHeight) {
+                balancesHeight = height;
+                if (!immatureCoinbases.isEmpty()) {
+                    markChanged();
+                    for (TransactionOutput output : Lists.newArrayList(immatureCoinbases.values())) {
+                        putCandidate(wallet, output, availability);
+                    }
+                }
+            }
+            if (balancesColorsChanged) {
+                markChanged();
+                for (TransactionOutput output : balances.getProvisional()) {
+                    putBalance(balances, balancesChain, output, availability);
+                }
+                for (TransactionOutPoint point : changedCandidates) {
+                    TransactionOutput output = balances.get(point);
+                    if (output != null)
+                        putBalance(balances, balancesChain, output, availability);
+                }
+            }
+        }
+        balancesColorsChanged = false;
+        changedCandidates.clear();
+    }
+
+    private void putBalance(AssetBalances balances, ColorKeyChain chain, TransactionOutput output, AssetBalances.Availability availability) {
+        if (chain.isOutputToMe(output)) {
+            boolean proven = outPointIndex.contains(output.getOutPointFor());
+            Map<ColorDefinition, Long> value = Maps.newHashMap();
+            applyOutputValue(output, value);
+            Map.Entry<ColorDefinition, Long> entry = Iterables.getOnlyElement(value.entrySet());
+            balances.put(output, entry.getKey(), entry.getValue(), !proven, availability);
+        } else {
+            balances.put(output, bitcoinDefinition, output.getValue().getValue(), false, availability);
+        }
+    }
+
+    private AssetBalances.Availability makeAvailability(MultiWallet wallet) {
+        final Context context = wallet.getContext();
+        final DefaultCoinSelector selector = new DefaultCoinSelector(context);
+        return new AssetBalances.Availability() {
+            @Override
+            public boolean isAvailable(TransactionOutput output) {
+                return selector.isSelectable(output.getParentTransaction());
+            }
+
+            @Override
+            public boolean isSettled(TransactionOutput output) {
+                // Pending transactions become available as they propagate
+                return output.getParentTransaction().getConfidence(context).getConfidenceType() == TransactionConfidence.ConfidenceType.BUILDING;
+            }
+        };
     }
 
     /**
@@ -346,18 +665,7 @@ public abstract class AbstractColorScanner<TRACK extends ColorTrack> implements
 
     @Override
     public Set<ColorDefinition> getDefinitions() {
-        lock.lock();
-        try {
-            Set<ColorDefinition> colors = Sets.newHashSet();
-            colors.add(bitcoinDefinition);
-            for (ColorTrack track : tracks) {
-                colors.add(track.getDefinition());
-            }
-            colors.add(unknownDefinition);
-            return colors;
-        } finally {
-            lock.unlock();
-        }
+        return tracks.getDefinitions();
     }
 
     @Override
@@ -365,16 +673,26 @@ public abstract class AbstractColorScanner<TRACK extends ColorTrack> implements
         lock.lock();
         try {
             unknownTransactionFutures.clear();
+            // Cleared first so that resetting each track is cheap
+            outPointIndex.clear();
             for (ColorTrack track : tracks) {
                 track.reset();
             }
+            kernelCache.clear();
+            outputCopies.clear();
+            markChanged();
+            balances.clear();
+            immatureCoinbases.clear();
+            balancesStale = true;
             pending.clear();
+            markPendingChanged();
             doReset();
         } finally {
             lock.unlock();
         }
     }
 
+    // Changes made through the returned map must be followed by markPendingChanged()
     @Override
     public Map<Sha256Hash, Transaction> getPending() {
         checkState(lock.isHeldByCurrentThread());
@@ -383,27 +701,128 @@ public abstract class AbstractColorScanner<TRACK extends ColorTrack> implements
 
     @Override
     public int getPendingCount() {
-        lock.lock();
+        readLock.lock();
         try {
             return pending.size();
         } finally {
-            lock.unlock();
+            readLock.unlock();
         }
     }
 
     /** Call this after deserializing the wallet with any wallet pending transactions */
     protected void addAllPending(MultiWallet wallet, Collection<Transaction> txs) {
-        for (Transaction tx : txs) {
-            pending.put(tx.getHash(), tx);
+        lock.lock();
+        try {
+            for (Transaction tx : txs) {
+                pending.put(tx.getHash(), tx);
+            }
+            markPendingChanged();
+        } finally {
+            lock.unlock();
         }
     }
 
     void setPending(Map<Sha256Hash, Transaction> pending) {
-        this.pending = pending;
+        lock.lock();
+        try {
+            this.pending = pending;
+            markPendingChanged();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Record a change of scanner state, so that later snapshots get a new version */
+    protected void markChanged() {
+        version.incrementAndGet();
+    }
+
+    /** Record a change of the pending transactions, see {@link #markChanged()} */
+    protected void markPendingChanged() {
+        pendingCopy = null;
+        markChanged();
+    }
+
+    @Override
+    public ScannerSnapshot snapshot() {
+        MultiWallet wallet = balancesWallet;
+        AssetBalances.Availability availability = wallet == null ? null : makeAvailability(wallet);
+        while (true) {
+            int height = wallet == null ? 0 : wallet.currentHeight();
+            // Nothing changed since the last snapshot, hand it out again without locking
+            PublishedSnapshot last = published;
+            if (last != null && last.wallet == wallet && last.height == height && last.snapshot.getVersion() == version.get())
+                return last.snapshot;
+            // Readers can take snapshots in parallel, the copies are made under the read lock
+            readLock.lock();
+            try {
+                if (wallet == null || isBalancesCurrent(height)) {
+                    ScannerSnapshot snapshot = makeSnapshot(availability);
+                    published = new PublishedSnapshot(snapshot, wallet, height);
+                    return snapshot;
+                }
+            } finally {
+                readLock.unlock();
+            }
+            wallet.lock();
+            lock.lock();
+            try {
+                refreshBalances(wallet);
+            } finally {
+                lock.unlock();
+                wallet.unlock();
+            }
+        }
+    }
+
+    private static class PublishedSnapshot {
+        final ScannerSnapshot snapshot;
+        final MultiWallet wallet;
+        final int height;
+
+        PublishedSnapshot(ScannerSnapshot snapshot, MultiWallet wallet, int height) {
+            this.snapshot = snapshot;
+            this.wallet = wallet;
+            this.height = height;
+        }
+    }
+
+    // The read lock is held, so no writer changes what is copied
+    private ScannerSnapshot makeSnapshot(AssetBalances.Availability availability) {
+        ImmutableMap<Sha256Hash, Transaction> pendingCopy = this.pendingCopy;
+        if (pendingCopy == null) {
+            pendingCopy = ImmutableMap.copyOf(pending);
+            this.pendingCopy = pendingCopy;
+        }
+        ImmutableMap.Builder<ColorDefinition, ImmutableMap<TransactionOutPoint, Long>> outputs = ImmutableMap.builder();
+        for (TRACK track : tracks) {
+            ImmutableMap<TransactionOutPoint, Long> copy = outputCopies.get(track);
+            if (copy == null) {
+                copy = ImmutableMap.copyOf(track.getOutputs());
+                outputCopies.put(track, copy);
+            }
+            outputs.put(track.getDefinition(), copy);
+        }
+        if (availability == null) {
+            // Not started on a wallet
+            Map<ColorDefinition, Long> empty = withBitcoin(Maps.<ColorDefinition, Long>newHashMap());
+            return new ScannerSnapshot(version.get(), bitcoinDefinition, outputs.build(),
+                    ImmutableMap.<TransactionOutPoint, AssetBalances.Candidate>of(), empty, empty,
+                    pendingCopy);
+        }
+        return new ScannerSnapshot(version.get(), bitcoinDefinition, outputs.build(), balances.getCandidates(),
+                withBitcoin(balances.getBalances(Wallet.BalanceType.ESTIMATED, availability)),
+                withBitcoin(balances.getBalances(Wallet.BalanceType.AVAILABLE, availability)),
+                pendingCopy);
     }
 
     public Set<? extends ColorTrack> getColorTracks() {
-        return tracks;
+        return tracks.getTracks();
+    }
+
+    /** The cache of kernel results for outputs not yet in any track, for diagnostics */
+    public KernelCache getKernelCache() {
+        return kernelCache;
     }
 
     protected abstract void doReset();
@@ -0,0 +1,211 @@
+package org.smartcolors;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.Wallet;
+import org.smartcolors.core.ColorDefinition;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Running per-asset balances of the spend candidates of a wallet.
+ * <p/>
+ * <p>Each candidate output counts towards the estimated balance of its asset, and towards the available
+ * balance if it can be spent now.  Reading the balances costs O(number of assets), plus the number of
+ * unsettled candidates for available balances.  Reads do not modify it, so they may run in parallel.
+ * Not thread safe otherwise, the scanner guards it with its lock.</p>
+ */
+public class AssetBalances {
+    private static final int ESTIMATED = 0;
+    private static final int AVAILABLE = 1;
+    private static final int COUNT = 2;
+
+    private final Map<TransactionOutPoint, Candidate> candidates = Maps.newHashMap();
+    // Estimated total, available total of settled candidates and candidate count, by definition
+    private final Map<ColorDefinition, long[]> totals = Maps.newHashMap();
+    // Candidates whose availability may still change without a new block, checked on each read
+    private final Set<TransactionOutPoint> unsettled = Sets.newHashSet();
+    // Candidates whose asset was derived from their inputs, or is unknown, rather than proven
+    private final Set<TransactionOutPoint> provisional = Sets.newHashSet();
+    // Immutable copy of the candidates, until the next change
+    private volatile ImmutableMap<TransactionOutPoint, Candidate> candidatesCopy;
+
+    /** Decides whether a candidate can be spent now */
+    public interface Availability {
+        boolean isAvailable(TransactionOutput output);
+
+        /** Whether the answer for the output may change before the next block */
+        boolean isSettled(TransactionOutput output);
+    }
+
+    /** A spend candidate and the asset it counts towards.  Immutable. */
+    public static class Candidate {
+        private final TransactionOutput output;
+        private final ColorDefinition definition;
+        private final long value;
+        // Counted in the available total
+        private final boolean available;
+
+        Candidate(TransactionOutput output, ColorDefinition definition, long value, boolean available) {
+            this.output = output;
+            this.definition = definition;
+            this.value = value;
+            this.available = available;
+        }
+
+        public TransactionOutput getOutput() {
+            return output;
+        }
+
+        public ColorDefinition getDefinition() {
+            return definition;
+        }
+
+        public long getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("point", output.getOutPointFor())
+                    .add("definition", definition.getName())
+                    .add("value", value)
+                    .toString();
+        }
+    }
+
+    /**
+     * Count the output towards the balance of the asset, replacing what it counted for before
+     *
+     * @param provisional whether the asset may change as the colors of the inputs become known
+     */
+    public void put(TransactionOutput output, ColorDefinition definition, long value, boolean provisional, Availability availability) {
+        TransactionOutPoint point = output.getOutPointFor();
+        remove(point);
+        boolean settled = availability.isSettled(output);
+        Candidate candidate = new Candidate(output, definition, value, settled && availability.isAvailable(output));
+        candidates.put(point, candidate);
+        candidatesCopy = null;
+        if (!settled)
+            unsettled.add(point);
+        if (provisional)
+            this.provisional.add(point);
+        long[] total = totals.get(definition);
+        if (total == null) {
+            total = new long[3];
+            totals.put(definition, total);
+        }
+        total[ESTIMATED] += value;
+        if (candidate.available)
+            total[AVAILABLE] += value;
+        total[COUNT]++;
+    }
+
+    /** @return false if the outpoint was not a candidate */
+    public boolean remove(TransactionOutPoint point) {
+        Candidate candidate = candidates.remove(point);
+        if (candidate == null)
+            return false;
+        candidatesCopy = null;
+        unsettled.remove(point);
+        provisional.remove(point);
+        long[] total = totals.get(candidate.definition);
+        total[ESTIMATED] -= candidate.value;
+        if (candidate.available)
+            total[AVAILABLE] -= candidate.value;
+        if (--total[COUNT] == 0)
+            totals.remove(candidate.definition);
+        return true;
+    }
+
+    /** @return the candidate output at the outpoint, or null */
+    public TransactionOutput get(TransactionOutPoint point) {
+        Candidate candidate = candidates.get(point);
+        return candidate == null ? null : candidate.output;
+    }
+
+    /** The candidates by outpoint, as of now.  The copy is shared by callers until the next change. */
+    public ImmutableMap<TransactionOutPoint, Candidate> getCandidates() {
+        ImmutableMap<TransactionOutPoint, Candidate> copy = candidatesCopy;
+        if (copy == null) {
+            copy = ImmutableMap.copyOf(candidates);
+            candidatesCopy = copy;
+        }
+        return copy;
+    }
+
+    /** Whether the availability of the candidate may still change without a new block */
+    public boolean isUnsettled(TransactionOutPoint point) {
+        return unsettled.contains(point);
+    }
+
+    /** The candidates whose availability may still change without a new block */
+    public List<TransactionOutput> getUnsettled() {
+        List<TransactionOutput> res = Lists.newArrayListWithCapacity(unsettled.size());
+        for (TransactionOutPoint point : unsettled) {
+            res.add(candidates.get(point).output);
+        }
+        return res;
+    }
+
+    /** The candidates whose asset is provisional */
+    public List<TransactionOutput> getProvisional() {
+        List<TransactionOutput> res = Lists.newArrayListWithCapacity(provisional.size());
+        for (TransactionOutPoint point : provisional) {
+            res.add(candidates.get(point).output);
+        }
+        return res;
+    }
+
+    /**
+     * The balances by asset.  Assets without candidates are missing.
+     *
+     * @param availability decides for the unsettled candidates, if the type is an available one
+     */
+    public Map<ColorDefinition, Long> getBalances(Wallet.BalanceType type, Availability availability) {
+        boolean available = type == Wallet.BalanceType.AVAILABLE || type == Wallet.BalanceType.AVAILABLE_SPENDABLE;
+        Map<ColorDefinition, Long> res = Maps.newHashMapWithExpectedSize(totals.size() + 1);
+        for (Map.Entry<ColorDefinition, long[]> entry : totals.entrySet()) {
+            res.put(entry.getKey(), entry.getValue()[available ? AVAILABLE : ESTIMATED]);
+        }
+        if (available) {
+            for (TransactionOutPoint point : unsettled) {
+                Candidate candidate = candidates.get(point);
+                if (availability.isAvailable(candidate.output))
+                    res.put(candidate.definition, res.get(candidate.definition) + candidate.value);
+            }
+        }
+        return res;
+    }
+
+    public void clear() {
+        candidates.clear();
+        candidatesCopy = null;
+        totals.clear();
+        unsettled.clear();
+        provisional.clear();
+    }
+
+    /** The number of candidate outputs */
+    public int size() {
+        return candidates.size();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("candidates", candidates.size())
+                .add("assets", totals.size())
+                .add("unsettled", unsettled.size())
+                .add("provisional", provisional.size())
+                .toString();
+    }
+}
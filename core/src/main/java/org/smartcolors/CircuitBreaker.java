@@ -0,0 +1,107 @@
+package org.smartcolors;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Circuit breaker shared by all requests to one server.
+ * <p/>
+ * <p>After a number of consecutive failures the circuit opens and requests are refused for a while.  Then a
+ * single trial request is let through.  If it succeeds the circuit closes, otherwise it opens again for twice
+ * as long, up to a maximum.</p>
+ */
+public class CircuitBreaker {
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final Ticker ticker;
+    private final int failureThreshold;
+    private final long baseOpenNanos;
+    private final long maxOpenNanos;
+    private State state = State.CLOSED;
+    private int failures;
+    private long openNanos;
+    private long openUntil;
+
+    public CircuitBreaker(int failureThreshold, long openMillis, long maxOpenMillis) {
+        this(failureThreshold, openMillis, maxOpenMillis, Ticker.systemTicker());
+    }
+
+    public CircuitBreaker(int failureThreshold, long openMillis, long maxOpenMillis, Ticker ticker) {
+        checkArgument(failureThreshold > 0 && openMillis > 0 && maxOpenMillis >= openMillis);
+        this.ticker = ticker;
+        this.failureThreshold = failureThreshold;
+        this.baseOpenNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.maxOpenNanos = TimeUnit.MILLISECONDS.toNanos(maxOpenMillis);
+        this.openNanos = baseOpenNanos;
+    }
+
+    /**
+     * Whether a request may be made now.  When the circuit is half open, only the first caller gets
+     * true, and must report the outcome.
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (ticker.read() - openUntil >= 0) {
+                    state = State.HALF_OPEN;
+                    return true;
+                }
+                return false;
+            default:
+                // Trial in flight
+                return false;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+        openNanos = baseOpenNanos;
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            openNanos = Math.min(maxOpenNanos, openNanos * 2);
+            open();
+        } else if (state == State.CLOSED && ++failures >= failureThreshold) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openUntil = ticker.read() + openNanos;
+    }
+
+    /** Time until a request may be tried, zero if now.  A half open circuit waits for its trial request. */
+    public synchronized long getMillisUntilRetry() {
+        if (state != State.OPEN)
+            return 0;
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(openUntil - ticker.read()) + 1);
+    }
+
+    /** Forget past failures, e.g. when a trial request was abandoned */
+    public synchronized void reset() {
+        onSuccess();
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("state", state)
+                .add("failures", failures)
+                .toString();
+    }
+}
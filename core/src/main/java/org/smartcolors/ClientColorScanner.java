@@ -1,18 +1,35 @@
 package org.smartcolors;
 
-import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Throwables;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.hash.HashCode;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
 import org.apache.http.StatusLine;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.bitcoinj.core.*;
@@ -22,6 +39,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.smartcolors.core.ColorDefinition;
 import org.smartcolors.core.ColorProof;
+import org.smartcolors.core.ProofStore;
 import org.smartcolors.core.SmartColors;
 import org.smartcolors.marshal.BytesDeserializer;
 import org.smartcolors.marshal.SerializationException;
@@ -31,9 +49,20 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
@@ -43,11 +72,53 @@ import static com.google.common.base.Preconditions.checkState;
 public class ClientColorScanner extends AbstractColorScanner<ClientColorTrack> {
     private static final Logger log = LoggerFactory.getLogger(ClientColorScanner.class);
     public static final int NETWORK_TIMEOUT = 10000;
+    public static final int MAX_BATCH_SIZE = 500;
+    public static final int BATCH_DELAY_MS = 50;
+    public static final int DEFAULT_NETWORK_PARALLELISM = 4;
+    // Depth after which proofs of a transaction's outputs are cached without revalidation
+    public static final int BURIED_DEPTH = 6;
+    public static final double DEFAULT_REQUESTS_PER_SECOND = 10;
+    public static final int DEFAULT_REQUEST_BURST = 20;
+    public static final double DEFAULT_HEDGE_PERCENTILE = 0.95;
+    public static final long DEFAULT_HEDGE_DELAY_MS = 1000;
+
+    /** Order in which lookups are served, highest first */
+    public enum LookupPriority {
+        /** Someone is waiting on the transaction, e.g. through {@link #getTransactionWithKnownAssets} */
+        WAITED_ON,
+        /** Newly seen by the wallet */
+        NEW,
+        /** Left over from before the scanner was started */
+        BACKLOG
+    }
     private static boolean disableFetch = false;
 
     Fetcher fetcher;
     ScheduledExecutorService fetchService;
     private MultiWallet wallet;
+    private ProofStore proofStore;
+    ExecutorService networkService;
+    ExecutorService parseService;
+    private int networkParallelism = DEFAULT_NETWORK_PARALLELISM;
+    private int parseParallelism = Runtime.getRuntime().availableProcessors();
+    private int maxBatchesInFlight = 2 * DEFAULT_NETWORK_PARALLELISM;
+    // Outpoints waiting for the next batch fetch, by priority, in request order.  Fetch thread only.
+    private final EnumMap<LookupPriority, ListMultimap<TransactionOutPoint, Lookup>> queues = Maps.newEnumMap(LookupPriority.class);
+    private boolean dispatchScheduled;
+    // Lookups that have run and not finished, by transaction.  Fetch thread only.
+    private final Map<Sha256Hash, Lookup> activeLookups = Maps.newHashMap();
+    // Shared by all requests to the tracker
+    private TokenBucket requestBucket = new TokenBucket(DEFAULT_REQUESTS_PER_SECOND, DEFAULT_REQUEST_BURST);
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker(5, 5000, 5 * 60 * 1000);
+    // Batches between dispatch and apply, and the batch each of their outpoints is in.  Fetch thread only.
+    private int batchesInFlight;
+    private final Map<TransactionOutPoint, Batch> inFlight = Maps.newHashMap();
+    private volatile long coalescedCount;
+    // Queue depth metrics
+    private volatile int queuedOutPoints;
+    private final AtomicInteger networkQueueDepth = new AtomicInteger();
+    private final AtomicInteger parseQueueDepth = new AtomicInteger();
+    private final AtomicInteger applyQueueDepth = new AtomicInteger();
 
 
     public ClientColorScanner(NetworkParameters params) {
@@ -67,14 +138,94 @@ public class ClientColorScanner extends AbstractColorScanner<ClientColorTrack> {
     }
 
     public ClientColorScanner(NetworkParameters params, URI baseUri) {
+        this(params, Collections.singletonList(baseUri));
+    }
+
+    /**
+     * Fetch proofs from several tracker servers.  Proofs are validated, so the servers need not be trusted.
+     * Requests go to the healthiest server and are hedged to the next one if slow.
+     */
+    public ClientColorScanner(NetworkParameters params, List<URI> servers) {
         super(params);
-        fetcher = new Fetcher(baseUri, params);
+        for (LookupPriority priority : LookupPriority.values()) {
+            queues.put(priority, LinkedListMultimap.<TransactionOutPoint, Lookup>create());
+        }
+        fetcher = new Fetcher(servers, params);
     }
 
     public void setFetchService(ScheduledExecutorService fetchService) {
         this.fetchService = fetchService;
     }
 
+    /**
+     * Set the concurrency of the fetch pipeline.  Must be called before {@link #start(MultiWallet)}.
+     *
+     * @param network            concurrent requests to the server
+     * @param parse              threads deserializing and validating proofs
+     * @param maxBatchesInFlight batches between being taken from the queue and applied, after which the queue backs up
+     */
+    public void setFetchParallelism(int network, int parse, int maxBatchesInFlight) {
+        checkState(fetchService == null, "already started");
+        checkArgument(network > 0 && parse > 0 && maxBatchesInFlight > 0);
+        this.networkParallelism = network;
+        this.parseParallelism = parse;
+        this.maxBatchesInFlight = maxBatchesInFlight;
+    }
+
+    public int getNetworkParallelism() {
+        return networkParallelism;
+    }
+
+    public int getParseParallelism() {
+        return parseParallelism;
+    }
+
+    /**
+     * Limit the rate of requests to the tracker.  Must be called before {@link #start(MultiWallet)}.
+     *
+     * @param perSecond sustained requests per second
+     * @param burst     requests that may be made at once
+     */
+    public void setRequestRate(double perSecond, int burst) {
+        checkState(fetchService == null, "already started");
+        requestBucket = new TokenBucket(perSecond, burst);
+    }
+
+    /** The state of the circuit breaker guarding the tracker */
+    public CircuitBreaker.State getCircuitState() {
+        return circuitBreaker.getState();
+    }
+
+    /** Outpoints waiting to enter the fetch pipeline */
+    public int getQueuedOutPointCount() {
+        return queuedOutPoints;
+    }
+
+    /** Outpoint requests that joined a request already queued or in flight, instead of fetching again */
+    public long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /** Batches waiting for a network thread */
+    public int getNetworkQueueDepth() {
+        return networkQueueDepth.get();
+    }
+
+    /** Batches waiting for a parse thread */
+    public int getParseQueueDepth() {
+        return parseQueueDepth.get();
+    }
+
+    /** Batches waiting to be applied on the fetch thread */
+    public int getApplyQueueDepth() {
+        return applyQueueDepth.get();
+    }
+
+    /** Keep tracker responses in a disk cache, so proofs seen before are revalidated instead of refetched */
+    public void setResponseCache(ResponseCache responseCache) {
+        fetcher.setResponseCache(responseCache);
+    }
+
     void setFetcher(Fetcher fetcher) {
         this.fetcher = fetcher;
     }
@@ -87,12 +238,29 @@ public class ClientColorScanner extends AbstractColorScanner<ClientColorTrack> {
         }
         fetcher.stop();
         fetchService.shutdownNow();
+        networkService.shutdownNow();
+        parseService.shutdownNow();
         try {
             fetchService.awaitTermination(5, TimeUnit.SECONDS);
+            networkService.awaitTermination(5, TimeUnit.SECONDS);
+            parseService.awaitTermination(5, TimeUnit.SECONDS);
         } catch (InterruptedException e) {
             Throwables.propagate(e);
         }
         fetchService = null;
+        networkService = null;
+        parseService = null;
+        // Still in pending, looked up again on start
+        for (ListMultimap<TransactionOutPoint, Lookup> queue : queues.values()) {
+            queue.clear();
+        }
+        activeLookups.clear();
+        inFlight.clear();
+        // A trial request may have been abandoned
+        circuitBreaker.reset();
+        dispatchScheduled = false;
+        batchesInFlight = 0;
+        queuedOutPoints = 0;
     }
 
     @Override
@@ -102,16 +270,24 @@ public class ClientColorScanner extends AbstractColorScanner<ClientColorTrack> {
         this.wallet = wallet;
 
         // Intern the transactions so we get the right confidence level
-        for (Map.Entry<Sha256Hash, Transaction> entry : pending.entrySet()) {
-            pending.put(entry.getKey(), wallet.getTransaction(entry.getValue().getHash()));
+        lock.lock();
+        try {
+            for (Map.Entry<Sha256Hash, Transaction> entry : pending.entrySet()) {
+                pending.put(entry.getKey(), wallet.getTransaction(entry.getValue().getHash()));
+            }
+            markPendingChanged();
+        } finally {
+            lock.unlock();
         }
         fetchService = SmartColors.makeSerializationService("Fetcher thread");
+        networkService = SmartColors.makeSerializationPool("Fetcher network", networkParallelism);
+        parseService = SmartColors.makeSerializationPool("Fetcher parser", parseParallelism);
         for (Transaction tx : pending.values()) {
-            // Average 1 per second
-            long millis = (long) (1000 * pending.size() * Math.random());
-            fetchService.schedule(new Lookup(tx), millis, TimeUnit.MILLISECONDS);
+            // Lookups are batched, so there is no need to spread them out
+            fetchService.schedule(new Lookup(tx, LookupPriority.BACKLOG), 0, TimeUnit.MILLISECONDS);
         }
         listenToWallet(wallet);
+        listenForBalances(wallet);
         addAllPending(wallet, wallet.getTransactionPool(WalletTransaction.Pool.PENDING).values());
     }
 
@@ -119,9 +295,23 @@ public class ClientColorScanner extends AbstractColorScanner<ClientColorTrack> {
         return fetchService != null;
     }
 
+    /** Persist the proofs of colored outputs in the store */
+    public void setProofStore(ProofStore proofStore) {
+        this.proofStore = proofStore;
+        for (ColorTrack track : getColorTracks()) {
+            ((ClientColorTrack) track).setProofStore(proofStore);
+        }
+    }
+
+    public ProofStore getProofStore() {
+        return proofStore;
+    }
+
     @Override
     protected ClientColorTrack makeTrack(ColorDefinition definition) {
-        return new ClientColorTrack(definition);
+        ClientColorTrack track = new ClientColorTrack(definition);
+        track.setProofStore(proofStore);
+        return track;
     }
 
     private void listenToWallet(final MultiWallet wallet) {
@@ -134,6 +324,14 @@ public class ClientColorScanner extends AbstractColorScanner<ClientColorTrack> {
             @Override
             public void onSyncState(MultiWallet wallet, boolean isSynced, long height) {
             }
+
+            @Override
+            public void onTransactionConfidenceChanged(MultiWallet wallet, Transaction tx) {
+            }
+
+            @Override
+            public void onReorganize(MultiWallet wallet) {
+            }
         }, Threading.SAME_THREAD);
     }
 
@@ -160,10 +358,12 @@ public class ClientColorScanner extends AbstractColorScanner<ClientColorTrack> {
                 }
             }
             if (needsLookup) {
-                pending.put(tx.getHash(), tx);
+                // A lookup already pending for the transaction will complete any new futures for it
+                boolean scheduled = pending.put(tx.getHash(), tx) != null;
+                markPendingChanged();
                 // This can be null if we are stopped.  We'll scan this transaction when we start again
-                if (fetchService != null)
-                    fetchService.schedule(new Lookup(tx), 0, TimeUnit.SECONDS);
+                if (fetchService != null && !scheduled)
+                    fetchService.schedule(new Lookup(tx, LookupPriority.NEW), 0, TimeUnit.SECONDS);
             }
         } finally {
             lock.unlock();
@@ -173,19 +373,16 @@ public class ClientColorScanner extends AbstractColorScanner<ClientColorTrack> {
 
     // True iff we can derive the color output information from the inputs
     private boolean tryLocalLookup(Transaction tx, boolean overrideFound) {
-        List<ClientColorTrack> found = Lists.newArrayList();
+        Set<ClientColorTrack> found = Sets.newLinkedHashSet();
         // Find all colors that know about inputs
         for (TransactionInput input : tx.getInputs()) {
-            boolean isFound = false;
-            for (ClientColorTrack track : tracks) {
-                if (track.isColored(input.getOutpoint())) {
-                    found.add(track);
-                    isFound = true;
-                }
-            }
+            OutPointIndex.Entry entry = outPointIndex.get(input.getOutpoint());
             // FIXME uncolored bitcoin inputs will always result in !isFound
-            if (!overrideFound && !isFound)
+            if (!overrideFound && entry == null)
                 return false;
+            for (; entry != null; entry = entry.getNext()) {
+                found.add((ClientColorTrack) entry.getTrack());
+            }
         }
         for (ClientColorTrack track : found) {
             track.add(tx);
@@ -195,76 +392,114 @@ public class ClientColorScanner extends AbstractColorScanner<ClientColorTrack> {
 
     class Lookup implements Runnable {
         private final Transaction tx;
+        private LookupPriority priority;
         private int tries = 0;
+        private List<TransactionOutPoint> points;
+        // Outpoints of this lookup still in the batch queue
+        private int outstanding;
+        private boolean failed;
+        private ScheduledFuture<?> retryFuture;
 
-        Lookup(Transaction tx) {
+        Lookup(Transaction tx, LookupPriority priority) {
             this.tx = tx;
+            this.priority = priority;
+        }
+
+        private boolean isWaitedOn() {
+            readLock.lock();
+            try {
+                return unknownTransactionFutures.containsKey(tx);
+            } finally {
+                readLock.unlock();
+            }
+        }
+
+        private boolean isConfirmed() {
+            return tx.getConfidence(wallet.getContext()).getConfidenceType().equals(TransactionConfidence.ConfidenceType.BUILDING);
         }
 
         @Override
         public void run() {
-            if (tx.getConfidence(wallet.getContext()).getConfidenceType().equals(TransactionConfidence.ConfidenceType.BUILDING)) {
+            retryFuture = null;
+            activeLookups.put(tx.getHash(), this);
+            if (isWaitedOn())
+                priority = LookupPriority.WAITED_ON;
+            points = Lists.newArrayList();
+            if (isConfirmed()) {
+                boolean buried = tx.getConfidence(wallet.getContext()).getDepthInBlocks() >= BURIED_DEPTH;
                 for (TransactionOutput output : tx.getOutputs()) {
-                    TransactionOutPoint point = output.getOutPointFor();
                     if (colorKeyChain.isOutputToMe(output)) {
-                        if (handleOutpoint(point)) return;
+                        points.add(output.getOutPointFor());
+                        if (buried)
+                            fetcher.markBuried(output.getOutPointFor());
                     }
                 }
             } else {
                 // Unconfirmed transaction
                 // Lookup all inputs, and derive color from that
                 for (TransactionInput input : tx.getInputs()) {
-                    if (handleOutpoint(input.getOutpoint())) return;
+                    points.add(input.getOutpoint());
                 }
-                tryLocalLookup(tx, true);
             }
-            notifyTransactionDone(tx);
+            outstanding = 0;
+            failed = false;
+            for (TransactionOutPoint point : points) {
+                if (!contains(point)) {
+                    outstanding++;
+                    enqueueFetch(point, this);
+                }
+            }
+            if (outstanding == 0)
+                finish();
         }
 
-        // True if retry initiated
-        private boolean handleOutpoint(TransactionOutPoint point) {
-            try {
-                if (!contains(point))
-                    doOutPoint(point);
-            } catch (SerializationException e) {
-                log.error("serialization problem", e);
-                retry();
-                return true;
-            } catch (TemporaryFailureException e) {
-                log.warn("tempfail " + point);
+        // Called on the fetch thread once for each outpoint enqueued
+        void onFetched(boolean success) {
+            if (!success)
+                failed = true;
+            if (--outstanding > 0)
+                return;
+            if (failed)
                 retry();
-                return true;
+            else
+                finish();
+        }
+
+        private void finish() {
+            activeLookups.remove(tx.getHash());
+            if (!isConfirmed()) {
+                lock.lock();
+                try {
+                    tryLocalLookup(tx, true);
+                } finally {
+                    lock.unlock();
+                }
             }
-            return false;
+            notifyTransactionDone(tx);
         }
 
         private void retry() {
             tries++;
             // Jitter 2 seconds + 2 ** tries
             long delay = (long) (Math.random() * 2000 + 1000 * Math.pow(2, Math.min(tries, 7)));
-            fetchService.schedule(this, delay, TimeUnit.MILLISECONDS);
+            retryFuture = fetchService.schedule(this, delay, TimeUnit.MILLISECONDS);
         }
 
-        private void doOutPoint(TransactionOutPoint outPoint) throws SerializationException, TemporaryFailureException {
-            ColorProof proof = fetcher.fetch(outPoint);
-            log.info("after fetch: " + getPendingCount() + " pending");
-            if (proof == null)
+        // Fetch thread only
+        void promote() {
+            if (priority == LookupPriority.WAITED_ON)
                 return;
-            boolean found = false;
-            lock.lock();
-            try {
-                for (ClientColorTrack track : tracks) {
-                    if (track.definition.equals(proof.getDefinition())) {
-                        track.add(proof);
-                        found = true;
-                    }
-                }
-                if (!found) {
-                    // TODO handle new asset type
-                    log.warn("Unknown asset type fetched " + proof.getDefinition().getHash());
-                }
-            } finally {
-                lock.unlock();
+            priority = LookupPriority.WAITED_ON;
+            if (retryFuture != null) {
+                // Don't wait out the backoff, the circuit breaker guards the server
+                if (retryFuture.cancel(false))
+                    run();
+                return;
+            }
+            for (TransactionOutPoint point : points) {
+                LookupPriority current = queuedPriority(point);
+                if (current != null && current != priority)
+                    queues.get(priority).putAll(point, queues.get(current).removeAll(point));
             }
         }
 
@@ -273,6 +508,7 @@ public class ClientColorScanner extends AbstractColorScanner<ClientColorTrack> {
             Collection<SettableFuture<Transaction>> futures;
             try {
                 pending.remove(tx.getHash());
+                markPendingChanged();
                 futures = unknownTransactionFutures.removeAll(tx);
             } finally {
                 lock.unlock();
@@ -286,20 +522,357 @@ public class ClientColorScanner extends AbstractColorScanner<ClientColorTrack> {
         }
     }
 
-    static class TemporaryFailureException extends Exception {
+    // Fetch thread only
+    private void enqueueFetch(TransactionOutPoint point, Lookup lookup) {
+        Batch batch = inFlight.get(point);
+        if (batch != null) {
+            // Single flight - share the fetch and validation already under way
+            batch.lookups.get(point).add(lookup);
+            coalescedCount++;
+            return;
+        }
+        LookupPriority priority = lookup.priority;
+        LookupPriority current = queuedPriority(point);
+        if (current != null) {
+            coalescedCount++;
+            if (current.compareTo(priority) < 0)
+                priority = current;
+            else if (current != priority)
+                queues.get(priority).putAll(point, queues.get(current).removeAll(point));
+        }
+        queues.get(priority).put(point, lookup);
+        updateQueuedCount();
+        // Give other lookups a chance to join the batch
+        scheduleDispatch(BATCH_DELAY_MS);
+    }
+
+    // Fetch thread only
+    private LookupPriority queuedPriority(TransactionOutPoint point) {
+        for (Map.Entry<LookupPriority, ListMultimap<TransactionOutPoint, Lookup>> entry : queues.entrySet()) {
+            if (entry.getValue().containsKey(point))
+                return entry.getKey();
+        }
+        return null;
+    }
+
+    private boolean isQueueEmpty() {
+        for (ListMultimap<TransactionOutPoint, Lookup> queue : queues.values()) {
+            if (!queue.isEmpty())
+                return false;
+        }
+        return true;
+    }
+
+    private void updateQueuedCount() {
+        int count = 0;
+        for (ListMultimap<TransactionOutPoint, Lookup> queue : queues.values()) {
+            count += queue.keySet().size();
+        }
+        queuedOutPoints = count;
+    }
+
+    private void scheduleDispatch(long delayMillis) {
+        if (!dispatchScheduled) {
+            dispatchScheduled = true;
+            fetchService.schedule(new Dispatch(), delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Serve lookups for the transaction before others */
+    void prioritize(final Transaction tx) {
+        ScheduledExecutorService service = fetchService;
+        if (service == null)
+            return;
+        try {
+            service.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Lookup lookup = activeLookups.get(tx.getHash());
+                    // If it has not run yet, it will see the waiting future when it does
+                    if (lookup != null)
+                        lookup.promote();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Stopped
+        }
     }
 
-    @JsonDeserialize(keyUsing = HexKeyDeserializer.class)
-    public static class ProofMap extends HashMap<HashCode, byte[]> {
+    @Override
+    public ListenableFuture<Transaction> getTransactionWithKnownAssets(Transaction tx, MultiWallet wallet, ColorKeyChain chain) {
+        ListenableFuture<Transaction> future = super.getTransactionWithKnownAssets(tx, wallet, chain);
+        if (!future.isDone())
+            prioritize(tx);
+        return future;
     }
 
-    @JsonIgnoreProperties(ignoreUnknown = true)
+    /**
+     * Outpoints on their way through the fetch pipeline, with the lookups waiting for them.
+     * <p/>
+     * <p>The stages are: network, on a pool of {@link #getNetworkParallelism()} threads; parse and validate,
+     * on a pool of {@link #getParseParallelism()} threads; and apply, back on the fetch thread, which takes the scanner
+     * lock only to add the validated proofs.</p>
+     */
+    class Batch {
+        final List<TransactionOutPoint> points;
+        final Map<TransactionOutPoint, List<Lookup>> lookups;
+        Map<TransactionOutPoint, OutPointResponse> responses;
+        // Proofs for each resolved outpoint, one for each definition coloring it
+        final Map<TransactionOutPoint, List<ColorProof>> results = Maps.newHashMap();
+
+        Batch(List<TransactionOutPoint> points, Map<TransactionOutPoint, List<Lookup>> lookups) {
+            this.points = points;
+            this.lookups = lookups;
+        }
+    }
+
+    /** Move queued outpoints into the pipeline, as long as it has room.  Fetch thread only. */
+    class Dispatch implements Runnable {
+        @Override
+        public void run() {
+            dispatchScheduled = false;
+            // Backpressure - the rest wait in the queue until a batch is applied
+            while (!isQueueEmpty() && batchesInFlight < maxBatchesInFlight) {
+                long wait = requestBucket.getMillisUntilAvailable();
+                if (wait > 0) {
+                    scheduleDispatch(wait);
+                    break;
+                }
+                if (!circuitBreaker.allowRequest()) {
+                    // When half open, applying the trial batch dispatches again
+                    if (circuitBreaker.getState() == CircuitBreaker.State.OPEN)
+                        scheduleDispatch(circuitBreaker.getMillisUntilRetry());
+                    break;
+                }
+                requestBucket.tryAcquire();
+                List<TransactionOutPoint> points = Lists.newArrayList();
+                Map<TransactionOutPoint, List<Lookup>> lookups = Maps.newHashMap();
+                Batch batch = new Batch(points, lookups);
+                for (ListMultimap<TransactionOutPoint, Lookup> queue : queues.values()) {
+                    for (TransactionOutPoint point : Lists.newArrayList(Iterables.limit(queue.keySet(), MAX_BATCH_SIZE - points.size()))) {
+                        points.add(point);
+                        lookups.put(point, Lists.newArrayList(queue.removeAll(point)));
+                        inFlight.put(point, batch);
+                    }
+                }
+                batchesInFlight++;
+                submitNetwork(batch);
+            }
+            updateQueuedCount();
+        }
+    }
+
+    private void submitNetwork(final Batch batch) {
+        final ScheduledExecutorService coordinator = fetchService;
+        final ExecutorService parse = parseService;
+        networkQueueDepth.incrementAndGet();
+        networkService.execute(new Runnable() {
+            @Override
+            public void run() {
+                networkQueueDepth.decrementAndGet();
+                try {
+                    batch.responses = fetcher.fetchResponses(batch.points);
+                    circuitBreaker.onSuccess();
+                } catch (TemporaryFailureException e) {
+                    log.warn("tempfail for batch of " + batch.points.size());
+                    batch.responses = Maps.newHashMap();
+                    circuitBreaker.onFailure();
+                } catch (RuntimeException e) {
+                    // The outpoints fail and are retried, the batch must still be applied
+                    log.error("fetch failed for batch of " + batch.points.size(), e);
+                    batch.responses = Maps.newHashMap();
+                    circuitBreaker.onFailure();
+                }
+                parseQueueDepth.incrementAndGet();
+                try {
+                    parse.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            parseQueueDepth.decrementAndGet();
+                            try {
+                                parseAndValidate(batch);
+                            } finally {
+                                submitApply(batch, coordinator);
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // Stopped
+                    parseQueueDepth.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    // Parse stage
+    private void parseAndValidate(Batch batch) {
+        for (Map.Entry<TransactionOutPoint, OutPointResponse> entry : batch.responses.entrySet()) {
+            try {
+                List<ColorProof> proofs = fetcher.parse(entry.getValue());
+                for (ColorProof proof : proofs) {
+                    if (!proof.getOutPoint().equals(entry.getKey()))
+                        throw new ColorProof.ValidationException("proof is for " + proof.getOutPoint() + ", expected " + entry.getKey());
+                    proof.validate();
+                }
+                batch.results.put(entry.getKey(), proofs);
+            } catch (ColorProof.ValidationException e) {
+                log.error("invalid proof for " + entry.getKey(), e);
+                fetcher.reportInvalid(entry.getKey(), entry.getValue());
+            } catch (SerializationException e) {
+                log.error("serialization problem for " + entry.getKey(), e);
+            } catch (TemporaryFailureException e) {
+                // Left out, to be retried
+            } catch (RuntimeException e) {
+                // Left out, failing the outpoint like an invalid proof
+                log.error("could not parse proof for " + entry.getKey(), e);
+            }
+        }
+    }
+
+    private void submitApply(final Batch batch, final ScheduledExecutorService coordinator) {
+        applyQueueDepth.incrementAndGet();
+        try {
+            coordinator.execute(new Runnable() {
+                @Override
+                public void run() {
+                    applyQueueDepth.decrementAndGet();
+                    batchesInFlight--;
+                    apply(batch);
+                    if (!isQueueEmpty())
+                        scheduleDispatch(0);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Stopped
+            applyQueueDepth.decrementAndGet();
+        }
+    }
+
+    // Apply stage, fetch thread only
+    private void apply(Batch batch) {
+        log.info("after fetch of " + batch.points.size() + ": " + getPendingCount() + " pending");
+        for (TransactionOutPoint point : batch.points) {
+            inFlight.remove(point);
+        }
+        for (TransactionOutPoint point : batch.points) {
+            List<ColorProof> proofs = batch.results.get(point);
+            boolean success = proofs != null && addProofs(proofs);
+            for (Lookup lookup : batch.lookups.get(point)) {
+                lookup.onFetched(success);
+            }
+        }
+    }
+
+    // Apply all the proofs for an outpoint to the matching tracks
+    private boolean addProofs(List<ColorProof> proofs) {
+        if (proofs.isEmpty())
+            return true;
+        // Write to the proof store before taking the lock, so queries do not wait for the disk
+        List<ClientColorTrack> storedIn = Lists.newArrayListWithCapacity(proofs.size());
+        List<HashCode> hashes = Lists.newArrayListWithCapacity(proofs.size());
+        try {
+            for (ColorProof proof : proofs) {
+                ClientColorTrack track = tracks.get(proof.getDefinition());
+                storedIn.add(track);
+                HashCode hash = null;
+                if (track != null) {
+                    try {
+                        hash = track.store(proof);
+                    } catch (IOException e) {
+                        // Not the proof's fault, so the output is still colored - only without a stored proof
+                        log.error("could not store proof for " + proof.getOutPoint(), e);
+                    }
+                }
+                hashes.add(hash);
+            }
+        } catch (ColorProof.ValidationException e) {
+            log.error("invalid proof", e);
+            return false;
+        }
+        lock.lock();
+        try {
+            for (int i = 0; i < proofs.size(); i++) {
+                ColorProof proof = proofs.get(i);
+                ClientColorTrack track = tracks.get(proof.getDefinition());
+                if (track == null) {
+                    // TODO handle new asset type
+                    log.warn("Unknown asset type fetched " + proof.getDefinition().getHash());
+                } else if (track == storedIn.get(i)) {
+                    track.addStored(proof, hashes.get(i));
+                } else {
+                    // The definition was added meanwhile, retry to store the proof first
+                    return false;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    static class TemporaryFailureException extends Exception {
+    }
+
+    /**
+     * The tracker's answer for one outpoint.
+     * <p/>
+     * <p>Read with a streaming parser, base64 proof bodies decoded straight to bytes.  The proofs
+     * for all definitions are kept, the definition and proof hashes keying them are not.</p>
+     */
+    @JsonDeserialize(using = OutPointResponse.Reader.class)
     public static class OutPointResponse {
         public String status;
         public String error;
         public String details;
-        @JsonDeserialize(keyUsing = HexKeyDeserializer.class)
-        public Map<HashCode, ProofMap> proofs;
+        // Serialized proofs, for every definition coloring the outpoint.  Null if the tracker could not answer.
+        public List<byte[]> proofs;
+        // The server that sent the response, null if it came from the cache
+        TrackerServer source;
+
+        public static OutPointResponse read(JsonParser parser) throws IOException {
+            if (parser.getCurrentToken() == null)
+                parser.nextToken();
+            expect(parser, JsonToken.START_OBJECT);
+            OutPointResponse res = new OutPointResponse();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if ("status".equals(field))
+                    res.status = parser.getValueAsString();
+                else if ("error".equals(field))
+                    res.error = parser.getValueAsString();
+                else if ("details".equals(field))
+                    res.details = parser.getValueAsString();
+                else if ("proofs".equals(field) && parser.getCurrentToken() != JsonToken.VALUE_NULL)
+                    res.proofs = readProofs(parser);
+                else
+                    parser.skipChildren();
+            }
+            expect(parser, JsonToken.END_OBJECT);
+            return res;
+        }
+
+        // {definition hash: {proof hash: base64 proof}}
+        private static List<byte[]> readProofs(JsonParser parser) throws IOException {
+            expect(parser, JsonToken.START_OBJECT);
+            List<byte[]> proofs = Lists.newArrayList();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                parser.nextToken();
+                expect(parser, JsonToken.START_OBJECT);
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    parser.nextToken();
+                    proofs.add(parser.getBinaryValue());
+                }
+            }
+            return proofs;
+        }
+
+        public static class Reader extends JsonDeserializer<OutPointResponse> {
+            @Override
+            public OutPointResponse deserialize(JsonParser parser, DeserializationContext ctxt) throws IOException {
+                return read(parser);
+            }
+        }
 
         @Override
         public String toString() {
@@ -311,23 +884,57 @@ public class ClientColorScanner extends AbstractColorScanner<ClientColorTrack> {
         }
     }
 
+    private static void expect(JsonParser parser, JsonToken token) throws JsonParseException {
+        if (parser.getCurrentToken() != token)
+            throw new JsonParseException("expected " + token + ", got " + parser.getCurrentToken(), parser.getCurrentLocation());
+    }
+
+    /** Request body of a batch fetch, outpoints as hash:index */
+    public static class BatchRequest {
+        public List<String> outpoints;
+    }
+
     public static class Fetcher {
         private static SSLContext sslContext;
-        private final URI base;
+        private final List<TrackerServer> servers;
         private final NetworkParameters params;
         CloseableHttpClient httpclient;
         ObjectMapper mapper = new ObjectMapper();
+        private volatile ResponseCache responseCache;
+        // Outpoints to cache as immutable once fetched
+        private final Set<TransactionOutPoint> buried = Sets.newConcurrentHashSet();
+        // Runs the requests of hedged fetches, null with a single server.  Replaced on stop.
+        private volatile ExecutorService hedgeService;
+        private volatile double hedgePercentile = DEFAULT_HEDGE_PERCENTILE;
+        private final AtomicInteger hedgedCount = new AtomicInteger();
 
         public Fetcher(URI base, NetworkParameters params) {
-            this.base = base;
-            this.params = params;
+            this(Collections.singletonList(base), params);
+        }
+
+        public Fetcher(List<URI> servers, NetworkParameters params) {
+            this(servers, params, null);
             initClient();
         }
 
         Fetcher(URI base, NetworkParameters params, CloseableHttpClient httpclient) {
-            this.base = base;
+            this(Collections.singletonList(base), params, httpclient);
+        }
+
+        Fetcher(List<URI> servers, NetworkParameters params, CloseableHttpClient httpclient) {
+            checkArgument(!servers.isEmpty(), "no servers");
+            this.servers = Lists.newArrayList();
+            for (URI base : servers) {
+                this.servers.add(new TrackerServer(base));
+            }
             this.params = params;
             this.httpclient = httpclient;
+            initHedgeService();
+        }
+
+        private void initHedgeService() {
+            hedgeService = servers.size() > 1 ? Executors.newCachedThreadPool(
+                    new ThreadFactoryBuilder().setNameFormat("Fetcher hedge %d").setDaemon(true).build()) : null;
         }
 
         public static void setSslContext(SSLContext sslContext) {
@@ -347,54 +954,471 @@ public class ClientColorScanner extends AbstractColorScanner<ClientColorTrack> {
                     .build();
         }
 
+        /**
+         * Fetch the proof for an outpoint.  If several definitions color the outpoint, only the first proof
+         * is returned - see {@link #fetch(Collection)}.
+         *
+         * @return the proof, or null if the outpoint is not colored
+         */
         public ColorProof fetch(TransactionOutPoint point) throws SerializationException, TemporaryFailureException {
             if (disableFetch)
                 return null;
-            String relative = "outpoint/" + point.getHash() + "/" + point.getIndex();
-            log.info("fetching " + relative);
-            HttpGet get = new HttpGet(base.resolve(relative));
+            List<ColorProof> proofs = parse(fetchResponse(point));
+            return proofs.isEmpty() ? null : proofs.get(0);
+        }
+
+        /**
+         * Fetch proofs for many outpoints in one request.
+         *
+         * @return the proofs for each outpoint that was resolved, one for each definition coloring it.
+         * Outpoints that could not be resolved this time are missing.
+         */
+        public Map<TransactionOutPoint, List<ColorProof>> fetch(Collection<TransactionOutPoint> points) throws TemporaryFailureException {
+            Map<TransactionOutPoint, List<ColorProof>> results = Maps.newHashMap();
+            for (Map.Entry<TransactionOutPoint, OutPointResponse> entry : fetchResponses(points).entrySet()) {
+                try {
+                    results.put(entry.getKey(), parse(entry.getValue()));
+                } catch (SerializationException e) {
+                    log.error("serialization problem for " + entry.getKey(), e);
+                } catch (TemporaryFailureException e) {
+                    // Leave it out, to be retried
+                }
+            }
+            return results;
+        }
+
+        /** The network half of {@link #fetch(TransactionOutPoint)} - the proofs are not deserialized */
+        public OutPointResponse fetchResponse(final TransactionOutPoint point) throws TemporaryFailureException {
+            if (disableFetch)
+                return notColored();
+            ResponseCache cache = responseCache;
+            final ResponseCache.Entry cached = cache == null ? null : cache.get(relative(point));
+            if (cached != null && cached.immutable) {
+                buried.remove(point);
+                return cached.toResponse();
+            }
+            return hedge(new Attempt<OutPointResponse>() {
+                @Override
+                public OutPointResponse run(TrackerServer server, Exchange exchange) throws TemporaryFailureException {
+                    return fetchResponse(server, point, cached, exchange);
+                }
+            });
+        }
+
+        private OutPointResponse fetchResponse(TrackerServer server, TransactionOutPoint point, ResponseCache.Entry cached, Exchange exchange) throws TemporaryFailureException {
+            String relative = relative(point);
+            ResponseCache cache = responseCache;
+            log.info("fetching " + relative + " from " + server.getBase());
+            HttpGet get = new HttpGet(server.getBase().resolve(relative));
+            if (cached != null) {
+                // Revalidate
+                if (cached.etag != null)
+                    get.setHeader(HttpHeaders.IF_NONE_MATCH, cached.etag);
+                if (cached.lastModified != null)
+                    get.setHeader(HttpHeaders.IF_MODIFIED_SINCE, cached.lastModified);
+            }
 
             CloseableHttpResponse response = null;
             try {
+                exchange.start(get);
                 response = httpclient.execute(get);
                 StatusLine statusLine = response.getStatusLine();
+                if (cached != null && cache != null && statusLine.getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+                    if (buried.remove(point))
+                        cache.put(relative, cached.asImmutable());
+                    OutPointResponse res = cached.toResponse();
+                    res.source = server;
+                    return res;
+                }
                 if (statusLine.getStatusCode() >= 300) {
                     log.warn("got status " + statusLine);
                     throw new TemporaryFailureException();
                 }
-                OutPointResponse res = mapper.readValue(response.getEntity().getContent(), OutPointResponse.class);
+                OutPointResponse res;
+                JsonParser parser = mapper.getFactory().createParser(response.getEntity().getContent());
+                try {
+                    res = OutPointResponse.read(parser);
+                } finally {
+                    parser.close();
+                }
+                res.source = server;
+                cacheResponse(point, res, headerValue(response, HttpHeaders.ETAG), headerValue(response, HttpHeaders.LAST_MODIFIED));
+                return res;
+            } catch (IOException e) {
+                // temporary failure
+                log.warn("got IOException " + e.getMessage());
+                throw new TemporaryFailureException();
+            } finally {
+                close(response);
+            }
+        }
 
-                if (res.proofs == null) {
-                    log.warn("fetch failure " + res.status + " " + res.details);
-                    throw new TemporaryFailureException();
+        /**
+         * The network half of {@link #fetch(Collection)}.  A single outpoint uses the plain outpoint request.
+         * <p/>
+         * <p>Falls back to one request per outpoint if the server does not support batches.</p>
+         *
+         * @return the response for each outpoint that was answered
+         */
+        public Map<TransactionOutPoint, OutPointResponse> fetchResponses(Collection<TransactionOutPoint> points) throws TemporaryFailureException {
+            Map<TransactionOutPoint, OutPointResponse> results = Maps.newHashMap();
+            ResponseCache cache = responseCache;
+            if (cache != null && !disableFetch) {
+                List<TransactionOutPoint> remaining = Lists.newArrayList();
+                for (TransactionOutPoint point : points) {
+                    ResponseCache.Entry cached = cache.get(relative(point));
+                    if (cached != null && cached.immutable)
+                        results.put(point, cached.toResponse());
+                    else
+                        remaining.add(point);
                 }
+                if (remaining.isEmpty())
+                    return results;
+                points = remaining;
+            }
+            if (points.size() == 1) {
+                TransactionOutPoint point = points.iterator().next();
+                results.put(point, fetchResponse(point));
+                return results;
+            }
+            if (disableFetch) {
+                for (TransactionOutPoint point : points) {
+                    results.put(point, notColored());
+                }
+                return results;
+            }
+            final Collection<TransactionOutPoint> remaining = points;
+            results.putAll(hedge(new Attempt<Map<TransactionOutPoint, OutPointResponse>>() {
+                @Override
+                public Map<TransactionOutPoint, OutPointResponse> run(TrackerServer server, Exchange exchange) throws TemporaryFailureException {
+                    return fetchBatch(server, remaining, exchange);
+                }
+            }));
+            return results;
+        }
 
-                log.info("fetch success " + res.status + ", " + res.proofs.size() + " proofs");
+        private Map<TransactionOutPoint, OutPointResponse> fetchBatch(TrackerServer server, Collection<TransactionOutPoint> points, Exchange exchange) throws TemporaryFailureException {
+            if (!server.isBatchSupported())
+                return fetchEachResponse(server, points, exchange);
 
-                for (ProofMap map : res.proofs.values()) {
-                    // TODO this only returns first
-                    for (byte[] bytes : map.values()) {
-                        return ColorProof.deserialize(params, new BytesDeserializer(bytes));
-                    }
+            Map<TransactionOutPoint, OutPointResponse> results = Maps.newHashMap();
+            Map<String, TransactionOutPoint> keys = Maps.newLinkedHashMap();
+            for (TransactionOutPoint point : points) {
+                keys.put(point.getHash() + ":" + point.getIndex(), point);
+            }
+            log.info("fetching batch of " + keys.size() + " from " + server.getBase());
+            HttpPost post = new HttpPost(server.getBase().resolve("outpoints"));
+
+            CloseableHttpResponse response = null;
+            try {
+                BatchRequest request = new BatchRequest();
+                request.outpoints = Lists.newArrayList(keys.keySet());
+                post.setEntity(new ByteArrayEntity(mapper.writeValueAsBytes(request), ContentType.APPLICATION_JSON));
+                exchange.start(post);
+                response = httpclient.execute(post);
+                StatusLine statusLine = response.getStatusLine();
+                if (statusLine.getStatusCode() == HttpStatus.SC_NOT_FOUND || statusLine.getStatusCode() == HttpStatus.SC_METHOD_NOT_ALLOWED) {
+                    log.warn(server.getBase() + " does not support batches, got status " + statusLine);
+                    server.setBatchSupported(false);
+                    close(response);
+                    response = null;
+                    return fetchEachResponse(server, points, exchange);
+                }
+                if (statusLine.getStatusCode() >= 300) {
+                    log.warn("got status " + statusLine);
+                    throw new TemporaryFailureException();
+                }
+                JsonParser parser = mapper.getFactory().createParser(response.getEntity().getContent());
+                try {
+                    readBatch(parser, server, keys, results);
+                } finally {
+                    parser.close();
                 }
+                log.info("batch fetch success, " + results.size() + " of " + keys.size() + " answered");
+                return results;
             } catch (IOException e) {
                 // temporary failure
                 log.warn("got IOException " + e.getMessage());
                 throw new TemporaryFailureException();
-            } catch (StackOverflowError e) {
-                log.error("could not deserialize proof, deeming UNKNOWN");
-                return null;
             } finally {
-                if (response != null) {
-                    try {
-                        response.close();
-                    } catch (IOException e) {
-                        log.warn("got IOException while closing " + e.getMessage());
-                        // ignore
+                close(response);
+            }
+        }
+
+        // {"status": ..., "outpoints": {"hash:index": response}}
+        private void readBatch(JsonParser parser, TrackerServer server, Map<String, TransactionOutPoint> keys, Map<TransactionOutPoint, OutPointResponse> results) throws IOException, TemporaryFailureException {
+            parser.nextToken();
+            expect(parser, JsonToken.START_OBJECT);
+            String status = null;
+            boolean answered = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if ("status".equals(field)) {
+                    status = parser.getValueAsString();
+                } else if ("outpoints".equals(field) && parser.getCurrentToken() == JsonToken.START_OBJECT) {
+                    answered = true;
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String key = parser.getCurrentName();
+                        parser.nextToken();
+                        TransactionOutPoint point = keys.get(key);
+                        if (point == null) {
+                            log.warn("unrequested outpoint in batch " + key);
+                            parser.skipChildren();
+                            continue;
+                        }
+                        OutPointResponse res = OutPointResponse.read(parser);
+                        res.source = server;
+                        results.put(point, res);
+                        // No validators in batches, so only immutable responses are worth keeping
+                        cacheResponse(point, res, null, null);
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (!answered) {
+                log.warn("batch fetch failure " + status);
+                throw new TemporaryFailureException();
+            }
+        }
+
+        private Map<TransactionOutPoint, OutPointResponse> fetchEachResponse(TrackerServer server, Collection<TransactionOutPoint> points, Exchange exchange) throws TemporaryFailureException {
+            Map<TransactionOutPoint, OutPointResponse> results = Maps.newHashMap();
+            ResponseCache cache = responseCache;
+            for (TransactionOutPoint point : points) {
+                try {
+                    results.put(point, fetchResponse(server, point, cache == null ? null : cache.get(relative(point)), exchange));
+                } catch (TemporaryFailureException e) {
+                    if (exchange.isAborted())
+                        throw e;
+                    log.warn("tempfail " + point);
+                }
+            }
+            if (results.isEmpty())
+                throw new TemporaryFailureException();
+            return results;
+        }
+
+        // A fetch from one server, as part of a hedged fetch
+        private interface Attempt<T> {
+            T run(TrackerServer server, Exchange exchange) throws TemporaryFailureException;
+        }
+
+        // The request of an attempt, so that the attempt can be abandoned once another server has answered
+        private static class Exchange {
+            private HttpRequestBase request;
+            private boolean aborted;
+
+            synchronized void start(HttpRequestBase request) throws IOException {
+                if (aborted)
+                    throw new IOException("aborted");
+                this.request = request;
+            }
+
+            synchronized void abort() {
+                aborted = true;
+                if (request != null)
+                    request.abort();
+            }
+
+            synchronized boolean isAborted() {
+                return aborted;
+            }
+        }
+
+        // Run the attempt against one server, keeping its health score
+        private <T> T attempt(TrackerServer server, Attempt<T> attempt, Exchange exchange) throws TemporaryFailureException {
+            long start = System.nanoTime();
+            try {
+                T result = attempt.run(server, exchange);
+                server.onSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                return result;
+            } catch (TemporaryFailureException e) {
+                // Abandoned attempts say nothing about the server
+                if (!exchange.isAborted())
+                    server.onFailure();
+                throw e;
+            }
+        }
+
+        /**
+         * Run the attempt against the healthiest server.  If it fails, or has not answered by the hedge
+         * percentile of its recent latencies, the next server is tried as well.  The first answer wins and the
+         * other attempts are abandoned.
+         */
+        private <T> T hedge(final Attempt<T> attempt) throws TemporaryFailureException {
+            List<TrackerServer> ranked = getServers();
+            Collections.sort(ranked, TrackerServer.BY_SCORE);
+            ExecutorService hedgeService = this.hedgeService;
+            if (hedgeService == null)
+                return attempt(ranked.get(0), attempt, new Exchange());
+
+            long delay = ranked.get(0).getLatencyPercentile(hedgePercentile);
+            if (delay < 0)
+                delay = DEFAULT_HEDGE_DELAY_MS;
+            CompletionService<T> completion = new ExecutorCompletionService<T>(hedgeService);
+            List<Exchange> exchanges = Lists.newArrayList();
+            int running = 0;
+            try {
+                while (true) {
+                    if (exchanges.size() < ranked.size()) {
+                        final TrackerServer server = ranked.get(exchanges.size());
+                        final Exchange exchange = new Exchange();
+                        if (!exchanges.isEmpty())
+                            log.info("hedging to " + server.getBase());
+                        exchanges.add(exchange);
+                        completion.submit(new Callable<T>() {
+                            @Override
+                            public T call() throws Exception {
+                                return attempt(server, attempt, exchange);
+                            }
+                        });
+                        running++;
+                    }
+                    while (running > 0) {
+                        Future<T> done;
+                        if (exchanges.size() < ranked.size()) {
+                            done = completion.poll(delay, TimeUnit.MILLISECONDS);
+                            if (done == null) {
+                                hedgedCount.incrementAndGet();
+                                break;
+                            }
+                        } else {
+                            done = completion.take();
+                        }
+                        running--;
+                        try {
+                            return done.get();
+                        } catch (ExecutionException e) {
+                            if (!(e.getCause() instanceof TemporaryFailureException))
+                                throw Throwables.propagate(e.getCause());
+                            // Failed, try the next server now
+                            if (exchanges.size() < ranked.size())
+                                break;
+                        }
                     }
+                    if (running == 0 && exchanges.size() == ranked.size())
+                        throw new TemporaryFailureException();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TemporaryFailureException();
+            } catch (RejectedExecutionException e) {
+                // Stopped while hedging
+                throw new TemporaryFailureException();
+            } finally {
+                for (Exchange exchange : exchanges) {
+                    exchange.abort();
+                }
+            }
+        }
+
+        /** The servers, in the order they were given, with their health scores */
+        public List<TrackerServer> getServers() {
+            return Lists.newArrayList(servers);
+        }
+
+        /** The number of requests that were hedged to another server because they were slow */
+        public int getHedgedCount() {
+            return hedgedCount.get();
+        }
+
+        /**
+         * Hedge requests that take longer than this percentile of the recent latencies of the server.
+         * Until there are enough samples, {@link #DEFAULT_HEDGE_DELAY_MS} is used.
+         */
+        public void setHedgePercentile(double hedgePercentile) {
+            checkArgument(hedgePercentile > 0 && hedgePercentile <= 1);
+            this.hedgePercentile = hedgePercentile;
+        }
+
+        /** A response had a proof that did not validate, so its server is demoted and the response not kept */
+        public void reportInvalid(TransactionOutPoint point, OutPointResponse res) {
+            if (res.source != null)
+                res.source.onInvalid();
+            ResponseCache cache = responseCache;
+            if (cache != null)
+                cache.remove(relative(point));
+        }
+
+        /** Use a disk cache for responses.  Null to disable. */
+        public void setResponseCache(ResponseCache responseCache) {
+            this.responseCache = responseCache;
+        }
+
+        public ResponseCache getResponseCache() {
+            return responseCache;
+        }
+
+        /**
+         * The outpoint is buried deep enough that its proofs can no longer change.  Its cache entry is made
+         * immutable on the next fetch, along with the write of the response, so the caller does no disk access.
+         */
+        public void markBuried(TransactionOutPoint point) {
+            if (responseCache != null)
+                buried.add(point);
+        }
+
+        private void cacheResponse(TransactionOutPoint point, OutPointResponse res, String etag, String lastModified) {
+            ResponseCache cache = responseCache;
+            // Failures are not cached
+            if (cache == null || res.proofs == null)
+                return;
+            boolean immutable = buried.remove(point);
+            if (immutable || etag != null || lastModified != null)
+                cache.put(relative(point), new ResponseCache.Entry(etag, lastModified, immutable, res.status, res.proofs));
+        }
+
+        private static String relative(TransactionOutPoint point) {
+            return "outpoint/" + point.getHash() + "/" + point.getIndex();
+        }
+
+        private static String headerValue(CloseableHttpResponse response, String name) {
+            Header header = response.getFirstHeader(name);
+            return header == null ? null : header.getValue();
+        }
+
+        private static OutPointResponse notColored() {
+            OutPointResponse res = new OutPointResponse();
+            res.status = "NOT_COLORED";
+            res.proofs = Lists.newArrayList();
+            return res;
+        }
+
+        /**
+         * Deserialize the proofs in a response, one for each definition coloring the outpoint
+         *
+         * @return the proofs, empty if the outpoint is not colored
+         */
+        public List<ColorProof> parse(OutPointResponse res) throws SerializationException, TemporaryFailureException {
+            if (res.proofs == null) {
+                log.warn("fetch failure " + res.status + " " + res.details);
+                throw new TemporaryFailureException();
+            }
+
+            log.info("fetch success " + res.status + ", " + res.proofs.size() + " proofs");
+
+            List<ColorProof> proofs = Lists.newArrayListWithCapacity(res.proofs.size());
+            for (byte[] bytes : res.proofs) {
+                try {
+                    proofs.add(ColorProof.deserialize(params, new BytesDeserializer(bytes)));
+                } catch (StackOverflowError e) {
+                    log.error("could not deserialize proof, deeming UNKNOWN");
+                }
+            }
+            return proofs;
+        }
+
+        private void close(CloseableHttpResponse response) {
+            if (response != null) {
+                try {
+                    response.close();
+                } catch (IOException e) {
+                    log.warn("got IOException while closing " + e.getMessage());
+                    // ignore
                 }
             }
-            return null;
         }
 
         public void stop() {
@@ -403,7 +1427,11 @@ public class ClientColorScanner extends AbstractColorScanner<ClientColorTrack> {
             } catch (IOException e) {
                 log.error("while stopping fetcher", e);
             }
+            if (hedgeService != null)
+                hedgeService.shutdownNow();
+            // Ready to be started again
             initClient();
+            initHedgeService();
         }
     }
 
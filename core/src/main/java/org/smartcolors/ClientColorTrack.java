@@ -1,13 +1,26 @@
 package org.smartcolors;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
 import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.TransactionOutPoint;
 import org.smartcolors.core.ColorDefinition;
 import org.smartcolors.core.ColorProof;
+import org.smartcolors.core.ProofStore;
+import org.smartcolors.marshal.SerializationException;
+
+import java.io.IOException;
+import java.util.Map;
 
 /**
  * Created by devrandom on 2014-Nov-26.
  */
 public class ClientColorTrack extends ColorTrack {
+    private ProofStore proofStore;
+    // Hashes of the proofs of our outputs, resolved through the proof store
+    private final Map<TransactionOutPoint, HashCode> proofs = Maps.newHashMap();
+
     public ClientColorTrack(ColorDefinition definition) {
         super(definition);
     }
@@ -17,10 +30,75 @@ public class ClientColorTrack extends ColorTrack {
         return null;
     }
 
-    public void add(ColorProof proof) throws ColorProof.ValidationException {
+    public void add(ColorProof proof) throws ColorProof.ValidationException, IOException {
+        addStored(proof, store(proof));
+    }
+
+    /**
+     * Validate the proof and write it to the proof store, without changing the track.  Needs no lock, so
+     * the disk is not written to under the scanner lock.
+     *
+     * @return the hash of the stored proof, or null if there is no proof store
+     * @throws IOException if the proof is valid but could not be stored
+     */
+    HashCode store(ColorProof proof) throws ColorProof.ValidationException, IOException {
         proof.validate();
         if (!proof.getDefinition().equals(definition))
             throw new ColorProof.ValidationException("proof is not for our definition - got " + proof.getDefinition() + ", expected " + definition);
-        outputs.put(proof.getOutPoint(), proof.getQuantity());
+        if (proofStore == null)
+            return null;
+        return proofStore.put(proof);
+    }
+
+    /** Add a proof that went through {@link #store}, with the hash it was stored under or null if it was not */
+    void addStored(ColorProof proof, HashCode hash) {
+        if (hash != null) {
+            synchronized (proofs) {
+                proofs.put(proof.getOutPoint(), hash);
+            }
+        }
+        putOutput(proof.getOutPoint(), proof.getQuantity());
+    }
+
+    /** Persist proofs of outputs added from now on in the store */
+    public void setProofStore(ProofStore proofStore) {
+        this.proofStore = proofStore;
+    }
+
+    public ProofStore getProofStore() {
+        return proofStore;
+    }
+
+    /** @return the proof of the output, or null if it is not known, could not be stored or there is no proof store */
+    public ColorProof getProof(TransactionOutPoint point) throws IOException, SerializationException {
+        HashCode hash;
+        synchronized (proofs) {
+            hash = proofs.get(point);
+        }
+        if (hash == null || proofStore == null)
+            return null;
+        return proofStore.getProof(hash);
+    }
+
+    /** Hashes of the stored proofs of our outputs */
+    public Map<TransactionOutPoint, HashCode> getProofHashes() {
+        synchronized (proofs) {
+            return ImmutableMap.copyOf(proofs);
+        }
+    }
+
+    void setProofHashes(Map<TransactionOutPoint, HashCode> hashes) {
+        synchronized (proofs) {
+            proofs.clear();
+            proofs.putAll(hashes);
+        }
+    }
+
+    @Override
+    public void reset() {
+        synchronized (proofs) {
+            proofs.clear();
+        }
+        super.reset();
     }
 }
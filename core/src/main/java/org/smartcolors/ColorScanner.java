@@ -48,6 +48,21 @@ public interface ColorScanner {
     /** Get the balance for each color */
     Map<ColorDefinition, Long> getBalances(MultiWallet wallet, ColorKeyChain colorKeyChain);
 
+    /**
+     * Get the balance for each color, counting only outputs that can be spent now if the type is
+     * {@link Wallet.BalanceType#AVAILABLE} or {@link Wallet.BalanceType#AVAILABLE_SPENDABLE}.
+     * <p/>
+     * <p>Cheap once the scanner is started on the wallet, since the balances are then kept up to date as transactions arrive.</p>
+     */
+    Map<ColorDefinition, Long> getBalances(MultiWallet wallet, ColorKeyChain colorKeyChain, Wallet.BalanceType type);
+
+    /**
+     * Get a view of the tracks, the unspent outputs and balances of the wallet the scanner was started on,
+     * and the pending transactions, all as of one version.  Use it to make several queries that must agree.
+     * The outputs and transactions in it are live wallet objects, see {@link ScannerSnapshot}.
+     */
+    ScannerSnapshot snapshot();
+
     /** Get a future that triggers when the colors the transaction moves become known - i.e. after the asset tracker responds */
     ListenableFuture<Transaction> getTransactionWithKnownAssets(Transaction tx, MultiWallet wallet, ColorKeyChain chain);
 
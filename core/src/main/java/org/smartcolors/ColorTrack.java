@@ -6,6 +6,7 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
 import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
 import org.bitcoinj.core.TransactionOutPoint;
 import org.smartcolors.core.ColorDefinition;
 
@@ -27,31 +28,69 @@ public abstract class ColorTrack {
                 }
             });
 
+    private OutputListener listener;
+
+    /** Notified whenever the color of an outpoint changes in a track */
+    public interface OutputListener {
+        /** The outpoint was added to or removed from the track */
+        void onOutputChanged(ColorTrack track, TransactionOutPoint point);
+
+        /** All outputs of the track were replaced */
+        void onOutputsReset(ColorTrack track);
+    }
+
     public ColorTrack(ColorDefinition definition) {
         this.definition = definition;
         outputs = Maps.newHashMap();
     }
 
+    void setListener(OutputListener listener) {
+        this.listener = listener;
+    }
+
+    protected void putOutput(TransactionOutPoint point, long value) {
+        outputs.put(point, value);
+        if (listener != null)
+            listener.onOutputChanged(this, point);
+    }
+
+    protected void removeOutput(TransactionOutPoint point) {
+        if (outputs.remove(point) != null && listener != null)
+            listener.onOutputChanged(this, point);
+    }
+
     public abstract Sha256Hash getStateHash();
 
-    public Long[] applyKernel(Transaction tx) {
-        // Set up the input color
-        Long colorIn[] = new Long[tx.getInputs().size()];
-        for (int i = 0; i < colorIn.length; i++) {
-            TransactionOutPoint prev = tx.getInput(i).getOutpoint();
-            if (outputs.containsKey(prev))
-                colorIn[i] = outputs.get(prev);
+    /**
+     * Apply the kernel to a transaction, using the color of inputs known to this track
+     *
+     * @param colorOuts buffer for the color of each output, of at least {@link ColorDefinition#MAX_COLOR_OUTPUTS} entries
+     * @return bitmask of colored outputs in colorOuts
+     */
+    public int applyKernel(Transaction tx, long[] colorOuts) {
+        int colored = 0;
+        int numInputs = tx.getInputs().size();
+        for (int i = 0; i < numInputs; i++) {
+            TransactionInput input = tx.getInput(i);
+            Long colorIn = outputs.get(input.getOutpoint());
+            if (colorIn != null)
+                colored = definition.applyColorTransferred(input, colorIn, colorOuts, colored, tx);
         }
+        return colored;
+    }
 
-        // Apply kernel and add output colors to output maps
-        return definition.applyKernel(tx, colorIn);
+    public Long[] applyKernel(Transaction tx) {
+        long[] colorOuts = new long[ColorDefinition.MAX_COLOR_OUTPUTS];
+        int colored = applyKernel(tx, colorOuts);
+        return ColorDefinition.toBoxed(colorOuts, colored, tx.getOutputs().size());
     }
 
     public void add(Transaction tx) {
-        Long[] colorOuts = applyKernel(tx);
-        for (int i = 0; i < tx.getOutputs().size(); i++) {
-            if (colorOuts[i] != null) {
-                outputs.put(tx.getOutput(i).getOutPointFor(), colorOuts[i]);
+        long[] colorOuts = new long[ColorDefinition.MAX_COLOR_OUTPUTS];
+        int colored = applyKernel(tx, colorOuts);
+        for (int i = 0; i < Math.min(tx.getOutputs().size(), ColorDefinition.MAX_COLOR_OUTPUTS); i++) {
+            if (((colored >>> i) & 1) == 1) {
+                putOutput(tx.getOutput(i).getOutPointFor(), colorOuts[i]);
             }
         }
     }
@@ -71,10 +110,14 @@ public abstract class ColorTrack {
 
     public void reset() {
         outputs.clear();
+        if (listener != null)
+            listener.onOutputsReset(this);
     }
 
     void setOutputs(Map<TransactionOutPoint, Long> outputs) {
         this.outputs = outputs;
+        if (listener != null)
+            listener.onOutputsReset(this);
     }
 
     public boolean isColored(TransactionOutPoint point) {
@@ -0,0 +1,211 @@
+package org.smartcolors;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.SetMultimap;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.smartcolors.core.ColorDefinition;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Bounded LRU cache of color kernel results, one entry per transaction hash.
+ * <p/>
+ * <p>An entry holds the results of all tracked definitions, and only keeps those that color some output,
+ * so a transaction costs one entry however many definitions are tracked.  It is invalidated when the color
+ * of any of the transaction's inputs changes.  Owners must report such changes through
+ * {@link #invalidate(TransactionOutPoint)}, and the removal of a definition through
+ * {@link #invalidate(ColorDefinition)}.</p>
+ */
+public class KernelCache {
+    public static final int DEFAULT_MAX_SIZE = 10000;
+    private static final ColorDefinition[] NO_DEFINITIONS = new ColorDefinition[0];
+    private static final long[][] NO_OUTS = new long[0][];
+    private static final int[] NO_COLORED = new int[0];
+
+    private final int maxSize;
+    private final LinkedHashMap<Sha256Hash, Entry> entries;
+    // Cached transactions by the outpoints they spend, for invalidation
+    private final SetMultimap<TransactionOutPoint, Sha256Hash> spenders = HashMultimap.create();
+    private long hitCount;
+    private long missCount;
+
+    public KernelCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public KernelCache(int maxSize) {
+        checkArgument(maxSize > 0);
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<Sha256Hash, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Sha256Hash, Entry> eldest) {
+                if (size() > KernelCache.this.maxSize) {
+                    unlinkSpenders(eldest.getKey(), eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /** The kernel results of one transaction, for the definitions that color some of its outputs */
+    public static class Entry {
+        private final ColorDefinition[] definitions;
+        private final long[][] colorOuts;
+        private final int[] colored;
+        private final List<TransactionOutPoint> inputs;
+
+        Entry(ColorDefinition[] definitions, long[][] colorOuts, int[] colored, List<TransactionOutPoint> inputs) {
+            this.definitions = definitions;
+            this.colorOuts = colorOuts;
+            this.colored = colored;
+            this.inputs = inputs;
+        }
+
+        /** The number of definitions coloring some output */
+        public int size() {
+            return definitions.length;
+        }
+
+        public ColorDefinition getDefinition(int slot) {
+            return definitions[slot];
+        }
+
+        /** @return the quantity of the definition in the slot, or null if the output is not colored by it */
+        public Long get(int slot, int index) {
+            if (index < 0 || index >= ColorDefinition.MAX_COLOR_OUTPUTS || ((colored[slot] >>> index) & 1) == 0)
+                return null;
+            return colorOuts[slot][index];
+        }
+
+        /** @return the quantity, or null if the output is not colored by the definition */
+        public Long get(ColorDefinition definition, int index) {
+            for (int slot = 0; slot < definitions.length; slot++) {
+                if (definitions[slot].equals(definition))
+                    return get(slot, index);
+            }
+            return null;
+        }
+
+        private boolean contains(ColorDefinition definition) {
+            for (ColorDefinition def : definitions) {
+                if (def.equals(definition))
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    /** Get the cached kernel results of the transaction, or null if there are none */
+    public synchronized Entry get(Transaction tx) {
+        Entry entry = entries.get(tx.getHash());
+        if (entry == null)
+            missCount++;
+        else
+            hitCount++;
+        return entry;
+    }
+
+    /**
+     * Cache the kernel results of a transaction.  The results are copied, so the kernel may be scratch space.
+     * Output vectors are kept up to the last colored output, and definitions coloring nothing are left out.
+     */
+    public synchronized Entry put(Transaction tx, KernelOutputs kernel) {
+        int size = 0;
+        for (int slot = 0; slot < kernel.size(); slot++) {
+            if (kernel.getColored(kernel.getDefinition(slot)) != 0)
+                size++;
+        }
+        ColorDefinition[] definitions = size == 0 ? NO_DEFINITIONS : new ColorDefinition[size];
+        long[][] colorOuts = size == 0 ? NO_OUTS : new long[size][];
+        int[] colored = size == 0 ? NO_COLORED : new int[size];
+        int i = 0;
+        for (int slot = 0; slot < kernel.size(); slot++) {
+            ColorDefinition definition = kernel.getDefinition(slot);
+            int bits = kernel.getColored(definition);
+            if (bits == 0)
+                continue;
+            definitions[i] = definition;
+            colorOuts[i] = Arrays.copyOf(kernel.getColorOuts(definition), Integer.SIZE - Integer.numberOfLeadingZeros(bits));
+            colored[i] = bits;
+            i++;
+        }
+
+        List<TransactionOutPoint> inputs = Lists.newArrayListWithCapacity(tx.getInputs().size());
+        for (TransactionInput input : tx.getInputs()) {
+            inputs.add(input.getOutpoint());
+        }
+        Sha256Hash hash = tx.getHash();
+        Entry entry = new Entry(definitions, colorOuts, colored, inputs);
+        Entry old = entries.put(hash, entry);
+        if (old != null)
+            unlinkSpenders(hash, old);
+        for (TransactionOutPoint point : inputs) {
+            spenders.put(point, hash);
+        }
+        return entry;
+    }
+
+    /** The color of an outpoint changed - drop results for transactions spending it */
+    public synchronized void invalidate(TransactionOutPoint point) {
+        if (!spenders.containsKey(point))
+            return;
+        for (Sha256Hash hash : Lists.newArrayList(spenders.get(point))) {
+            Entry entry = entries.remove(hash);
+            if (entry != null)
+                unlinkSpenders(hash, entry);
+        }
+    }
+
+    /** Drop all results that a definition colors */
+    public synchronized void invalidate(ColorDefinition definition) {
+        for (Map.Entry<Sha256Hash, Entry> entry : Lists.newArrayList(entries.entrySet())) {
+            if (entry.getValue().contains(definition)) {
+                entries.remove(entry.getKey());
+                unlinkSpenders(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        spenders.clear();
+    }
+
+    private void unlinkSpenders(Sha256Hash hash, Entry entry) {
+        for (TransactionOutPoint point : entry.inputs) {
+            spenders.remove(point, hash);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("size", entries.size())
+                .add("hits", hitCount)
+                .add("misses", missCount)
+                .toString();
+    }
+}
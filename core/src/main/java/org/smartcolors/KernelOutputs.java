@@ -0,0 +1,212 @@
+package org.smartcolors;
+
+import com.google.common.base.MoreObjects;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.smartcolors.core.ColorDefinition;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+
+/**
+ * The color kernel applied to one transaction for several definitions at once.
+ * <p/>
+ * <p>Each input's nSequence is decoded at most once and each input outpoint is resolved once,
+ * instead of running a full kernel pass per tracked definition.  Only definitions that
+ * actually color some output get an output vector.</p>
+ * <p/>
+ * <p>An instance made with {@link #KernelOutputs()} is scratch space for {@link #compute(Transaction, OutPointIndex)},
+ * which reuses its output vectors, so that cache misses do not allocate once the scratch has grown.
+ * Not thread safe.</p>
+ */
+public class KernelOutputs {
+    private static final long[][] NO_OUTS = new long[0][];
+    private static final ColorDefinition[] NO_DEFINITIONS = new ColorDefinition[0];
+
+    private ColorDefinition[] definitions;
+    private long[][] colorOuts;
+    private int[] colored;
+    private int size;
+
+    /** Empty scratch, see {@link #compute(Transaction, OutPointIndex)} */
+    public KernelOutputs() {
+        this(NO_DEFINITIONS, NO_OUTS, null, 0);
+    }
+
+    private KernelOutputs(ColorDefinition[] definitions, long[][] colorOuts, int[] colored, int size) {
+        this.definitions = definitions;
+        this.colorOuts = colorOuts;
+        this.colored = colored;
+        this.size = size;
+    }
+
+    /**
+     * Apply the kernels of all tracks to the transaction in a single pass over the inputs.
+     * <p/>
+     * <p>Inputs are processed in order for each definition, so the bucket-style allocation
+     * is the same as {@link ColorTrack#applyKernel(Transaction, long[])} on each track.</p>
+     */
+    public static KernelOutputs apply(Transaction tx, Collection<? extends ColorTrack> tracks) {
+        int numTracks = tracks.size();
+        ColorTrack[] trackArray = tracks.toArray(new ColorTrack[numTracks]);
+        // Slot for each track in the result, or -1 if the track colors nothing yet
+        int[] slots = null;
+        ColorDefinition[] definitions = NO_DEFINITIONS;
+        long[][] colorOuts = NO_OUTS;
+        int[] colored = null;
+        int size = 0;
+
+        int numInputs = tx.getInputs().size();
+        for (int i = 0; i < numInputs; i++) {
+            TransactionInput input = tx.getInput(i);
+            boolean decoded = false;
+            int colorBitfield = 0;
+            for (int k = 0; k < numTracks; k++) {
+                Long colorIn = trackArray[k].getOutputs().get(input.getOutpoint());
+                if (colorIn == null)
+                    continue;
+                if (!decoded) {
+                    colorBitfield = ColorDefinition.decodeColorBitfield(input.getSequenceNumber());
+                    decoded = true;
+                }
+                if (slots == null) {
+                    slots = new int[numTracks];
+                    for (int j = 0; j < numTracks; j++)
+                        slots[j] = -1;
+                    definitions = new ColorDefinition[numTracks];
+                    colorOuts = new long[numTracks][];
+                    colored = new int[numTracks];
+                }
+                int slot = slots[k];
+                if (slot < 0) {
+                    slot = size++;
+                    slots[k] = slot;
+                    definitions[slot] = trackArray[k].getDefinition();
+                    colorOuts[slot] = new long[ColorDefinition.MAX_COLOR_OUTPUTS];
+                }
+                colored[slot] = ColorDefinition.applyColorTransferred(colorBitfield, colorIn, colorOuts[slot], colored[slot], tx);
+            }
+        }
+        return new KernelOutputs(definitions, colorOuts, colored, size);
+    }
+
+    /**
+     * Apply the kernels of all indexed tracks to the transaction.  Like {@link #apply(Transaction, Collection)},
+     * but each input costs one index lookup instead of one lookup per track.
+     */
+    public static KernelOutputs apply(Transaction tx, OutPointIndex index) {
+        return new KernelOutputs().compute(tx, index);
+    }
+
+    /**
+     * Apply the kernels of all indexed tracks to the transaction, replacing the previous result.  The output
+     * vectors of earlier results are reused, so those returned by {@link #getColorOuts} are overwritten.
+     *
+     * @return this
+     */
+    public KernelOutputs compute(Transaction tx, OutPointIndex index) {
+        size = 0;
+        int numInputs = tx.getInputs().size();
+        for (int i = 0; i < numInputs; i++) {
+            TransactionInput input = tx.getInput(i);
+            OutPointIndex.Entry entry = index.get(input.getOutpoint());
+            if (entry == null)
+                continue;
+            int colorBitfield = ColorDefinition.decodeColorBitfield(input.getSequenceNumber());
+            for (; entry != null; entry = entry.getNext()) {
+                ColorDefinition definition = entry.getDefinition();
+                int slot = -1;
+                for (int j = 0; j < size; j++) {
+                    if (definitions[j] == definition) {
+                        slot = j;
+                        break;
+                    }
+                }
+                if (slot < 0) {
+                    if (size == definitions.length) {
+                        int capacity = Math.max(4, size * 2);
+                        definitions = Arrays.copyOf(definitions, capacity);
+                        colorOuts = Arrays.copyOf(colorOuts, capacity);
+                        colored = colored == null ? new int[capacity] : Arrays.copyOf(colored, capacity);
+                    }
+                    slot = size++;
+                    definitions[slot] = definition;
+                    if (colorOuts[slot] == null)
+                        colorOuts[slot] = new long[ColorDefinition.MAX_COLOR_OUTPUTS];
+                    // Stale entries of the vector are ignored until marked as colored
+                    colored[slot] = 0;
+                }
+                colored[slot] = ColorDefinition.applyColorTransferred(colorBitfield, entry.getValue(), colorOuts[slot], colored[slot], tx);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Get the color of an output for a definition
+     *
+     * @return the quantity, or null if the output is not colored by this definition
+     */
+    public Long get(ColorDefinition definition, int index) {
+        if (index < 0 || index >= ColorDefinition.MAX_COLOR_OUTPUTS)
+            return null;
+        int slot = slotOf(definition);
+        if (slot < 0 || ((colored[slot] >>> index) & 1) == 0)
+            return null;
+        return colorOuts[slot][index];
+    }
+
+    /** The bitmask of outputs colored by the definition */
+    public int getColored(ColorDefinition definition) {
+        int slot = slotOf(definition);
+        return slot < 0 ? 0 : colored[slot];
+    }
+
+    /**
+     * The output vector for the definition, or null if it colors nothing.  Must not be modified, and for
+     * scratch instances is only valid until the next {@link #compute(Transaction, OutPointIndex)}.
+     */
+    public long[] getColorOuts(ColorDefinition definition) {
+        int slot = slotOf(definition);
+        return slot < 0 ? null : colorOuts[slot];
+    }
+
+    /** The number of definitions coloring some input */
+    public int size() {
+        return size;
+    }
+
+    /** The definition of a slot, in the order they were first seen on the inputs */
+    public ColorDefinition getDefinition(int slot) {
+        checkElementIndex(slot, size);
+        return definitions[slot];
+    }
+
+    private int slotOf(ColorDefinition definition) {
+        for (int slot = 0; slot < size; slot++) {
+            if (definitions[slot].equals(definition))
+                return slot;
+        }
+        return -1;
+    }
+
+    /** Whether any output is colored by any definition */
+    public boolean isEmpty() {
+        for (int slot = 0; slot < size; slot++) {
+            if (colored[slot] != 0)
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        MoreObjects.ToStringHelper helper = MoreObjects.toStringHelper(this);
+        for (int slot = 0; slot < size; slot++) {
+            helper.add(definitions[slot].getName(), Integer.toBinaryString(colored[slot]));
+        }
+        return helper.toString();
+    }
+}
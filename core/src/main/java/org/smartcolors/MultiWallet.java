@@ -30,6 +30,12 @@ public interface MultiWallet extends TransactionBag {
     interface MultiWalletEventListener {
         void onTransaction(MultiWallet wallet, Transaction tx, boolean isNewCoin);
         void onSyncState(MultiWallet wallet, boolean isSynced, long height);
+
+        /** The confidence of a wallet transaction changed, e.g. it was confirmed, buried deeper or double spent */
+        void onTransactionConfidenceChanged(MultiWallet wallet, Transaction tx);
+
+        /** The best chain was reorganized.  The transactions whose confidence changed are reported too. */
+        void onReorganize(MultiWallet wallet);
     }
 
     void addEventListener(MultiWalletEventListener listener, Executor executor);
@@ -0,0 +1,148 @@
+package org.smartcolors;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.smartcolors.core.ColorDefinition;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Scanner-wide index from outpoint to its color in every track, so that finding the color of an input is a
+ * single lookup whatever the number of tracked definitions.
+ * <p/>
+ * <p>Mirrors the outputs of the tracks, and must be told of every change through {@link #update(ColorTrack, TransactionOutPoint)}
+ * and {@link #reindex(ColorTrack)} - see {@link ColorTrack.OutputListener}.  Reads take no lock and see each update
+ * of an outpoint whole, since entry chains are never modified in place.  Updates are not thread safe, owners serialize
+ * them with their lock.  A reindex is not atomic, lock-free readers may see a track partly indexed while it runs.</p>
+ */
+public class OutPointIndex {
+    private final Map<TransactionOutPoint, Entry> entries = Maps.newConcurrentMap();
+    // Entries per track, to skip tracks with nothing indexed
+    private final Multiset<ColorTrack> counts = HashMultiset.create();
+
+    /** The color of an outpoint in one track.  Entries of the same outpoint are chained, in indexing order. */
+    public static class Entry {
+        private final ColorTrack track;
+        private final long value;
+        private final Entry next;
+
+        private Entry(ColorTrack track, long value, Entry next) {
+            this.track = track;
+            this.value = value;
+            this.next = next;
+        }
+
+        public ColorTrack getTrack() {
+            return track;
+        }
+
+        public ColorDefinition getDefinition() {
+            return track.getDefinition();
+        }
+
+        public long getValue() {
+            return value;
+        }
+
+        /** The entry of the next track coloring the same outpoint, or null */
+        public Entry getNext() {
+            return next;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("definition", track.getDefinition().getName())
+                    .add("value", value)
+                    .toString();
+        }
+    }
+
+    /** @return the first entry for the outpoint, or null if no track colors it */
+    public Entry get(TransactionOutPoint point) {
+        return entries.get(point);
+    }
+
+    public boolean contains(TransactionOutPoint point) {
+        return entries.containsKey(point);
+    }
+
+    /** Index the outpoint as it now is in the outputs of the track */
+    public void update(ColorTrack track, TransactionOutPoint point) {
+        Long value = track.getOutputs().get(point);
+        Entry head = without(entries.get(point), track);
+        if (value != null) {
+            head = append(head, new Entry(track, value, null));
+            counts.add(track);
+        }
+        if (head == null)
+            entries.remove(point);
+        else
+            entries.put(point, head);
+    }
+
+    /** Index all the outputs of the track again, after they were replaced */
+    public void reindex(ColorTrack track) {
+        remove(track);
+        for (Map.Entry<TransactionOutPoint, Long> output : track.getOutputs().entrySet()) {
+            TransactionOutPoint point = output.getKey();
+            entries.put(point, append(entries.get(point), new Entry(track, output.getValue(), null)));
+            counts.add(track);
+        }
+    }
+
+    /** Remove all entries of the track */
+    public void remove(ColorTrack track) {
+        if (counts.count(track) == 0)
+            return;
+        Iterator<Map.Entry<TransactionOutPoint, Entry>> iter = entries.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<TransactionOutPoint, Entry> mapEntry = iter.next();
+            Entry head = without(mapEntry.getValue(), track);
+            if (head == null)
+                iter.remove();
+            else if (head != mapEntry.getValue())
+                mapEntry.setValue(head);
+        }
+        counts.setCount(track, 0);
+    }
+
+    public void clear() {
+        entries.clear();
+        counts.clear();
+    }
+
+    /** The number of outpoints colored by any track */
+    public int size() {
+        return entries.size();
+    }
+
+    // The chain without the entry of the track, sharing the tail after it.  Decrements the count if found.
+    private Entry without(Entry head, ColorTrack track) {
+        if (head == null)
+            return null;
+        if (head.track == track) {
+            counts.remove(track);
+            return head.next;
+        }
+        Entry rest = without(head.next, track);
+        return rest == head.next ? head : new Entry(head.track, head.value, rest);
+    }
+
+    private static Entry append(Entry head, Entry last) {
+        if (head == null)
+            return last;
+        return new Entry(head.track, head.value, append(head.next, last));
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("size", entries.size())
+                .toString();
+    }
+}
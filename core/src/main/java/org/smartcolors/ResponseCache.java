@@ -0,0 +1,261 @@
+package org.smartcolors;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Disk-backed cache of tracker responses, keyed by the request URL relative to the tracker base.
+ * <p/>
+ * <p>Each entry keeps the ETag and Last-Modified validators of the response, for conditional requests, and
+ * the serialized proofs.  Entries marked immutable, for outpoints buried deep enough in the chain, are served
+ * without asking the tracker again.</p>
+ * <p/>
+ * <p>Entries are evicted least recently used first once the files exceed the size limit.</p>
+ */
+public class ResponseCache {
+    private static final Logger log = LoggerFactory.getLogger(ResponseCache.class);
+    public static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".resp";
+
+    private final File directory;
+    private final long maxBytes;
+    // File sizes by file name, in access order
+    private final LinkedHashMap<String, Long> sizes = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long totalBytes;
+    private long hitCount;
+    private long missCount;
+
+    /** A cached response */
+    public static class Entry {
+        public final String etag;
+        public final String lastModified;
+        public final boolean immutable;
+        public final String status;
+        public final List<byte[]> proofs;
+
+        public Entry(String etag, String lastModified, boolean immutable, String status, List<byte[]> proofs) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.immutable = immutable;
+            this.status = status;
+            this.proofs = proofs;
+        }
+
+        public Entry asImmutable() {
+            return immutable ? this : new Entry(etag, lastModified, true, status, proofs);
+        }
+
+        public ClientColorScanner.OutPointResponse toResponse() {
+            ClientColorScanner.OutPointResponse res = new ClientColorScanner.OutPointResponse();
+            res.status = status;
+            res.proofs = Lists.newArrayList(proofs);
+            return res;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("etag", etag)
+                    .add("lastModified", lastModified)
+                    .add("immutable", immutable)
+                    .add("proofs", proofs.size())
+                    .toString();
+        }
+    }
+
+    public ResponseCache(File directory) throws IOException {
+        this(directory, DEFAULT_MAX_BYTES);
+    }
+
+    public ResponseCache(File directory, long maxBytes) throws IOException {
+        checkArgument(maxBytes > 0);
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("could not create " + directory);
+        File[] files = directory.listFiles();
+        if (files == null)
+            throw new IOException("could not list " + directory);
+        // Oldest first, so the access order starts out as the modification order
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+            }
+        });
+        for (File file : files) {
+            if (file.getName().endsWith(SUFFIX)) {
+                sizes.put(file.getName(), file.length());
+                totalBytes += file.length();
+            } else if (file.getName().endsWith(SUFFIX + ".tmp")) {
+                // Interrupted write
+                file.delete();
+            }
+        }
+        evict();
+    }
+
+    /** @return the entry, or null if there is none or it could not be read */
+    public synchronized Entry get(String key) {
+        String name = fileName(key);
+        if (sizes.get(name) == null) {
+            missCount++;
+            return null;
+        }
+        File file = new File(directory, name);
+        try {
+            Entry entry = decode(Files.toByteArray(file));
+            file.setLastModified(System.currentTimeMillis());
+            hitCount++;
+            return entry;
+        } catch (IOException e) {
+            log.warn("dropping unreadable cache entry " + file + ": " + e.getMessage());
+            removeFile(name);
+            missCount++;
+            return null;
+        }
+    }
+
+    public synchronized void put(String key, Entry entry) {
+        String name = fileName(key);
+        File file = new File(directory, name);
+        File tmp = new File(directory, name + ".tmp");
+        try {
+            byte[] bytes = encode(entry);
+            Files.write(bytes, tmp);
+            if (!tmp.renameTo(file)) {
+                // Not atomic on all platforms when the target exists
+                file.delete();
+                if (!tmp.renameTo(file))
+                    throw new IOException("could not rename " + tmp);
+            }
+            Long old = sizes.put(name, (long) bytes.length);
+            totalBytes += bytes.length - (old == null ? 0 : old);
+        } catch (IOException e) {
+            log.warn("could not cache " + key + ": " + e.getMessage());
+            tmp.delete();
+            return;
+        }
+        evict();
+    }
+
+    public synchronized void remove(String key) {
+        String name = fileName(key);
+        if (sizes.containsKey(name))
+            removeFile(name);
+    }
+
+    private void removeFile(String name) {
+        Long size = sizes.remove(name);
+        if (size != null)
+            totalBytes -= size;
+        new File(directory, name).delete();
+    }
+
+    private void evict() {
+        while (totalBytes > maxBytes && !sizes.isEmpty()) {
+            removeFile(sizes.keySet().iterator().next());
+        }
+    }
+
+    private static String fileName(String key) {
+        return Hashing.sha256().hashString(key, Charsets.UTF_8).toString() + SUFFIX;
+    }
+
+    private static byte[] encode(Entry entry) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeByte(VERSION);
+        out.writeBoolean(entry.immutable);
+        writeString(out, entry.etag);
+        writeString(out, entry.lastModified);
+        writeString(out, entry.status);
+        out.writeInt(entry.proofs.size());
+        for (byte[] proof : entry.proofs) {
+            out.writeInt(proof.length);
+            out.write(proof);
+        }
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    private static Entry decode(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        int version = in.readByte();
+        if (version != VERSION)
+            throw new IOException("unknown version " + version);
+        boolean immutable = in.readBoolean();
+        String etag = readString(in);
+        String lastModified = readString(in);
+        String status = readString(in);
+        int count = in.readInt();
+        if (count < 0 || count > bytes.length)
+            throw new IOException("bad proof count " + count);
+        List<byte[]> proofs = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            int length = in.readInt();
+            if (length < 0 || length > bytes.length)
+                throw new IOException("bad proof length " + length);
+            byte[] proof = new byte[length];
+            in.readFully(proof);
+            proofs.add(proof);
+        }
+        return new Entry(etag, lastModified, immutable, status, proofs);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null)
+            out.writeUTF(s);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    public synchronized int size() {
+        return sizes.size();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("size", sizes.size())
+                .add("bytes", totalBytes)
+                .add("hits", hitCount)
+                .add("misses", missCount)
+                .toString();
+    }
+}
@@ -189,7 +189,7 @@ public class SPVColorScanner extends AbstractColorScanner<SPVColorTrack> impleme
 
     @Override
     public long getEarliestKeyCreationTime() {
-        lock.lock();
+        readLock.lock();
         try {
             long creationTime = Long.MAX_VALUE;
             for (SPVColorTrack track : tracks) {
@@ -197,7 +197,7 @@ public class SPVColorScanner extends AbstractColorScanner<SPVColorTrack> impleme
             }
             return creationTime;
         } finally {
-            lock.unlock();
+            readLock.unlock();
         }
     }
 
@@ -214,13 +214,13 @@ public class SPVColorScanner extends AbstractColorScanner<SPVColorTrack> impleme
     @Override
     public int getBloomFilterElementCount() {
         int count = 0;
-        lock.lock();
+        readLock.lock();
         try {
             for (SPVColorTrack track : tracks) {
                 count += track.getBloomFilterElementCount();
             }
         } finally {
-            lock.unlock();
+            readLock.unlock();
         }
         return count;
     }
@@ -228,13 +228,13 @@ public class SPVColorScanner extends AbstractColorScanner<SPVColorTrack> impleme
     @Override
     public BloomFilter getBloomFilter(int size, double falsePositiveRate, long nTweak) {
         BloomFilter filter = new BloomFilter(size, falsePositiveRate, nTweak);
-        lock.lock();
+        readLock.lock();
         try {
             for (SPVColorTrack track : tracks) {
                 track.updateBloomFilter(filter);
             }
         } finally {
-            lock.unlock();
+            readLock.unlock();
         }
         return filter;
     }
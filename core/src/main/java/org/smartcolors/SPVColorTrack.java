@@ -82,17 +82,18 @@ public class SPVColorTrack extends ColorTrack {
         for (int i = 0; i < numOutputs; i++) {
             if (definition.contains(tx.getOutput(i).getOutPointFor())) {
                 long qty = SmartColors.removeMsbdropValuePadding(tx.getOutput(i).getValue().value);
-                outputs.put(tx.getOutput(i).getOutPointFor(), qty);
+                putOutput(tx.getOutput(i).getOutPointFor(), qty);
                 unspentOutputs.put(tx.getOutput(i).getOutPointFor(), qty);
             }
         }
 
-        Long[] colorOut = applyKernel(tx);
+        long[] colorOut = new long[ColorDefinition.MAX_COLOR_OUTPUTS];
+        int colored = applyKernel(tx, colorOut);
 
-        for (int i = 0; i < colorOut.length; i++) {
-            if (colorOut[i] != null) {
+        for (int i = 0; i < Math.min(numOutputs, ColorDefinition.MAX_COLOR_OUTPUTS); i++) {
+            if (((colored >>> i) & 1) == 1) {
                 TransactionOutPoint outPoint = new TransactionOutPoint(tx.getParams(), i, tx);
-                outputs.put(outPoint, colorOut[i]);
+                putOutput(outPoint, colorOut[i]);
                 unspentOutputs.put(outPoint, colorOut[i]);
             }
         }
@@ -125,7 +126,7 @@ public class SPVColorTrack extends ColorTrack {
         for (int i = 0; i < numOutputs; i++) {
             TransactionOutPoint point = new TransactionOutPoint(tx.getParams(), i, tx);
             if (outputs.containsKey(point)) {
-                outputs.remove(point);
+                removeOutput(point);
                 unspentOutputs.remove(point);
             }
         }
@@ -55,6 +55,13 @@ public class SPVMultiWallet extends SmartMultiWallet {
             @Override
             public void onTransactionConfidenceChanged(Wallet wallet, Transaction tx) {
                 super.onTransactionConfidenceChanged(wallet, tx);
+                listener.onTransactionConfidenceChanged(SPVMultiWallet.this, tx);
+            }
+
+            @Override
+            public void onReorganize(Wallet wallet) {
+                super.onReorganize(wallet);
+                listener.onReorganize(SPVMultiWallet.this);
             }
         };
         listenerMap.put(listener, walletListener);
@@ -157,7 +164,7 @@ public class SPVMultiWallet extends SmartMultiWallet {
 
     @Override
     public int currentHeight() {
-        return -1; // TODO
+        return wallet.getLastBlockSeenHeight();
     }
 
     @Override
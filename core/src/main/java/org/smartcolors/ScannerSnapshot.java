@@ -0,0 +1,120 @@
+package org.smartcolors;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.Wallet;
+import org.smartcolors.core.ColorDefinition;
+
+import java.util.Map;
+
+/**
+ * A view of a scanner at one version - the outputs of every track, the unspent outputs and balances
+ * of the wallet the scanner was started on, and the pending transactions.
+ * <p/>
+ * <p>Queries take no locks and keep seeing the same state however long the snapshot is held.  The outputs of tracks
+ * that did not change are shared with earlier snapshots, so taking one costs about the size of what changed.  The
+ * scanner keeps no reference to the snapshots it hands out, so they are collected once their holders drop them.</p>
+ * <p/>
+ * <p>Only the collections are immutable.  The {@link TransactionOutput}s of the unspent candidates and the pending
+ * {@link Transaction}s are the live wallet objects, whose spent state and confidence keep changing - read those under
+ * the wallet lock, and use the balances of the snapshot rather than recomputing them from the outputs.</p>
+ *
+ * @see ColorScanner#snapshot()
+ */
+public class ScannerSnapshot {
+    private final long version;
+    private final ColorDefinition bitcoinDefinition;
+    private final ImmutableMap<ColorDefinition, ImmutableMap<TransactionOutPoint, Long>> outputs;
+    private final ImmutableMap<TransactionOutPoint, AssetBalances.Candidate> unspent;
+    private final ImmutableMap<ColorDefinition, Long> estimated;
+    private final ImmutableMap<ColorDefinition, Long> available;
+    private final ImmutableMap<Sha256Hash, Transaction> pending;
+
+    ScannerSnapshot(long version, ColorDefinition bitcoinDefinition,
+                    ImmutableMap<ColorDefinition, ImmutableMap<TransactionOutPoint, Long>> outputs,
+                    ImmutableMap<TransactionOutPoint, AssetBalances.Candidate> unspent,
+                    Map<ColorDefinition, Long> estimated, Map<ColorDefinition, Long> available,
+                    ImmutableMap<Sha256Hash, Transaction> pending) {
+        this.version = version;
+        this.bitcoinDefinition = bitcoinDefinition;
+        this.outputs = outputs;
+        this.unspent = unspent;
+        this.estimated = ImmutableMap.copyOf(estimated);
+        this.available = ImmutableMap.copyOf(available);
+        this.pending = pending;
+    }
+
+    /** Increases with every change to the scanner, so equal versions mean equal state */
+    public long getVersion() {
+        return version;
+    }
+
+    /** The tracked definitions, without the builtin bitcoin and unknown ones */
+    public ImmutableSet<ColorDefinition> getDefinitions() {
+        return outputs.keySet();
+    }
+
+    /** The colored outputs of the track of the definition, spent or not.  Empty if the definition is not tracked. */
+    public ImmutableMap<TransactionOutPoint, Long> getOutputs(ColorDefinition definition) {
+        ImmutableMap<TransactionOutPoint, Long> res = outputs.get(definition);
+        return res == null ? ImmutableMap.<TransactionOutPoint, Long>of() : res;
+    }
+
+    /** @return the quantity of the asset on the outpoint, or null if the track does not color it */
+    public Long getColor(ColorDefinition definition, TransactionOutPoint point) {
+        return getOutputs(definition).get(point);
+    }
+
+    /** Check if any track colors the outpoint */
+    public boolean contains(TransactionOutPoint point) {
+        for (ImmutableMap<TransactionOutPoint, Long> trackOutputs : outputs.values()) {
+            if (trackOutputs.containsKey(point))
+                return true;
+        }
+        return false;
+    }
+
+    /** The spend candidates of the wallet, and the asset each counts towards.  The outputs are the live wallet ones. */
+    public ImmutableMap<TransactionOutPoint, AssetBalances.Candidate> getUnspent() {
+        return unspent;
+    }
+
+    /** Get the assets on the unspent colored outputs of the transaction, as {@link ColorScanner#getOutputValues} does */
+    public Map<ColorDefinition, Long> getOutputValues(Transaction tx) {
+        Map<ColorDefinition, Long> res = Maps.newHashMap();
+        for (TransactionOutput output : tx.getOutputs()) {
+            AssetBalances.Candidate candidate = unspent.get(output.getOutPointFor());
+            if (candidate == null || candidate.getDefinition().equals(bitcoinDefinition))
+                continue;
+            Long existing = res.get(candidate.getDefinition());
+            res.put(candidate.getDefinition(), existing == null ? candidate.getValue() : existing + candidate.getValue());
+        }
+        return res;
+    }
+
+    /** The balance for each color, available ones if the type is {@link Wallet.BalanceType#AVAILABLE} or {@link Wallet.BalanceType#AVAILABLE_SPENDABLE} */
+    public ImmutableMap<ColorDefinition, Long> getBalances(Wallet.BalanceType type) {
+        return type == Wallet.BalanceType.AVAILABLE || type == Wallet.BalanceType.AVAILABLE_SPENDABLE ? available : estimated;
+    }
+
+    /** Transactions whose colors are still being looked up */
+    public ImmutableMap<Sha256Hash, Transaction> getPending() {
+        return pending;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("version", version)
+                .add("definitions", outputs.size())
+                .add("unspent", unspent.size())
+                .add("pending", pending.size())
+                .toString();
+    }
+}
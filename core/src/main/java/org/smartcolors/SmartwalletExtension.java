@@ -13,6 +13,7 @@ import org.bitcoinj.store.UnreadableWalletException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.smartcolors.core.ColorDefinition;
+import org.smartcolors.core.ProofStore;
 import org.smartcolors.core.SmartColors;
 import org.smartcolors.protos.Protos;
 
@@ -104,9 +105,24 @@ public class SmartwalletExtension implements WalletExtension {
         } else {
             scannerProto = serializeScanner(scanner);
         }
+        flushProofStore();
         return scannerProto.toByteArray();
     }
 
+    // The wallet refers to the stored proofs, so they must be on disk before it is
+    private void flushProofStore() {
+        if (!(scanner instanceof ClientColorScanner))
+            return;
+        ProofStore proofStore = ((ClientColorScanner) scanner).getProofStore();
+        if (proofStore == null)
+            return;
+        try {
+            proofStore.flush();
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
     Protos.ColorScanner serializeScanner(ColorScanner scanner) {
         Protos.ColorScanner.Builder scannerBuilder = Protos.ColorScanner.newBuilder();
         scanner.lock();
@@ -151,6 +167,12 @@ public class SmartwalletExtension implements WalletExtension {
     Protos.ColorTrack serializeTrack(ClientColorTrack track) {
         Protos.ColorTrack.Builder trackBuilder = Protos.ColorTrack.newBuilder();
         serializeTrack(track, trackBuilder);
+        // The proofs themselves are in the proof store, only refer to them
+        for (Map.Entry<TransactionOutPoint, HashCode> entry : track.getProofHashes().entrySet()) {
+            trackBuilder.addProofReferences(Protos.ProofReference.newBuilder()
+                    .setOutpoint(ByteString.copyFrom(entry.getKey().bitcoinSerialize()))
+                    .setProofHash(ByteString.copyFrom(entry.getValue().asBytes())));
+        }
         return trackBuilder.build();
     }
 
@@ -320,6 +342,14 @@ public class SmartwalletExtension implements WalletExtension {
 
     static void deserializeTrackClient(NetworkParameters params, Protos.ColorTrack trackp, ClientColorTrack track) throws UnreadableWalletException {
         deserializeTrack(params, trackp, track);
+        Map<TransactionOutPoint, HashCode> proofs = Maps.newHashMap();
+        for (Protos.ProofReference refp : trackp.getProofReferencesList()) {
+            if (refp.getOutpoint().size() != 36 || refp.getProofHash().size() != 32)
+                throw new UnreadableWalletException("bad proof reference");
+            TransactionOutPoint point = new TransactionOutPoint(params, refp.getOutpoint().toByteArray(), 0);
+            proofs.put(point, HashCode.fromBytes(refp.getProofHash().toByteArray()));
+        }
+        track.setProofHashes(proofs);
     }
 
     static private Sha256Hash getSha256Hash(ByteString hash) {
@@ -0,0 +1,67 @@
+package org.smartcolors;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Token bucket rate limiter.  Never blocks - callers that get no token ask how long to wait and reschedule.
+ */
+public class TokenBucket {
+    private final Ticker ticker;
+    private final double tokensPerNano;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param perSecond sustained rate
+     * @param burst     tokens available at once, and at the start
+     */
+    public TokenBucket(double perSecond, int burst) {
+        this(perSecond, burst, Ticker.systemTicker());
+    }
+
+    public TokenBucket(double perSecond, int burst, Ticker ticker) {
+        checkArgument(perSecond > 0 && burst > 0);
+        this.ticker = ticker;
+        this.tokensPerNano = perSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = burst;
+        this.tokens = burst;
+        this.lastRefill = ticker.read();
+    }
+
+    private void refill() {
+        long now = ticker.read();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+
+    /** Take a token if one is available */
+    public synchronized boolean tryAcquire() {
+        refill();
+        if (tokens < 1)
+            return false;
+        tokens -= 1;
+        return true;
+    }
+
+    /** Time until a token is available, zero if one is available now */
+    public synchronized long getMillisUntilAvailable() {
+        refill();
+        if (tokens >= 1)
+            return 0;
+        return TimeUnit.NANOSECONDS.toMillis((long) Math.ceil((1 - tokens) / tokensPerNano)) + 1;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("tokens", tokens)
+                .add("capacity", capacity)
+                .toString();
+    }
+}
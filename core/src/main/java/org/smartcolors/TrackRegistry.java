@@ -0,0 +1,117 @@
+package org.smartcolors;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import org.smartcolors.core.ColorDefinition;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The color tracks of a scanner, by definition hash.
+ * <p/>
+ * <p>Reads are lock free and see an immutable snapshot.  Writes replace the snapshot, so they are expected
+ * to be rare - definitions are added once, when the wallet is set up or loaded.</p>
+ */
+public class TrackRegistry<TRACK extends ColorTrack> implements Iterable<TRACK> {
+    private final ImmutableSet<ColorDefinition> builtins;
+    private volatile Snapshot<TRACK> snapshot;
+
+    private static class Snapshot<TRACK> {
+        final ImmutableMap<HashCode, TRACK> tracksByHash;
+        final ImmutableSet<TRACK> tracks;
+        // Including the builtin definitions
+        final ImmutableMap<HashCode, ColorDefinition> definitionsByHash;
+        final ImmutableSet<ColorDefinition> definitions;
+
+        Snapshot(ImmutableMap<HashCode, TRACK> tracksByHash, ImmutableSet<ColorDefinition> builtins) {
+            this.tracksByHash = tracksByHash;
+            this.tracks = ImmutableSet.copyOf(tracksByHash.values());
+            Map<HashCode, ColorDefinition> definitionsByHash = Maps.newLinkedHashMap();
+            for (ColorDefinition def : builtins) {
+                definitionsByHash.put(def.getHash(), def);
+            }
+            for (TRACK track : tracksByHash.values()) {
+                definitionsByHash.put(track.getDefinition().getHash(), track.getDefinition());
+            }
+            this.definitionsByHash = ImmutableMap.copyOf(definitionsByHash);
+            this.definitions = ImmutableSet.copyOf(definitionsByHash.values());
+        }
+    }
+
+    /** @param builtins definitions without a track, such as bitcoin, to include in {@link #getDefinitions()} */
+    public TrackRegistry(ColorDefinition... builtins) {
+        this.builtins = ImmutableSet.copyOf(builtins);
+        this.snapshot = new Snapshot<TRACK>(ImmutableMap.<HashCode, TRACK>of(), this.builtins);
+    }
+
+    /** @return false if there already is a track for the definition */
+    public synchronized boolean add(TRACK track) {
+        HashCode hash = track.getDefinition().getHash();
+        if (snapshot.tracksByHash.containsKey(hash))
+            return false;
+        snapshot = new Snapshot<TRACK>(ImmutableMap.<HashCode, TRACK>builder()
+                .putAll(snapshot.tracksByHash)
+                .put(hash, track)
+                .build(), builtins);
+        return true;
+    }
+
+    /** @return false if the track was not registered */
+    public synchronized boolean remove(TRACK track) {
+        if (track == null)
+            return false;
+        HashCode hash = track.getDefinition().getHash();
+        if (snapshot.tracksByHash.get(hash) != track)
+            return false;
+        Map<HashCode, TRACK> tracks = Maps.newLinkedHashMap(snapshot.tracksByHash);
+        tracks.remove(hash);
+        snapshot = new Snapshot<TRACK>(ImmutableMap.copyOf(tracks), builtins);
+        return true;
+    }
+
+    /** @return the track of the definition with this hash, or null */
+    public TRACK get(HashCode hash) {
+        return snapshot.tracksByHash.get(hash);
+    }
+
+    /** @return the track of the definition, or null */
+    public TRACK get(ColorDefinition def) {
+        return snapshot.tracksByHash.get(def.getHash());
+    }
+
+    /** @return the tracked or builtin definition with this hash, or null */
+    public ColorDefinition getDefinition(HashCode hash) {
+        return snapshot.definitionsByHash.get(hash);
+    }
+
+    /** The tracked definitions and the builtins, as of now */
+    public ImmutableSet<ColorDefinition> getDefinitions() {
+        return snapshot.definitions;
+    }
+
+    /** The tracks, as of now */
+    public ImmutableSet<TRACK> getTracks() {
+        return snapshot.tracks;
+    }
+
+    public int size() {
+        return snapshot.tracksByHash.size();
+    }
+
+    /** Iterates over the tracks as of the call, unaffected by later changes */
+    @Override
+    public Iterator<TRACK> iterator() {
+        return snapshot.tracks.iterator();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("tracks", snapshot.tracksByHash.size())
+                .toString();
+    }
+}
@@ -0,0 +1,114 @@
+package org.smartcolors;
+
+import com.google.common.base.MoreObjects;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A proof tracker server and how well it has been answering.
+ * <p/>
+ * <p>Keeps the latencies of recent successful requests, for percentiles, and moving averages of the latency
+ * and of the failure rate.  The score combines the two.</p>
+ */
+public class TrackerServer {
+    private static final int SAMPLES = 64;
+    private static final double ALPHA = 0.2;
+    /** Fewer samples than this give no percentile */
+    public static final int MIN_SAMPLES = 10;
+    // A server that always fails costs about as much as waiting for a timeout
+    private static final double FAILURE_PENALTY_MS = ClientColorScanner.NETWORK_TIMEOUT;
+
+    /** Best score first, ties in the original order when sorted stably */
+    public static final Comparator<TrackerServer> BY_SCORE = new Comparator<TrackerServer>() {
+        @Override
+        public int compare(TrackerServer a, TrackerServer b) {
+            return Double.compare(a.getScore(), b.getScore());
+        }
+    };
+
+    private final URI base;
+    private volatile boolean batchSupported = true;
+    private final long[] latencies = new long[SAMPLES];
+    private int sampleCount;
+    private double meanLatency;
+    private double failureRate;
+    private long invalidCount;
+
+    public TrackerServer(URI base) {
+        this.base = base;
+    }
+
+    public URI getBase() {
+        return base;
+    }
+
+    boolean isBatchSupported() {
+        return batchSupported;
+    }
+
+    void setBatchSupported(boolean batchSupported) {
+        this.batchSupported = batchSupported;
+    }
+
+    public synchronized void onSuccess(long millis) {
+        latencies[sampleCount % SAMPLES] = millis;
+        meanLatency = sampleCount == 0 ? millis : meanLatency + ALPHA * (millis - meanLatency);
+        sampleCount++;
+        failureRate -= ALPHA * failureRate;
+    }
+
+    public synchronized void onFailure() {
+        failureRate += ALPHA * (1 - failureRate);
+    }
+
+    /** The server sent a proof that did not validate.  It is ranked last until it recovers. */
+    public synchronized void onInvalid() {
+        invalidCount++;
+        failureRate = 1;
+    }
+
+    /**
+     * @param percentile between 0 and 1
+     * @return the latency at the percentile of recent successful requests, or -1 if there are too few
+     */
+    public synchronized long getLatencyPercentile(double percentile) {
+        checkArgument(percentile >= 0 && percentile <= 1);
+        int count = Math.min(sampleCount, SAMPLES);
+        if (count < MIN_SAMPLES)
+            return -1;
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        return sorted[Math.max(0, (int) Math.ceil(percentile * count) - 1)];
+    }
+
+    /** The mean latency plus a penalty for the recent failure rate, in milliseconds.  Lower is better. */
+    public synchronized double getScore() {
+        return meanLatency + failureRate * FAILURE_PENALTY_MS;
+    }
+
+    public synchronized double getMeanLatency() {
+        return meanLatency;
+    }
+
+    public synchronized double getFailureRate() {
+        return failureRate;
+    }
+
+    public synchronized long getInvalidCount() {
+        return invalidCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("base", base)
+                .add("meanLatency", (long) meanLatency)
+                .add("failureRate", failureRate)
+                .add("invalid", invalidCount)
+                .toString();
+    }
+}
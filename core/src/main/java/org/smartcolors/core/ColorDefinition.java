@@ -29,6 +29,8 @@ public class ColorDefinition extends HashableSerializable {
     private final NetworkParameters params;
     public static final int MAX_COLOR_OUTPUTS = 32;
     public static final int VERSION = 1;
+    // Version flag of a definition serialized with root commitments instead of genesis trees
+    public static final int PRUNED_FLAG = 0x80;
 
     public static final String METADATA_NAME = "name";
     public static final String METADATA_EXTRAHASH = "extrahash";
@@ -78,6 +80,8 @@ public class ColorDefinition extends HashableSerializable {
         this.scriptGenesisPoints = def.scriptGenesisPoints;
         this.blockheight = def.blockheight;
         this.stegkey = def.stegkey;
+        outPointGenesisPoints.addOwner(this);
+        scriptGenesisPoints.addOwner(this);
     }
 
     public ColorDefinition(NetworkParameters params, GenesisOutPointsMerbinnerTree outPointGenesisPoints, GenesisScriptMerbinnerTree scriptGenesisPoints, Map<String, String> metadata) {
@@ -92,6 +96,9 @@ public class ColorDefinition extends HashableSerializable {
         this.metadata = metadata;
         this.blockheight = blockheight;
         this.stegkey = stegkey;
+        // The hash commits to the trees, so changes to them must reach our cached hash
+        outPointGenesisPoints.addOwner(this);
+        scriptGenesisPoints.addOwner(this);
         // TODO creationTime
     }
 
@@ -102,10 +109,15 @@ public class ColorDefinition extends HashableSerializable {
 
     @Override
     public void serialize(Serializer ser) throws SerializationException {
-        ser.write(VERSION);
+        // The hash only commits to the tree roots, so it is the same for a pruned definition
+        boolean pruned = isPruned() && !(ser instanceof HashSerializer);
+        ser.write(pruned ? VERSION | PRUNED_FLAG : VERSION);
         ser.write(blockheight);
         ser.write(stegkey);
-        ser.write(outPointGenesisPoints);
+        if (pruned)
+            outPointGenesisPoints.serializeCommitment(ser);
+        else
+            ser.write(outPointGenesisPoints);
         ser.write(scriptGenesisPoints);
         if (metadata.containsKey(METADATA_EXTRAHASH)) {
             ser.write(metadata.get(METADATA_EXTRAHASH).getBytes());
@@ -114,19 +126,23 @@ public class ColorDefinition extends HashableSerializable {
 
     public static ColorDefinition deserialize(NetworkParameters params, Deserializer des) throws SerializationException {
         long version = des.readVarulong();
-        if (version != VERSION)
+        if ((version & ~PRUNED_FLAG) != VERSION)
             throw new SerializationException("unknown version " + version);
         long blockheight = des.readVarulong();
         byte[] stegkey = des.readBytes(16);
         final GenesisOutPointsMerbinnerTree outTree = new GenesisOutPointsMerbinnerTree(params);
         final GenesisScriptMerbinnerTree scriptTree = new GenesisScriptMerbinnerTree();
-        des.readObject(new Deserializer.ObjectReader<GenesisOutPointsMerbinnerTree>() {
-            @Override
-            public GenesisOutPointsMerbinnerTree readObject(Deserializer des) throws SerializationException {
-                outTree.deserialize(des);
-                return outTree;
-            }
-        });
+        if ((version & PRUNED_FLAG) != 0) {
+            outTree.deserializeCommitment(des);
+        } else {
+            des.readObject(new Deserializer.ObjectReader<GenesisOutPointsMerbinnerTree>() {
+                @Override
+                public GenesisOutPointsMerbinnerTree readObject(Deserializer des) throws SerializationException {
+                    outTree.deserialize(des);
+                    return outTree;
+                }
+            });
+        }
         des.readObject(new Deserializer.ObjectReader<GenesisScriptMerbinnerTree>() {
             @Override
             public GenesisScriptMerbinnerTree readObject(Deserializer des) throws SerializationException {
@@ -142,28 +158,60 @@ public class ColorDefinition extends HashableSerializable {
         return metadata.get(METADATA_NAME);
     }
 
+    /** Whether the outpoint is a genesis point.  Always false for a pruned definition - use {@link #verifyGenesisPoint}. */
     public boolean contains(TransactionOutPoint point) {
         return outPointGenesisPoints.containsKey(point);
     }
 
+    /** Whether the genesis outpoint tree was replaced by its root commitment */
+    @JsonIgnore
+    public boolean isPruned() {
+        return outPointGenesisPoints.isPruned();
+    }
+
+    /**
+     * A copy of this definition that only commits to the root of the genesis outpoint tree.  It has the
+     * same hash, and genesis outpoints are checked with the paths from {@link #getGenesisPath}.  The genesis
+     * script tree is kept whole, since scanning needs {@link #contains(Script)} and there are no script proofs.
+     */
+    public ColorDefinition toPruned() {
+        GenesisOutPointsMerbinnerTree outTree = new GenesisOutPointsMerbinnerTree(params);
+        outTree.setCommitment(outPointGenesisPoints.getHash(), outPointGenesisPoints.getSum());
+        GenesisScriptMerbinnerTree scriptTree = new GenesisScriptMerbinnerTree();
+        for (Script script : scriptGenesisPoints.keySet()) {
+            scriptTree.put(script, null);
+        }
+        ColorDefinition pruned = new ColorDefinition(params, outTree, scriptTree, Maps.newHashMap(metadata), blockheight, stegkey);
+        pruned.setCreationTime(creationTime);
+        return pruned;
+    }
+
+    /** @return the authentication path of a genesis outpoint, or null if it is not in this (full) definition */
+    public MerbinnerTree.Path getGenesisPath(TransactionOutPoint point) {
+        return outPointGenesisPoints.getPath(point);
+    }
+
+    /** Check a genesis outpoint and its quantity against the genesis root committed to by the definition hash */
+    public boolean verifyGenesisPoint(TransactionOutPoint point, long quantity, MerbinnerTree.Path path) {
+        try {
+            return outPointGenesisPoints.verify(point, quantity, path);
+        } catch (SerializationException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
     public boolean contains(Script script) {
         return scriptGenesisPoints.containsKey(script);
     }
 
     /**
-     * Calculate the color transferred by a specific txin
+     * Decode the output bitfield carried by an input's nSequence
      *
-     * @param input     the input
-     * @param colorIn   color qty of input
-     * @param colorOuts color qty on each output - modified in place
-     * @param tx        transferring transaction
+     * @param nseq the input sequence number
+     * @return bit j is set iff color is sent to output j
+     * @throws UnsupportedOperationException if the nSequence uses an unsupported kernel
      */
-    public void applyColorTransferred(TransactionInput input, long colorIn, Long colorOuts[], Transaction tx) {
-        long remainingColorIn = colorIn;
-        int numOutputs = Math.min(tx.getOutputs().size(), MAX_COLOR_OUTPUTS);
-        // Which outputs the color in is being sent to is specified by nSequence.
-
-        long nseq = input.getSequenceNumber();
+    public static int decodeColorBitfield(long nseq) {
         int kernel = (int) (nseq & 0x7F);
         long decryptedNseq = nseq;
         if ((nseq & 0x80) == 0x80)
@@ -180,22 +228,78 @@ public class ColorDefinition extends HashableSerializable {
         } else {
             throw new UnsupportedOperationException();
         }
+        return colorBitfield;
+    }
+
+    /**
+     * Calculate the color transferred by a specific txin
+     *
+     * @param input     the input
+     * @param colorIn   color qty of input
+     * @param colorOuts color qty on each output - modified in place
+     * @param tx        transferring transaction
+     */
+    public void applyColorTransferred(TransactionInput input, long colorIn, Long colorOuts[], Transaction tx) {
+        int numOutputs = Math.min(colorOuts.length, MAX_COLOR_OUTPUTS);
+        long[] outs = new long[MAX_COLOR_OUTPUTS];
+        int colored = 0;
+        for (int j = 0; j < numOutputs; j++) {
+            if (colorOuts[j] != null) {
+                outs[j] = colorOuts[j];
+                colored |= 1 << j;
+            }
+        }
+        colored = applyColorTransferred(input, colorIn, outs, colored, tx);
+        for (int j = 0; j < numOutputs; j++) {
+            if (((colored >>> j) & 1) == 1)
+                colorOuts[j] = outs[j];
+        }
+    }
+
+    /**
+     * Calculate the color transferred by a specific txin, without allocating.
+     *
+     * @param input     the input
+     * @param colorIn   color qty of input
+     * @param colorOuts color qty on each output - modified in place.  Must have room for
+     *                  {@link #MAX_COLOR_OUTPUTS} or the number of outputs, whichever is smaller.
+     * @param colored   bitmask of the outputs already marked as colored.  Entries of colorOuts
+     *                  not marked are ignored and need not be cleared.
+     * @param tx        transferring transaction
+     * @return the updated bitmask of colored outputs
+     */
+    public int applyColorTransferred(TransactionInput input, long colorIn, long[] colorOuts, int colored, Transaction tx) {
+        // Which outputs the color in is being sent to is specified by nSequence.
+        int colorBitfield = decodeColorBitfield(input.getSequenceNumber());
+        return applyColorTransferred(colorBitfield, colorIn, colorOuts, colored, tx);
+    }
+
+    /**
+     * Calculate the color transferred by a txin whose nSequence was already decoded with
+     * {@link #decodeColorBitfield(long)}.
+     *
+     * @see #applyColorTransferred(TransactionInput, long, long[], int, Transaction)
+     */
+    public static int applyColorTransferred(int colorBitfield, long colorIn, long[] colorOuts, int colored, Transaction tx) {
+        long remainingColorIn = colorIn;
+        int numOutputs = Math.min(tx.getOutputs().size(), MAX_COLOR_OUTPUTS);
         for (int j = 0; j < numOutputs; j++) {
-            TransactionOutput output = tx.getOutput(j);
             // An output is marked as colored if the corresponding bit
             // in nSequence is set to one. This is chosen to allow
             // standard transactions with standard-looking nSquence's to
             // move color.
             if (remainingColorIn > 0 && ((colorBitfield >> j) & 1) == 1) {
                 // Mark the output as being colored if it hasn't been already.
-                if (colorOuts[j] == null)
-                    colorOuts[j] = 0L;
+                if (((colored >>> j) & 1) == 0) {
+                    colorOuts[j] = 0;
+                    colored |= 1 << j;
+                }
                 // Color is allocated to outputs "bucket-style", where
                 // each colored input adds to colored outputs until the
                 // output is "full". As color_out is modified in place the
                 // allocation is stateful - a previous txin can change where the
                 // next txin sends its quantity of color.
-                long maxColorOut = SmartColors.removeMsbdropValuePadding(output.getValue().value);
+                long maxColorOut = SmartColors.removeMsbdropValuePadding(tx.getOutput(j).getValue().value);
                 long transferred = Math.min(remainingColorIn, maxColorOut - colorOuts[j]);
                 colorOuts[j] += transferred;
                 remainingColorIn -= transferred;
@@ -209,6 +313,7 @@ public class ColorDefinition extends HashableSerializable {
             // useful in the future to reduce track sizes for large
             // transactions.
         }
+        return colored;
     }
 
     /**
@@ -216,19 +321,33 @@ public class ColorDefinition extends HashableSerializable {
      * <p/>
      * The kernel only tracks the movement of color from input to output; the
      * creation of genesis txouts is handled separately.
+     * <p/>
+     * Boxing adapter over {@link #applyColorTransferred(TransactionInput, long, long[], int, Transaction)},
+     * which should be preferred on hot paths.
      *
      * @param colorIns color input values, by tx input
      * @return amount of color out indexed by vout index. Colored outputs are a non-zero integers, uncolored outputs are null.
      */
     public Long[] applyKernel(Transaction tx, Long colorIns[]) {
-        Long[] colorOuts = new Long[tx.getOutputs().size()];
+        long[] outs = new long[MAX_COLOR_OUTPUTS];
+        int colored = 0;
         int numInputs = tx.getInputs().size();
         for (int i = 0; i < numInputs; i++) {
             if (colorIns[i] != null) {
-                applyColorTransferred(tx.getInput(i), colorIns[i], colorOuts, tx);
+                colored = applyColorTransferred(tx.getInput(i), colorIns[i], outs, colored, tx);
             }
         }
-        return colorOuts;
+        return toBoxed(outs, colored, tx.getOutputs().size());
+    }
+
+    /** Convert the result of the primitive kernel to the boxed form returned by {@link #applyKernel(Transaction, Long[])} */
+    public static Long[] toBoxed(long[] colorOuts, int colored, int numOutputs) {
+        Long[] res = new Long[numOutputs];
+        for (int j = 0; j < Math.min(numOutputs, MAX_COLOR_OUTPUTS); j++) {
+            if (((colored >>> j) & 1) == 1)
+                res[j] = colorOuts[j];
+        }
+        return res;
     }
 
     /** Creation time in seconds since the epoch */
@@ -252,6 +371,29 @@ public class ColorDefinition extends HashableSerializable {
         return scriptGenesisPoints;
     }
 
+    /**
+     * Add or replace a genesis outpoint.  Only the tree path of the outpoint is rehashed.
+     * The definition hash changes, so this must not be called while the definition is tracked.
+     */
+    public void putGenesisPoint(TransactionOutPoint point, long quantity) {
+        outPointGenesisPoints.put(point, quantity);
+    }
+
+    /** Remove a genesis outpoint - see {@link #putGenesisPoint(TransactionOutPoint, long)} */
+    public void removeGenesisPoint(TransactionOutPoint point) {
+        outPointGenesisPoints.remove(point);
+    }
+
+    /** Add a genesis script - see {@link #putGenesisPoint(TransactionOutPoint, long)} */
+    public void putGenesisPoint(Script script) {
+        scriptGenesisPoints.put(script, null);
+    }
+
+    /** Remove a genesis script - see {@link #putGenesisPoint(TransactionOutPoint, long)} */
+    public void removeGenesisPoint(Script script) {
+        scriptGenesisPoints.remove(script);
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
@@ -286,7 +428,7 @@ public class ColorDefinition extends HashableSerializable {
     @JsonIgnore
     @Override
     public byte[] getHmacKey() {
-        return Utils.HEX.decode("1d8801c1323b4cc5d1b48b289d35aad0");
+        return Hashes.DEFINITION_HMAC_KEY;
     }
 
     @JsonIgnore
@@ -311,6 +453,11 @@ public class ColorDefinition extends HashableSerializable {
         metadata.put(key, value);
     }
 
+    @JsonIgnore
+    public NetworkParameters getParams() {
+        return params;
+    }
+
     @JsonIgnore
     public long getBlockheight() {
         return blockheight;
@@ -319,8 +466,17 @@ public class ColorDefinition extends HashableSerializable {
     public static final byte[] FILE_MAGIC = Utils.HEX.decode("00536d617274636f6c6f727300fcbe8800436f6c6f7264656600a8edddf21401");
 
     public static ColorDefinition deserializeFromFile(final NetworkParameters params, InputStream is) throws SerializationException {
-        MemoizedDeserializer des = new MemoizedDeserializer(is);
+        if (!(is instanceof BufferedInputStream) && !(is instanceof ByteArrayInputStream))
+            is = new BufferedInputStream(is);
+        return deserializeFromFile(params, new MemoizedDeserializer(is));
+    }
+
+    /** Read a definition file by memory-mapping it */
+    public static ColorDefinition deserializeFromFile(final NetworkParameters params, File file) throws SerializationException, IOException {
+        return deserializeFromFile(params, new MemoizedByteBufferDeserializer(FileSerializer.map(file)));
+    }
 
+    private static ColorDefinition deserializeFromFile(final NetworkParameters params, Deserializer des) throws SerializationException {
         fileSerializer.readHeader(des);
         ColorDefinition me = des.readObject(new Deserializer.ObjectReader<ColorDefinition>() {
             @Override
@@ -340,7 +496,7 @@ public class ColorDefinition extends HashableSerializable {
     };
 
     public void serializeToFile(OutputStream os) throws SerializationException {
-        MemoizedSerializer ser = new MemoizedSerializer(os);
+        MemoizedSerializer ser = new MemoizedSerializer(os, true);
         fileSerializer.write(ser, this);
     }
 
@@ -2,15 +2,28 @@ package org.smartcolors.core;
 
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Queues;
+import com.google.common.collect.Sets;
 import org.bitcoinj.core.NetworkParameters;
 import org.bitcoinj.core.TransactionOutPoint;
 import org.bitcoinj.core.Utils;
 import org.smartcolors.marshal.*;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * Created by devrandom on 2014-Nov-18.
@@ -21,6 +34,7 @@ public abstract class ColorProof extends HashableSerializable {
     protected long quantity;
 
     private static Map<Integer, Class<? extends ColorProof>> registry = Maps.newTreeMap();
+    private static volatile ValidatedProofCache validatedCache = new ValidatedProofCache();
     protected NetworkParameters params;
 
     public static void register(int type, Class<? extends ColorProof> clazz) {
@@ -114,7 +128,7 @@ public abstract class ColorProof extends HashableSerializable {
 
     @Override
     public byte[] getHmacKey() {
-        return Utils.HEX.decode("b96dae8e52cb124d01804353736a8384");
+        return Hashes.PROOF_HMAC_KEY;
     }
 
     protected abstract int getType();
@@ -122,31 +136,173 @@ public abstract class ColorProof extends HashableSerializable {
     public static final byte[] FILE_MAGIC = Utils.HEX.decode("00536d617274636f6c6f727300f8acdc00436f6c6f7270726f6f6600cb93f2c5");
 
     public static ColorProof deserializeFromFile(final NetworkParameters params, InputStream is) throws SerializationException {
-        MemoizedDeserializer des = new MemoizedDeserializer(is);
+        if (!(is instanceof BufferedInputStream) && !(is instanceof ByteArrayInputStream))
+            is = new BufferedInputStream(is);
+        return deserializeFromFile(params, new MemoizedDeserializer(is));
+    }
 
-        FileSerializer fser = new FileSerializer() {
-            @Override
-            protected byte[] getMagic() {
-                return FILE_MAGIC;
-            }
-        };
-        fser.readHeader(des);
+    /** Read a proof file by memory-mapping it */
+    public static ColorProof deserializeFromFile(final NetworkParameters params, File file) throws SerializationException, IOException {
+        return deserializeFromFile(params, new MemoizedByteBufferDeserializer(FileSerializer.map(file)));
+    }
+
+    private static ColorProof deserializeFromFile(final NetworkParameters params, Deserializer des) throws SerializationException {
+        fileSerializer.readHeader(des);
         ColorProof me = des.readObject(new Deserializer.ObjectReader<ColorProof>() {
             @Override
             public ColorProof readObject(Deserializer des) throws SerializationException {
                 return deserialize(params, des);
             }
         });
-        fser.verifyHash(des, me);
+        fileSerializer.verifyHash(des, me);
         return me;
     }
 
+    private static FileSerializer fileSerializer = new FileSerializer() {
+        @Override
+        protected byte[] getMagic() {
+            return FILE_MAGIC;
+        }
+    };
+
+    public void serializeToFile(OutputStream os) throws SerializationException {
+        MemoizedSerializer ser = new MemoizedSerializer(os, true);
+        fileSerializer.write(ser, this);
+    }
+
+    /**
+     * Validate the proof and its history.  Each distinct proof in the graph is checked once, and
+     * proofs already in the {@link #getValidatedCache() validated cache} are not checked again.
+     */
     public void validate() throws ValidationException {
+        ValidatedProofCache cache = validatedCache;
+        if (cache.contains(this))
+            return;
+        Set<ValidatedProofCache.Key> visited = Sets.newHashSet();
+        List<ColorProof> validated = Lists.newArrayList();
         Queue<ColorProof> queue = Queues.newArrayDeque();
         queue.add(this);
         while (!queue.isEmpty()) {
-            queue.poll().doValidate(queue);
+            ColorProof proof = queue.poll();
+            if (!visited.add(new ValidatedProofCache.Key(proof)) || (proof != this && cache.contains(proof)))
+                continue;
+            proof.doValidate(queue);
+            validated.add(proof);
+        }
+        cache.addAll(validated);
+    }
+
+    /**
+     * Validate like {@link #validate()}, checking the distinct proofs of the graph concurrently on
+     * the executor.  If several proofs are invalid, the exception is the one {@link #validate()}
+     * would throw - that of the first invalid proof in breadth-first order.
+     */
+    public void validate(ExecutorService executor) throws ValidationException {
+        ValidatedProofCache cache = validatedCache;
+        if (cache.contains(this))
+            return;
+        // Same order as the sequential walk, which only stops at the first invalid proof
+        Set<ValidatedProofCache.Key> visited = Sets.newHashSet();
+        final List<ColorProof> proofs = Lists.newArrayList();
+        Queue<ColorProof> queue = Queues.newArrayDeque();
+        queue.add(this);
+        while (!queue.isEmpty()) {
+            ColorProof proof = queue.poll();
+            if (!visited.add(new ValidatedProofCache.Key(proof)) || (proof != this && cache.contains(proof)))
+                continue;
+            proof.addPrevious(queue);
+            proofs.add(proof);
+        }
+
+        if (proofs.size() < PARALLEL_CHUNK_SIZE * 2) {
+            Failure failure = validateRange(proofs, 0, proofs.size());
+            if (failure != null)
+                failure.rethrow();
+        } else {
+            List<Future<Failure>> futures = Lists.newArrayList();
+            for (int from = 0; from < proofs.size(); from += PARALLEL_CHUNK_SIZE) {
+                final int start = from;
+                final int end = Math.min(from + PARALLEL_CHUNK_SIZE, proofs.size());
+                futures.add(executor.submit(new Callable<Failure>() {
+                    @Override
+                    public Failure call() {
+                        return validateRange(proofs, start, end);
+                    }
+                }));
+            }
+            // Chunks are in order, so the first failed chunk has the first failure
+            for (Future<Failure> future : futures) {
+                Failure failure;
+                try {
+                    failure = future.get();
+                } catch (InterruptedException e) {
+                    cancelAll(futures);
+                    Thread.currentThread().interrupt();
+                    throw new ValidationException(e);
+                } catch (ExecutionException e) {
+                    cancelAll(futures);
+                    throw Throwables.propagate(e.getCause());
+                }
+                if (failure != null) {
+                    cancelAll(futures);
+                    failure.rethrow();
+                }
+            }
+        }
+        cache.addAll(proofs);
+    }
+
+    private static final int PARALLEL_CHUNK_SIZE = 256;
+
+    private static void cancelAll(List<Future<Failure>> futures) {
+        for (Future<Failure> future : futures) {
+            future.cancel(false);
+        }
+    }
+
+    private static class Failure {
+        final Exception exception;
+
+        Failure(Exception exception) {
+            this.exception = exception;
         }
+
+        void rethrow() throws ValidationException {
+            if (exception instanceof ValidationException)
+                throw (ValidationException) exception;
+            throw (RuntimeException) exception;
+        }
+    }
+
+    /** @return the failure of the first invalid proof in the range, or null */
+    private static Failure validateRange(List<ColorProof> proofs, int from, int to) {
+        // Previous proofs are already in the list
+        Queue<ColorProof> ignored = Queues.newArrayDeque();
+        for (int i = from; i < to; i++) {
+            try {
+                proofs.get(i).doValidate(ignored);
+                ignored.clear();
+            } catch (ValidationException e) {
+                return new Failure(e);
+            } catch (RuntimeException e) {
+                return new Failure(e);
+            }
+        }
+        return null;
+    }
+
+    /** Add the proofs this one depends on, in the order {@link #doValidate} adds them */
+    protected void addPrevious(Queue<ColorProof> queue) {
+    }
+
+    /** Process-wide cache of proofs that passed validation */
+    public static ValidatedProofCache getValidatedCache() {
+        return validatedCache;
+    }
+
+    /** Replace the cache of validated proofs, for instance with a fresh one so that tests don't share it */
+    public static void setValidatedCache(ValidatedProofCache cache) {
+        validatedCache = checkNotNull(cache);
     }
 
     protected abstract void doValidate(Queue<ColorProof> queue) throws ValidationException;
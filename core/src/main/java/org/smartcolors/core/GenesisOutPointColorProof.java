@@ -7,6 +7,8 @@ import org.smartcolors.marshal.*;
 
 import java.util.Queue;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 /**
  * Created by devrandom on 2014-Nov-19.
  */
@@ -14,12 +16,35 @@ public class GenesisOutPointColorProof extends ColorProof {
     public static final int PROOF_TYPE = 1;
 
     private TransactionOutPoint outpoint;
+    // Membership of the outpoint, if the definition is pruned
+    private MerbinnerTree.Path path;
 
     public GenesisOutPointColorProof() {
     }
 
+    /**
+     * A proof against a pruned definition, carrying the quantity and authentication path of the outpoint.
+     *
+     * @see ColorDefinition#toPruned()
+     * @see ColorDefinition#getGenesisPath(TransactionOutPoint)
+     */
+    public GenesisOutPointColorProof(ColorDefinition def, TransactionOutPoint outpoint, long quantity, MerbinnerTree.Path path) {
+        checkArgument(def.isPruned());
+        this.def = def;
+        this.params = def.getParams();
+        this.outpoint = outpoint;
+        this.quantity = quantity;
+        this.path = path;
+        try {
+            validate();
+        } catch (ValidationException e) {
+            Throwables.propagate(e);
+        }
+    }
+
     public GenesisOutPointColorProof(ColorDefinition def, TransactionOutPoint outpoint) {
         this.def = def;
+        this.params = def.getParams();
         this.outpoint = outpoint;
         quantity = calcQuantity();
         try {
@@ -41,6 +66,12 @@ public class GenesisOutPointColorProof extends ColorProof {
                 return new TransactionOutPoint(params, des.readBytes(36), 0);
             }
         });
+        if (def.isPruned()) {
+            quantity = des.readVarulong();
+            path = MerbinnerTree.Path.deserialize(des);
+            validate();
+            return;
+        }
         Long quantity = calcQuantity();
         if (quantity == null)
             quantity = 0L; // Checked in validate
@@ -62,6 +93,12 @@ public class GenesisOutPointColorProof extends ColorProof {
                 return Hashes.calcHash(obj);
             }
         });
+        // The quantity is already hashed by ColorProof, so the hash - which proof caches and stores key on -
+        // commits to it.  The path is not part of the hash, which must not depend on whether the definition is pruned.
+        if (def.isPruned() && !(ser instanceof HashSerializer)) {
+            ser.write(quantity);
+            path.serialize(ser);
+        }
     }
 
     @Override
@@ -71,6 +108,11 @@ public class GenesisOutPointColorProof extends ColorProof {
 
     @Override
     protected void doValidate(Queue<ColorProof> queue) throws ValidationException {
+        if (def.isPruned()) {
+            if (path == null || !def.verifyGenesisPoint(outpoint, quantity, path))
+                throw new ValidationException("outpoint not in pruned def " + outpoint);
+            return;
+        }
         if (!def.getOutPointGenesisPoints().containsKey(outpoint))
             throw new ValidationException("outpoint not in def " + outpoint);
     }
@@ -79,4 +121,9 @@ public class GenesisOutPointColorProof extends ColorProof {
     public TransactionOutPoint getOutPoint() {
         return outpoint;
     }
+
+    /** The authentication path of the outpoint, or null if the definition is not pruned */
+    public MerbinnerTree.Path getPath() {
+        return path;
+    }
 }
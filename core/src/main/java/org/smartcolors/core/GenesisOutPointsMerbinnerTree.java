@@ -4,7 +4,6 @@ import com.google.common.collect.Maps;
 import com.google.common.hash.HashCode;
 import org.bitcoinj.core.NetworkParameters;
 import org.bitcoinj.core.TransactionOutPoint;
-import org.bitcoinj.core.Utils;
 import org.smartcolors.marshal.*;
 
 import java.util.Map;
@@ -64,7 +63,7 @@ public class GenesisOutPointsMerbinnerTree extends MerbinnerTree<TransactionOutP
 
     @Override
     public byte[] getHmacKey() {
-        return Utils.HEX.decode("d8497e1258c3f8e747341cb361676cee");
+        return Hashes.GENESIS_OUT_POINTS_HMAC_KEY;
     }
 
     public GenesisOutPointsMerbinnerTree(NetworkParameters params, Map<TransactionOutPoint, Long> nodes) {
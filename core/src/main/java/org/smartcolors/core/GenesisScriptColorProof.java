@@ -22,6 +22,7 @@ public class GenesisScriptColorProof extends ColorProof {
 
     public GenesisScriptColorProof(ColorDefinition def, Transaction tx, long index) {
         this.def = def;
+        this.params = def.getParams();
         this.tx = tx;
         this.index = index;
         quantity = calcQuantity();
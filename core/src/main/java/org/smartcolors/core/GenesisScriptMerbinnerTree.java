@@ -3,7 +3,6 @@ package org.smartcolors.core;
 import com.google.common.collect.Maps;
 import com.google.common.hash.HashCode;
 import org.bitcoinj.core.ScriptException;
-import org.bitcoinj.core.Utils;
 import org.bitcoinj.script.Script;
 import org.smartcolors.marshal.*;
 
@@ -63,7 +62,7 @@ public class GenesisScriptMerbinnerTree extends MerbinnerTree<Script, Void> {
 
     @Override
     public byte[] getHmacKey() {
-        return Utils.HEX.decode("d431b155684582c6e0eef8b38d62321e");
+        return Hashes.GENESIS_SCRIPTS_HMAC_KEY;
     }
 
     public GenesisScriptMerbinnerTree(Map<Script, Void> nodes) {
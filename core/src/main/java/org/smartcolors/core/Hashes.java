@@ -6,7 +6,6 @@ import org.bitcoinj.core.Transaction;
 import org.bitcoinj.core.TransactionOutPoint;
 import org.bitcoinj.core.Utils;
 import org.bitcoinj.script.Script;
-import org.smartcolors.marshal.BytesSerializer;
 import org.smartcolors.marshal.HashSerializer;
 import org.smartcolors.marshal.SerializationException;
 
@@ -18,15 +17,20 @@ public class Hashes {
     public static final byte[] SCRIPT_HMAC_KEY = Utils.HEX.decode("3b808252881682adf56f7cc5abc0cb3c");
     public static final byte[] OUT_POINT_HMAC_KEY = Utils.HEX.decode("eac9aef052700336a94accea6a883e59");
     public static final byte[] TRANSACTION_HMAC_KEY = Utils.HEX.decode("4668df91fe332d65378cc758958d701d");
+    public static final byte[] DEFINITION_HMAC_KEY = Utils.HEX.decode("1d8801c1323b4cc5d1b48b289d35aad0");
+    public static final byte[] PROOF_HMAC_KEY = Utils.HEX.decode("b96dae8e52cb124d01804353736a8384");
+    public static final byte[] GENESIS_OUT_POINTS_HMAC_KEY = Utils.HEX.decode("d8497e1258c3f8e747341cb361676cee");
+    public static final byte[] GENESIS_SCRIPTS_HMAC_KEY = Utils.HEX.decode("d431b155684582c6e0eef8b38d62321e");
+    public static final byte[] PREVOUT_PROOFS_HMAC_KEY = Utils.HEX.decode("486a3b9f0cc1adc7f0f7f3e388b89dbc");
 
     public static HashCode calcHash(Script script) {
-        BytesSerializer ser = new BytesSerializer();
+        HashSerializer ser = new HashSerializer(SCRIPT_HMAC_KEY);
         try {
             ser.writeWithLength(script.getProgram());
         } catch (SerializationException e) {
             Throwables.propagate(e);
         }
-        return HashSerializer.calcHash(ser.getBytes(), SCRIPT_HMAC_KEY);
+        return ser.getHash();
     }
 
     public static HashCode calcHash(TransactionOutPoint key) {
@@ -34,12 +38,12 @@ public class Hashes {
     }
 
     public static HashCode calcHash(Transaction tx) {
-        BytesSerializer ser = new BytesSerializer();
+        HashSerializer ser = new HashSerializer(TRANSACTION_HMAC_KEY);
         try {
             ser.writeWithLength(tx.bitcoinSerialize());
         } catch (SerializationException e) {
             Throwables.propagate(e);
         }
-        return HashSerializer.calcHash(ser.getBytes(), TRANSACTION_HMAC_KEY);
+        return ser.getHash();
     }
 }
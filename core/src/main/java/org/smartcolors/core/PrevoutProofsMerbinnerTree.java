@@ -1,11 +1,9 @@
 package org.smartcolors.core;
 
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 import com.google.common.hash.HashCode;
 import org.bitcoinj.core.NetworkParameters;
 import org.bitcoinj.core.TransactionOutPoint;
-import org.bitcoinj.core.Utils;
 import org.smartcolors.marshal.*;
 
 import java.util.*;
@@ -76,7 +74,7 @@ public class PrevoutProofsMerbinnerTree extends MerbinnerTree<TransactionOutPoin
 
     @Override
     public byte[] getHmacKey() {
-        return Utils.HEX.decode("486a3b9f0cc1adc7f0f7f3e388b89dbc");
+        return Hashes.PREVOUT_PROOFS_HMAC_KEY;
     }
 
     public PrevoutProofsMerbinnerTree(NetworkParameters params, Map<TransactionOutPoint, ColorProof> nodes) {
@@ -93,41 +91,39 @@ public class PrevoutProofsMerbinnerTree extends MerbinnerTree<TransactionOutPoin
     public void serialize(final Serializer ser, Deque<SerializationState> stack) throws SerializationException {
         SerializationState state = stack.getFirst();
 
-        Collection<TransactionOutPoint> keys = state.keys;
-        if (keys == null)
-            keys = keySet();
+        SortedKeys<TransactionOutPoint> keys = state.keys;
+        int from = state.from;
+        int to = state.to;
+        if (keys == null) {
+            keys = sortKeys(keySet());
+            from = 0;
+            to = keys.size();
+        }
 
-        if (keys.isEmpty()) {
+        if (from == to) {
             ser.write(0);
-        } else if (keys.size() == 1) {
+        } else if (to - from == 1) {
             ser.write(1);
-            TransactionOutPoint key = keys.iterator().next();
+            TransactionOutPoint key = keys.get(from);
             serializeKey(ser, key);
             ColorProof colorProof = entries.get(key);
             if (colorProof instanceof TransferColorProof) {
-                stack.push(new SerializationState((TransferColorProof) colorProof, null, 0));
+                stack.push(new SerializationState((TransferColorProof) colorProof));
             } else {
                 serializeValue(ser, colorProof);
             }
         } else {
             ser.write(2);
-            Set<TransactionOutPoint> left = Sets.newHashSet();
-            Set<TransactionOutPoint> right = Sets.newHashSet();
-            for (TransactionOutPoint key : keys) {
-                byte[] keyHash = getKeyHash(key).asBytes();
-                boolean side = ((keyHash[state.depth / 8] >> (7 - (state.depth % 8))) & 1) == 1;
-                if (side)
-                    left.add(key);
-                else
-                    right.add(key);
-            }
-            stack.push(new SerializationState(this, right, state.depth + 1));
-            stack.push(new SerializationState(this, left, state.depth + 1));
+            // Keys with the bit set go left
+            int split = keys.split(from, to, state.depth);
+            stack.push(new SerializationState(this, keys, from, split, state.depth + 1));
+            stack.push(new SerializationState(this, keys, split, to, state.depth + 1));
         }
     }
 
     @Override
     public void deserialize(Deserializer des, Deque<DeserializationState> stack) throws SerializationException {
+        invalidateNodes();
         int type = (int) des.readVarulong();
         if (type == 0) {
         } else if (type == 1) {
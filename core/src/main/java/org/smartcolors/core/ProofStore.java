@@ -0,0 +1,443 @@
+package org.smartcolors.core;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Queues;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.ProtocolException;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.Utils;
+import org.smartcolors.marshal.ByteBufferDeserializer;
+import org.smartcolors.marshal.BytesSerializer;
+import org.smartcolors.marshal.MerbinnerTree;
+import org.smartcolors.marshal.SerializationException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Content-addressed store of color proofs and definitions, keyed by hash.
+ * <p/>
+ * <p>Each proof node and each definition is appended to the data file once.  Transfer proofs refer to
+ * their prevout proofs, and all proofs to their definition, by hash, so history shared between outputs
+ * is stored once.  A proof is appended after its history, so a store recovered from an interrupted put
+ * only holds complete histories.  Reads go through a memory-mapping of the data file, with an LRU cache
+ * of decoded objects in front.  The index is rebuilt by scanning the data file when it is opened.</p>
+ * <p/>
+ * <p>Record layout: 32 byte hash, one byte kind (zero for a definition, otherwise the proof type),
+ * four byte big-endian body length, body.</p>
+ */
+public class ProofStore implements Closeable {
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+    public static final byte[] FILE_MAGIC = Utils.HEX.decode("00536d617274636f6c6f727300f8acdc0050726f6f6673746f726500");
+
+    private static final int KIND_DEFINITION = 0;
+    private static final int HEADER_SIZE = 32 + 1 + 4;
+
+    private final NetworkParameters params;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final Map<HashCode, Long> index = Maps.newHashMap();
+    private final LinkedHashMap<HashCode, Object> cache;
+    private MappedByteBuffer mapped;
+    private long length;
+    private long hitCount;
+    private long missCount;
+
+    public ProofStore(NetworkParameters params, File path) throws IOException, SerializationException {
+        this(params, path, DEFAULT_CACHE_SIZE);
+    }
+
+    public ProofStore(NetworkParameters params, File path, final int cacheSize) throws IOException, SerializationException {
+        checkArgument(cacheSize > 0);
+        this.params = params;
+        this.cache = new LinkedHashMap<HashCode, Object>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<HashCode, Object> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        this.file = new RandomAccessFile(path, "rw");
+        this.channel = file.getChannel();
+        try {
+            open();
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        } catch (SerializationException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    private void open() throws IOException, SerializationException {
+        length = channel.size();
+        if (length == 0) {
+            channel.write(ByteBuffer.wrap(FILE_MAGIC), 0);
+            length = FILE_MAGIC.length;
+            return;
+        }
+        if (length < FILE_MAGIC.length || !Arrays.equals(FILE_MAGIC, readBytes(0, FILE_MAGIC.length)))
+            throw new SerializationException("not a proof store");
+        long offset = FILE_MAGIC.length;
+        while (offset + HEADER_SIZE <= length) {
+            ByteBuffer header = read(offset, HEADER_SIZE);
+            byte[] hash = new byte[32];
+            header.get(hash);
+            header.get();
+            int size = header.getInt();
+            if (size < 0 || offset + HEADER_SIZE + size > length)
+                break;
+            index.put(HashCode.fromBytes(hash), offset);
+            offset += HEADER_SIZE + size;
+        }
+        if (offset != length) {
+            // Incomplete record from an interrupted append
+            channel.truncate(offset);
+            length = offset;
+            mapped = null;
+        }
+    }
+
+    public synchronized boolean contains(HashCode hash) {
+        return index.containsKey(hash);
+    }
+
+    /** Store a definition, if not already stored */
+    public synchronized void put(ColorDefinition def) throws IOException {
+        HashCode hash = def.getHash();
+        if (index.containsKey(hash))
+            return;
+        BytesSerializer ser = new BytesSerializer();
+        try {
+            Map<String, String> metadata = def.getMetadata();
+            ser.write(metadata.size());
+            for (Map.Entry<String, String> entry : metadata.entrySet()) {
+                ser.writeWithLength(entry.getKey().getBytes(Charsets.UTF_8));
+                ser.writeWithLength(entry.getValue().getBytes(Charsets.UTF_8));
+            }
+            def.serialize(ser);
+        } catch (SerializationException e) {
+            throw new IOException(e);
+        }
+        append(hash, KIND_DEFINITION, ser.getBytes());
+        cache.put(hash, def);
+    }
+
+    /**
+     * Store a proof and all of its history that is not stored yet
+     *
+     * @return the proof hash
+     */
+    public synchronized HashCode put(ColorProof proof) throws IOException {
+        Set<HashCode> expanded = Sets.newHashSet();
+        ArrayDeque<ColorProof> stack = Queues.newArrayDeque();
+        stack.push(proof);
+        while (!stack.isEmpty()) {
+            ColorProof node = stack.getFirst();
+            HashCode hash = node.getHash();
+            // Stored proofs have all their history stored
+            if (index.containsKey(hash)) {
+                stack.pop();
+                continue;
+            }
+            // Post-order, so that an interrupted put never leaves a proof stored without its history
+            if (expanded.add(hash) && node instanceof TransferColorProof) {
+                PrevoutProofsMerbinnerTree prevouts = ((TransferColorProof) node).getPrevouts();
+                boolean missing = false;
+                for (TransactionOutPoint point : prevouts.keySet()) {
+                    ColorProof prevout = prevouts.get(point);
+                    if (!index.containsKey(prevout.getHash())) {
+                        stack.push(prevout);
+                        missing = true;
+                    }
+                }
+                if (missing)
+                    continue;
+            }
+            put(node.getDefinition());
+            append(hash, node.getType(), encode(node));
+            cache.put(hash, node);
+            stack.pop();
+        }
+        return proof.getHash();
+    }
+
+    private byte[] encode(ColorProof proof) throws IOException {
+        BytesSerializer ser = new BytesSerializer();
+        try {
+            ser.write(proof.getDefinition().getHash().asBytes());
+            if (proof instanceof GenesisOutPointColorProof) {
+                GenesisOutPointColorProof genesis = (GenesisOutPointColorProof) proof;
+                ser.write(genesis.getOutPoint().bitcoinSerialize());
+                MerbinnerTree.Path path = genesis.getPath();
+                if (path != null) {
+                    ser.write(1);
+                    ser.write(genesis.getQuantity());
+                    path.serialize(ser);
+                } else {
+                    ser.write(0);
+                }
+            } else if (proof instanceof GenesisScriptColorProof) {
+                GenesisScriptColorProof genesis = (GenesisScriptColorProof) proof;
+                ser.write(genesis.getIndex());
+                ser.writeWithLength(genesis.getTransaction().bitcoinSerialize());
+            } else if (proof instanceof TransferColorProof) {
+                TransferColorProof transfer = (TransferColorProof) proof;
+                ser.write(transfer.getIndex());
+                ser.writeWithLength(transfer.getTransaction().bitcoinSerialize());
+                PrevoutProofsMerbinnerTree prevouts = transfer.getPrevouts();
+                ser.write(prevouts.size());
+                for (TransactionOutPoint point : prevouts.keySet()) {
+                    ser.write(point.bitcoinSerialize());
+                    ser.write(prevouts.get(point).getHash().asBytes());
+                }
+            } else {
+                throw new IOException("unknown proof class " + proof.getClass());
+            }
+        } catch (SerializationException e) {
+            throw new IOException(e);
+        }
+        return ser.getBytes();
+    }
+
+    /** @return the definition, or null if not stored */
+    public synchronized ColorDefinition getDefinition(HashCode hash) throws IOException, SerializationException {
+        Object cached = cache.get(hash);
+        if (cached instanceof ColorDefinition) {
+            hitCount++;
+            return (ColorDefinition) cached;
+        }
+        Long offset = index.get(hash);
+        if (offset == null)
+            return null;
+        missCount++;
+        ByteBufferDeserializer des = new ByteBufferDeserializer(readBody(offset, KIND_DEFINITION));
+        Map<String, String> metadata = Maps.newHashMap();
+        int count = des.readVaruint();
+        for (int i = 0; i < count; i++) {
+            String key = new String(des.readBytes(), Charsets.UTF_8);
+            metadata.put(key, new String(des.readBytes(), Charsets.UTF_8));
+        }
+        ColorDefinition parsed = ColorDefinition.deserialize(params, des);
+        // Metadata is not part of the serialization, but the extra hash in it is part of the hash
+        ColorDefinition def = new ColorDefinition(params, parsed.getOutPointGenesisPoints(), parsed.getScriptGenesisPoints(),
+                metadata, parsed.getBlockheight(), parsed.getStegkey());
+        if (!def.getHash().equals(hash))
+            throw new SerializationException("definition hash mismatch " + hash);
+        cache.put(hash, def);
+        return def;
+    }
+
+    /**
+     * Load a proof and any of its history that is not cached.  The proofs are validated
+     * as they are rebuilt.
+     *
+     * @return the proof, or null if not stored
+     */
+    public synchronized ColorProof getProof(HashCode hash) throws IOException, SerializationException {
+        Object cached = cache.get(hash);
+        if (cached instanceof ColorProof) {
+            hitCount++;
+            return (ColorProof) cached;
+        }
+        if (!index.containsKey(hash))
+            return null;
+        missCount++;
+
+        // Iterative, because histories can be very deep
+        Map<HashCode, ColorProof> loaded = Maps.newHashMap();
+        Set<HashCode> expanded = Sets.newHashSet();
+        ArrayDeque<HashCode> stack = Queues.newArrayDeque();
+        stack.push(hash);
+        while (!stack.isEmpty()) {
+            HashCode current = stack.getFirst();
+            if (loaded.containsKey(current)) {
+                stack.pop();
+                continue;
+            }
+            Long offset = index.get(current);
+            if (offset == null)
+                throw new SerializationException("missing proof " + current);
+            ByteBuffer body = read(offset, HEADER_SIZE);
+            body.position(32);
+            int kind = body.get();
+            ByteBufferDeserializer des = new ByteBufferDeserializer(readBody(offset, kind));
+            ColorDefinition def = getDefinition(HashCode.fromBytes(des.readBytes(32)));
+            if (def == null)
+                throw new SerializationException("missing definition for " + current);
+
+            ColorProof proof;
+            try {
+                if (kind == GenesisOutPointColorProof.PROOF_TYPE) {
+                    proof = decodeGenesisOutPoint(des, def);
+                } else if (kind == GenesisScriptColorProof.PROOF_TYPE) {
+                    long outputIndex = des.readVarulong();
+                    proof = new GenesisScriptColorProof(def, readTransaction(des), outputIndex);
+                } else if (kind == TransferColorProof.PROOF_TYPE) {
+                    long outputIndex = des.readVarulong();
+                    ByteBuffer txBytes = des.readSlice();
+                    int count = des.readVaruint();
+                    Map<TransactionOutPoint, ColorProof> prevouts = Maps.newHashMap();
+                    boolean missing = false;
+                    for (int i = 0; i < count; i++) {
+                        TransactionOutPoint point = new TransactionOutPoint(params, des.readBytes(36), 0);
+                        HashCode prevoutHash = HashCode.fromBytes(des.readBytes(32));
+                        ColorProof prevout = loaded.get(prevoutHash);
+                        if (prevout == null && cache.get(prevoutHash) instanceof ColorProof)
+                            prevout = (ColorProof) cache.get(prevoutHash);
+                        if (prevout == null) {
+                            missing = true;
+                            stack.push(prevoutHash);
+                        } else {
+                            prevouts.put(point, prevout);
+                        }
+                    }
+                    if (missing) {
+                        // Come back once the prevouts are loaded
+                        if (!expanded.add(current))
+                            throw new SerializationException("cycle at proof " + current);
+                        continue;
+                    }
+                    proof = new TransferColorProof(def, parseTransaction(txBytes), outputIndex, prevouts);
+                } else {
+                    throw new SerializationException("unknown record kind " + kind);
+                }
+            } catch (RuntimeException e) {
+                // The constructors validate
+                throw new SerializationException(e);
+            }
+            if (!proof.getHash().equals(current))
+                throw new SerializationException("proof hash mismatch " + current);
+            loaded.put(current, proof);
+            cache.put(current, proof);
+            stack.pop();
+        }
+        return loaded.get(hash);
+    }
+
+    private ColorProof decodeGenesisOutPoint(ByteBufferDeserializer des, ColorDefinition def) throws SerializationException {
+        TransactionOutPoint point = new TransactionOutPoint(params, des.readBytes(36), 0);
+        if (des.readVaruint() == 1) {
+            long quantity = des.readVarulong();
+            return new GenesisOutPointColorProof(def, point, quantity, MerbinnerTree.Path.deserialize(des));
+        }
+        return new GenesisOutPointColorProof(def, point);
+    }
+
+    private Transaction readTransaction(ByteBufferDeserializer des) throws SerializationException {
+        return parseTransaction(des.readSlice());
+    }
+
+    private Transaction parseTransaction(ByteBuffer slice) throws SerializationException {
+        byte[] bytes = new byte[slice.remaining()];
+        slice.get(bytes);
+        try {
+            return new Transaction(params, bytes);
+        } catch (ProtocolException e) {
+            throw new SerializationException(e);
+        }
+    }
+
+    @VisibleForTesting
+    protected void append(HashCode hash, int kind, byte[] body) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + body.length);
+        record.put(hash.asBytes());
+        record.put((byte) kind);
+        record.putInt(body.length);
+        record.put(body);
+        record.flip();
+        long offset = length;
+        while (record.hasRemaining()) {
+            offset += channel.write(record, offset);
+        }
+        index.put(hash, length);
+        length = offset;
+    }
+
+    private ByteBuffer readBody(long offset, int expectedKind) throws IOException, SerializationException {
+        ByteBuffer header = read(offset, HEADER_SIZE);
+        header.position(32);
+        int kind = header.get();
+        if (kind != expectedKind)
+            throw new SerializationException("unexpected record kind " + kind);
+        return read(offset + HEADER_SIZE, header.getInt());
+    }
+
+    private byte[] readBytes(long offset, int size) throws IOException {
+        byte[] bytes = new byte[size];
+        read(offset, size).get(bytes);
+        return bytes;
+    }
+
+    private ByteBuffer read(long offset, int size) throws IOException {
+        if (offset + size > Integer.MAX_VALUE) {
+            // Beyond what a single mapping can address
+            ByteBuffer buf = ByteBuffer.allocate(size);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, offset + buf.position()) < 0)
+                    throw new IOException("short read");
+            }
+            buf.flip();
+            return buf;
+        }
+        if (mapped == null || offset + size > mapped.capacity())
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(length, Integer.MAX_VALUE));
+        ByteBuffer view = mapped.duplicate();
+        view.position((int) offset);
+        view.limit((int) offset + size);
+        return view.slice();
+    }
+
+    /** Force appended records to disk */
+    public synchronized void flush() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mapped = null;
+        cache.clear();
+        file.close();
+    }
+
+    /** The number of stored proofs and definitions */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("size", index.size())
+                .add("bytes", length)
+                .add("hits", hitCount)
+                .add("misses", missCount)
+                .toString();
+    }
+}
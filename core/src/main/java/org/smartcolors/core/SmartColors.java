@@ -17,9 +17,11 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
@@ -138,13 +140,24 @@ public class SmartColors {
     }
 
     public static ScheduledExecutorService makeSerializationService(final String name) {
-        return Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        return Executors.newSingleThreadScheduledExecutor(makeSerializationThreadFactory(name));
+    }
+
+    /** A pool of threads with the same stack size and context as {@link #makeSerializationService(String)} */
+    public static ExecutorService makeSerializationPool(final String name, int threads) {
+        return Executors.newFixedThreadPool(threads, makeSerializationThreadFactory(name));
+    }
+
+    private static ThreadFactory makeSerializationThreadFactory(final String name) {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
             @Override
             public Thread newThread(final Runnable r) {
                 final Context context = Context.get();
                 SecurityManager s = System.getSecurityManager();
                 ThreadGroup group = (s != null) ? s.getThreadGroup() :
                         Thread.currentThread().getThreadGroup();
+                int index = count.getAndIncrement();
                 Thread t = new Thread(group,
                         new Runnable() {
                             @Override
@@ -153,13 +166,13 @@ public class SmartColors {
                                 r.run();
                             }
                         },
-                        name,
+                        index == 0 ? name : name + " " + index,
                         SERIALIZATION_STACK_SIZE);
                 t.setDaemon(true);
                 t.setPriority(Thread.MIN_PRIORITY);
                 return t;
             }
-        });
+        };
     }
 
     private static class AssetMainNetParams extends MainNetParams {
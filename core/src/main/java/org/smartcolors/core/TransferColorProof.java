@@ -4,6 +4,7 @@ import com.google.common.base.Throwables;
 import com.google.common.hash.HashCode;
 import org.bitcoinj.core.ProtocolException;
 import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
 import org.bitcoinj.core.TransactionOutPoint;
 import org.smartcolors.marshal.*;
 
@@ -26,6 +27,7 @@ public class TransferColorProof extends ColorProof implements IterativeSerializa
 
     public TransferColorProof(ColorDefinition def, Transaction tx, long index, Map<TransactionOutPoint, ColorProof> nodes) {
         this.def = def;
+        this.params = def.getParams();
         this.tx = tx;
         this.index = index;
         this.prevouts = new PrevoutProofsMerbinnerTree(params, nodes);
@@ -118,17 +120,19 @@ public class TransferColorProof extends ColorProof implements IterativeSerializa
     }
 
     private long calcQuantity() {
-        Long[] colorIns = new Long[tx.getInputs().size()];
-        for (int i = 0; i < colorIns.length; i++) {
-            ColorProof proof = prevouts.get(tx.getInput(i).getOutpoint());
+        long[] colorOuts = new long[ColorDefinition.MAX_COLOR_OUTPUTS];
+        int colored = 0;
+        int numInputs = tx.getInputs().size();
+        for (int i = 0; i < numInputs; i++) {
+            TransactionInput input = tx.getInput(i);
+            ColorProof proof = prevouts.get(input.getOutpoint());
             if (proof != null)
-                colorIns[i] = proof.quantity;
+                colored = def.applyColorTransferred(input, proof.quantity, colorOuts, colored, tx);
         }
 
-        Long[] colorOuts = def.applyKernel(tx, colorIns);
-        if (index < 0 || index >= colorOuts.length)
+        if (index < 0 || index >= tx.getOutputs().size())
             return 0; // FIXME exception instead?
-        if (colorOuts[(int) index] == null)
+        if (index >= ColorDefinition.MAX_COLOR_OUTPUTS || ((colored >>> index) & 1) == 0)
             return 0; // FIXME
         return colorOuts[(int) index];
     }
@@ -151,6 +155,17 @@ public class TransferColorProof extends ColorProof implements IterativeSerializa
         }
     }
 
+    PrevoutProofsMerbinnerTree getPrevouts() {
+        return prevouts;
+    }
+
+    @Override
+    protected void addPrevious(Queue<ColorProof> queue) {
+        for (TransactionOutPoint outPoint : prevouts.keySet()) {
+            queue.add(prevouts.get(outPoint));
+        }
+    }
+
     @Override
     public String toString() {
         return super.toStringHelper()
@@ -175,6 +190,6 @@ public class TransferColorProof extends ColorProof implements IterativeSerializa
     @Override
     public void serialize(Serializer ser, Deque<SerializationState> stack) throws SerializationException {
         serializeSelf(ser);
-        stack.push(new SerializationState(prevouts, null, 0));
+        stack.push(new SerializationState(prevouts));
     }
 }
@@ -0,0 +1,107 @@
+package org.smartcolors.core;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Bounded LRU set of proofs that passed validation, keyed by definition hash, proof hash and quantity.
+ * <p/>
+ * <p>A proof hash commits to the whole proof graph below it, so a proof with a cached key
+ * doesn't need to be validated again, nor does any of its history.  The quantity is part of the
+ * key as well, so that a proof claiming another quantity for a validated outpoint is always
+ * checked, whatever its hash covers.</p>
+ */
+public class ValidatedProofCache {
+    public static final int DEFAULT_MAX_SIZE = 100000;
+
+    private final int maxSize;
+    private final LinkedHashMap<Key, Boolean> entries;
+
+    public ValidatedProofCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public ValidatedProofCache(int maxSize) {
+        checkArgument(maxSize > 0);
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<Key, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Boolean> eldest) {
+                return size() > ValidatedProofCache.this.maxSize;
+            }
+        };
+    }
+
+    /** What a proof is validated as - the proof and its history, for the definition, with the quantity */
+    static class Key {
+        final HashCode definitionHash;
+        final HashCode proofHash;
+        final long quantity;
+
+        Key(ColorProof proof) {
+            this.definitionHash = proof.getDefinition().getHash();
+            this.proofHash = proof.getHash();
+            this.quantity = proof.getQuantity();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return quantity == other.quantity && proofHash.equals(other.proofHash) && definitionHash.equals(other.definitionHash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(definitionHash, proofHash, quantity);
+        }
+    }
+
+    public synchronized boolean contains(ColorProof proof) {
+        return entries.containsKey(new Key(proof));
+    }
+
+    public synchronized void add(ColorProof proof) {
+        entries.put(new Key(proof), Boolean.TRUE);
+    }
+
+    public synchronized void addAll(Collection<? extends ColorProof> proofs) {
+        for (ColorProof proof : proofs) {
+            entries.put(new Key(proof), Boolean.TRUE);
+        }
+    }
+
+    /** Drop all proofs of a definition */
+    public synchronized void invalidate(ColorDefinition definition) {
+        HashCode definitionHash = definition.getHash();
+        for (Key key : Lists.newArrayList(entries.keySet())) {
+            if (key.definitionHash.equals(definitionHash))
+                entries.remove(key);
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("size", entries.size())
+                .add("maxSize", maxSize)
+                .toString();
+    }
+}
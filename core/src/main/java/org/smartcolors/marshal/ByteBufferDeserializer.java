@@ -0,0 +1,100 @@
+package org.smartcolors.marshal;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Deserializer over a heap, direct or memory-mapped {@link ByteBuffer}.
+ * <p/>
+ * <p>Reads from the buffer's position to its limit, without changing the caller's buffer.  Varints are
+ * decoded directly from the buffer, and {@link #readSlice()} gives a view of a field instead of a copy.</p>
+ */
+public class ByteBufferDeserializer implements Deserializer {
+    protected final ByteBuffer buf;
+
+    public ByteBufferDeserializer(ByteBuffer buf) {
+        this.buf = buf.slice();
+    }
+
+    @Override
+    public long readVarulong() throws SerializationException {
+        long value = 0;
+        int shift = 0;
+        try {
+            while (true) {
+                int b = buf.get();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+                shift += 7;
+                if (shift > 63)
+                    throw new SerializationException("varint too long");
+            }
+        } catch (BufferUnderflowException e) {
+            throw new SerializationException("short read");
+        }
+    }
+
+    @Override
+    public int readVaruint() throws SerializationException {
+        long value = readVarulong();
+        if (value > Integer.MAX_VALUE || value < 0)
+            throw new SerializationException("invalid int " + value);
+        return (int) value;
+    }
+
+    @Override
+    public byte[] readBytes(int expectedLength) throws SerializationException {
+        if (expectedLength < 0 || buf.remaining() < expectedLength)
+            throw new SerializationException("short read");
+        byte[] bytes = new byte[expectedLength];
+        buf.get(bytes);
+        return bytes;
+    }
+
+    @Override
+    public byte[] readBytes() throws SerializationException {
+        return readBytes(readLength());
+    }
+
+    /** Read a length-prefixed field as a read-only view of the underlying buffer */
+    public ByteBuffer readSlice() throws SerializationException {
+        return readSlice(readLength());
+    }
+
+    /** Read a fixed length field as a read-only view of the underlying buffer */
+    public ByteBuffer readSlice(int length) throws SerializationException {
+        if (length < 0 || buf.remaining() < length)
+            throw new SerializationException("short read");
+        ByteBuffer slice = buf.slice();
+        slice.limit(length);
+        buf.position(buf.position() + length);
+        return slice.asReadOnlyBuffer();
+    }
+
+    private int readLength() throws SerializationException {
+        long length = readVarulong();
+        if (length > StreamDeserializer.MAX_BYTES || length < 0)
+            throw new SerializationException("bytes longer than max");
+        return (int) length;
+    }
+
+    /** The number of bytes left to read */
+    public int remaining() {
+        return buf.remaining();
+    }
+
+    @Override
+    public <T> T readObjectHeader() throws SerializationException {
+        return null;
+    }
+
+    @Override
+    public <T> T readObject(ObjectReader<T> reader) throws SerializationException {
+        return reader.readObject(this);
+    }
+
+    @Override
+    public <T> void afterReadObject(T obj) throws SerializationException {
+    }
+}
@@ -1,12 +1,12 @@
 package org.smartcolors.marshal;
 
-import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Created by devrandom on 2014-Nov-17.
  */
-public class BytesDeserializer extends StreamDeserializer {
+public class BytesDeserializer extends ByteBufferDeserializer {
     public BytesDeserializer(byte[] bytes) {
-        super(new ByteArrayInputStream(bytes));
+        super(ByteBuffer.wrap(bytes));
     }
 }
@@ -1,6 +1,7 @@
 package org.smartcolors.marshal;
 
 import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 
 /**
  * Created by devrandom on 2014-Nov-17.
@@ -10,6 +11,10 @@ public class BytesSerializer extends StreamSerializer {
         super(new ByteArrayOutputStream());
     }
 
+    protected BytesSerializer(OutputStream os) {
+        super(os);
+    }
+
     public byte[] getBytes() {
         return ((ByteArrayOutputStream) os).toByteArray();
     }
@@ -3,6 +3,11 @@ package org.smartcolors.marshal;
 import com.google.common.hash.HashCode;
 import org.bitcoinj.core.Utils;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 
 import static com.google.common.base.Preconditions.checkState;
@@ -15,15 +20,16 @@ public abstract class FileSerializer {
     public static final int VERSION = 0;
 
     public void write(MemoizedSerializer ser, Serializable obj) throws SerializationException {
+        // Hash first, so that sub-objects have cached hashes for the memo table
+        byte[] hash = obj.getHash().asBytes();
+        checkState(hash.length == 32);
         ser.write(getMagic());
         ser.write(new byte[]{VERSION});
         ser.write(obj);
-        byte[] hash = obj.getHash().asBytes();
-        checkState(hash.length == 32);
         ser.write(hash);
     }
 
-    public void readHeader(MemoizedDeserializer des) throws SerializationException {
+    public void readHeader(Deserializer des) throws SerializationException {
         byte[] expectedMagic = getMagic();
         byte[] magic = des.readBytes(expectedMagic.length);
         if (!Arrays.equals(expectedMagic, magic))
@@ -33,7 +39,7 @@ public abstract class FileSerializer {
             throw new SerializationException("wrong version " + version);
     }
 
-    public void verifyHash(MemoizedDeserializer des, Serializable obj) throws SerializationException {
+    public void verifyHash(Deserializer des, Serializable obj) throws SerializationException {
         HashCode hash = obj.getHash();
         byte[] expectedHash = des.readBytes(32);
         if (!hash.equals(HashCode.fromBytes(expectedHash)))
@@ -41,4 +47,15 @@ public abstract class FileSerializer {
     }
 
     protected abstract byte[] getMagic();
+
+    /** Memory-map a file for reading with {@link MemoizedByteBufferDeserializer} */
+    public static ByteBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // The mapping stays valid after the channel is closed
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+    }
 }
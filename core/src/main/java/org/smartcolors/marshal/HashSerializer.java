@@ -1,19 +1,44 @@
 package org.smartcolors.marshal;
 
-import com.google.common.base.Throwables;
 import com.google.common.collect.Queues;
 import com.google.common.hash.HashCode;
 
 import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.io.OutputStream;
 import java.util.ArrayDeque;
 
+import static com.google.common.base.Preconditions.checkState;
+
 /**
  * Created by devrandom on 2014-Nov-17.
+ * <p/>
+ * <p>Either buffers the serialization for {@link #calcHash(BytesSerializer, byte[])}, or, if constructed
+ * with the HMAC key, streams it straight into the MAC through a small fixed buffer.  The
+ * streaming form needs constant memory and is finished with {@link #getHash()}.</p>
  */
 public class HashSerializer extends BytesSerializer {
+    private static final int BUFFER_SIZE = 256;
+
+    private final byte[] hmacKey;
+    private final MacOutputStream macStream;
+
+    /** Buffer the serialization, to be hashed with {@link #calcHash(BytesSerializer, byte[])} */
+    public HashSerializer() {
+        this.hmacKey = null;
+        this.macStream = null;
+    }
+
+    /** Stream the serialization into an HMAC with the key */
+    public HashSerializer(byte[] hmacKey) {
+        this(hmacKey, new MacOutputStream(Hmacs.acquire(hmacKey)));
+    }
+
+    private HashSerializer(byte[] hmacKey, MacOutputStream macStream) {
+        super(macStream);
+        this.hmacKey = hmacKey;
+        this.macStream = macStream;
+    }
+
     @Override
     public void write(Serializable obj) throws SerializationException {
         if (obj instanceof IterativeSerializable) {
@@ -21,11 +46,13 @@ public class HashSerializer extends BytesSerializer {
             // Switch to iterative serialization
             ArrayDeque<SerializationState> stack = Queues.newArrayDeque();
             IterativeSerializable tree = (IterativeSerializable) obj;
-            stack.push(new SerializationState(tree, null, 0));
+            stack.push(new SerializationState(tree));
             while (!stack.isEmpty()) {
                 SerializationState state = stack.getFirst();
                 if (state.isDone) {
-                    if (state.serializable instanceof HashableSerializable) {
+                    // Only hash whole objects - everything below them is hashed by now, so this doesn't recurse.
+                    // Subtree states of a tree would hash the entire tree before its later proofs.
+                    if (state.keys == null && state.serializable instanceof HashableSerializable) {
                         ((HashableSerializable) state.serializable).getHash();
                     }
                     stack.pop();
@@ -43,35 +70,75 @@ public class HashSerializer extends BytesSerializer {
         write(helper.getHash(obj).asBytes());
     }
 
+    @Override
+    public byte[] getBytes() {
+        checkState(macStream == null, "streaming hash serializer has no bytes");
+        return super.getBytes();
+    }
+
+    /** Finish a streaming hash.  The serializer can't be used afterwards. */
+    public HashCode getHash() {
+        checkState(macStream != null, "not a streaming hash serializer");
+        Mac mac = macStream.finish();
+        HashCode hash = HashCode.fromBytes(mac.doFinal());
+        Hmacs.release(hmacKey, mac);
+        return hash;
+    }
+
     public static HashCode calcHash(BytesSerializer serializer, byte[] hmacKey) {
-        Mac hmac = null;
-        try {
-            hmac = Mac.getInstance("HmacSHA256");
-        } catch (NoSuchAlgorithmException e) {
-            Throwables.propagate(e);
-        }
-        SecretKeySpec macKey = new SecretKeySpec(hmacKey, "RAW");
-        try {
-            hmac.init(macKey);
-        } catch (InvalidKeyException e) {
-            Throwables.propagate(e);
-        }
-        return HashCode.fromBytes(hmac.doFinal(serializer.getBytes()));
+        if (serializer instanceof HashSerializer && ((HashSerializer) serializer).macStream != null)
+            return ((HashSerializer) serializer).getHash();
+        return calcHash(serializer.getBytes(), hmacKey);
     }
 
     public static HashCode calcHash(byte[] content, byte[] hmacKey) {
-        Mac hmac = null;
-        try {
-            hmac = Mac.getInstance("HmacSHA256");
-        } catch (NoSuchAlgorithmException e) {
-            Throwables.propagate(e);
+        return HashCode.fromBytes(Hmacs.calc(content, hmacKey));
+    }
+
+    private static class MacOutputStream extends OutputStream {
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int count;
+        private Mac mac;
+
+        MacOutputStream(Mac mac) {
+            this.mac = mac;
+        }
+
+        @Override
+        public void write(int b) {
+            checkState(mac != null, "finished");
+            if (count == buffer.length)
+                drain();
+            buffer[count++] = (byte) b;
         }
-        SecretKeySpec macKey = new SecretKeySpec(hmacKey, "RAW");
-        try {
-            hmac.init(macKey);
-        } catch (InvalidKeyException e) {
-            Throwables.propagate(e);
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            checkState(mac != null, "finished");
+            if (length >= buffer.length) {
+                drain();
+                mac.update(bytes, offset, length);
+                return;
+            }
+            if (length > buffer.length - count)
+                drain();
+            System.arraycopy(bytes, offset, buffer, count, length);
+            count += length;
+        }
+
+        private void drain() {
+            if (count > 0) {
+                mac.update(buffer, 0, count);
+                count = 0;
+            }
+        }
+
+        Mac finish() {
+            checkState(mac != null, "finished");
+            drain();
+            Mac result = mac;
+            mac = null;
+            return result;
         }
-        return HashCode.fromBytes(hmac.doFinal(content));
     }
 }
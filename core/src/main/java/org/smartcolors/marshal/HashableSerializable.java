@@ -14,16 +14,27 @@ public abstract class HashableSerializable implements Serializable {
     public HashCode getHash() {
         if (cachedHash != null)
             return cachedHash;
-        HashSerializer serializer = new HashSerializer();
+        HashSerializer serializer = new HashSerializer(getHmacKey());
         try {
             serialize(serializer);
         } catch (SerializationException e) {
             Throwables.propagate(e);
         }
-        cachedHash = HashSerializer.calcHash(serializer, getHmacKey());
+        cachedHash = serializer.getHash();
         return cachedHash;
     }
 
+    /** The hash if it was already calculated, otherwise null */
+    @JsonIgnore
+    public HashCode getCachedHash() {
+        return cachedHash;
+    }
+
+    /** Forget the cached hash after a mutation */
+    protected void invalidateHash() {
+        cachedHash = null;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (!(obj instanceof HashableSerializable))
@@ -0,0 +1,79 @@
+package org.smartcolors.marshal;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Queues;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Map;
+
+/**
+ * Per-thread HmacSHA256 engines, initialized once for each key.
+ * <p/>
+ * <p>The provider lookup and key schedule are paid the first time a thread uses a key.  After that
+ * an engine is taken with {@link #acquire(byte[])} and handed back with {@link #release(byte[], Mac)}.
+ * Several engines for the same key may be in use at once on a thread, for nested hashing.</p>
+ */
+public class Hmacs {
+    public static final String ALGORITHM = "HmacSHA256";
+
+    private static final ThreadLocal<Map<ByteBuffer, ArrayDeque<Mac>>> pools = new ThreadLocal<Map<ByteBuffer, ArrayDeque<Mac>>>() {
+        @Override
+        protected Map<ByteBuffer, ArrayDeque<Mac>> initialValue() {
+            return Maps.newHashMap();
+        }
+    };
+
+    /** Get an initialized engine for the key.  It must be reset (e.g. by doFinal) before it is released. */
+    public static Mac acquire(byte[] hmacKey) {
+        ArrayDeque<Mac> pool = pools.get().get(ByteBuffer.wrap(hmacKey));
+        if (pool != null && !pool.isEmpty())
+            return pool.pop();
+        return create(hmacKey);
+    }
+
+    /** Return an engine to the calling thread's pool */
+    public static void release(byte[] hmacKey, Mac mac) {
+        Map<ByteBuffer, ArrayDeque<Mac>> map = pools.get();
+        ByteBuffer key = ByteBuffer.wrap(hmacKey);
+        ArrayDeque<Mac> pool = map.get(key);
+        if (pool == null) {
+            pool = Queues.newArrayDeque();
+            // Callers may reuse their array
+            map.put(ByteBuffer.wrap(hmacKey.clone()), pool);
+        }
+        pool.push(mac);
+    }
+
+    /** HMAC of the content, with a cached engine */
+    public static byte[] calc(byte[] content, byte[] hmacKey) {
+        Mac mac = acquire(hmacKey);
+        try {
+            return mac.doFinal(content);
+        } finally {
+            release(hmacKey, mac);
+        }
+    }
+
+    /** A new engine, bypassing the cache */
+    public static Mac create(byte[] hmacKey) {
+        Mac hmac = null;
+        try {
+            hmac = Mac.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            Throwables.propagate(e);
+        }
+        SecretKeySpec macKey = new SecretKeySpec(hmacKey, "RAW");
+        try {
+            hmac.init(macKey);
+        } catch (InvalidKeyException e) {
+            Throwables.propagate(e);
+        }
+        return hmac;
+    }
+}
@@ -0,0 +1,27 @@
+package org.smartcolors.marshal;
+
+import com.google.common.collect.Lists;
+
+import java.util.List;
+
+/**
+ * Objects already read by a memoizing deserializer, referred to by one-based index
+ */
+class MemoTable {
+    private final List<Object> memos = Lists.newArrayList();
+
+    /** @return the object, or null if idx is zero and the object follows inline */
+    @SuppressWarnings("unchecked")
+    <T> T get(long idx) throws SerializationException {
+        if (idx > 0) {
+            if (idx - 1 >= memos.size())
+                throw new SerializationException("invalid index " + idx + " only have " + memos.size());
+            return (T) memos.get((int) idx - 1);
+        }
+        return null;
+    }
+
+    void add(Object obj) {
+        memos.add(obj);
+    }
+}
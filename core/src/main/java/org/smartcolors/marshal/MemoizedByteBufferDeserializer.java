@@ -0,0 +1,34 @@
+package org.smartcolors.marshal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link MemoizedDeserializer} over a {@link ByteBuffer}, e.g. a memory-mapped file
+ */
+public class MemoizedByteBufferDeserializer extends ByteBufferDeserializer {
+    final MemoTable memos = new MemoTable();
+
+    public MemoizedByteBufferDeserializer(ByteBuffer buf) {
+        super(buf);
+    }
+
+    @Override
+    public <T> T readObjectHeader() throws SerializationException {
+        return memos.get(readVarulong());
+    }
+
+    @Override
+    public <T> void afterReadObject(T obj) throws SerializationException {
+        memos.add(obj);
+    }
+
+    @Override
+    public <T> T readObject(ObjectReader<T> reader) throws SerializationException {
+        T obj = memos.get(readVarulong());
+        if (obj == null) {
+            obj = reader.readObject(this);
+            memos.add(obj);
+        }
+        return obj;
+    }
+}
@@ -4,43 +4,89 @@ import com.google.common.collect.Maps;
 import com.google.common.hash.HashCode;
 
 import java.io.OutputStream;
+import java.util.IdentityHashMap;
 import java.util.Map;
 
 /**
  * Created by devrandom on 2014-Nov-19.
+ * <p/>
+ * <p>Objects already written are looked up by identity first, and then by content hash.  If
+ * cached hashes are trusted, content hashes are only used when the object already has one,
+ * so that writing never hashes anything.  Duplicates that are neither the same instance nor
+ * already hashed are then written twice, which is still read back correctly.</p>
  */
 public class MemoizedSerializer extends StreamSerializer {
     Map<HashCode, Long> memos = Maps.newHashMap();
+    private final IdentityHashMap<Object, Long> identityMemos = new IdentityHashMap<Object, Long>();
+    private final boolean trustCachedHashes;
+    private long count;
 
     public MemoizedSerializer(OutputStream os) {
+        this(os, false);
+    }
+
+    /**
+     * @param trustCachedHashes if true, don't calculate content hashes just for deduplication
+     */
+    public MemoizedSerializer(OutputStream os, boolean trustCachedHashes) {
         super(os);
+        this.trustCachedHashes = trustCachedHashes;
     }
 
     @Override
     public void write(Serializable obj) throws SerializationException {
-        HashCode hash = obj.getHash();
-        Long idx = memos.get(hash);
-        if (idx != null)
-            write(idx);
-        else {
-            write(0);
-            super.write(obj);
-            idx = memos.size() + 1L;
-            memos.put(hash, idx);
-        }
+        if (writeReference(obj))
+            return;
+        HashCode hash;
+        if (!trustCachedHashes)
+            hash = obj.getHash();
+        else if (obj instanceof HashableSerializable)
+            hash = ((HashableSerializable) obj).getCachedHash();
+        else
+            hash = null;
+        if (writeReference(obj, hash))
+            return;
+        write(0);
+        super.write(obj);
+        remember(obj, hash);
     }
 
     @Override
     public void write(Object obj, SerializerHelper helper) throws SerializationException {
-        HashCode hash = helper.getHash(obj);
+        if (writeReference(obj))
+            return;
+        HashCode hash = trustCachedHashes ? null : helper.getHash(obj);
+        if (writeReference(obj, hash))
+            return;
+        write(0);
+        super.write(obj, helper);
+        remember(obj, hash);
+    }
+
+    private boolean writeReference(Object obj) throws SerializationException {
+        Long idx = identityMemos.get(obj);
+        if (idx == null)
+            return false;
+        write(idx);
+        return true;
+    }
+
+    private boolean writeReference(Object obj, HashCode hash) throws SerializationException {
+        if (hash == null)
+            return false;
         Long idx = memos.get(hash);
-        if (idx != null)
-            write(idx);
-        else {
-            write(0);
-            super.write(obj, helper);
-            idx = memos.size() + 1L;
+        if (idx == null)
+            return false;
+        identityMemos.put(obj, idx);
+        write(idx);
+        return true;
+    }
+
+    // Indexes are assigned after the object is written, the same as the reader does
+    private void remember(Object obj, HashCode hash) {
+        Long idx = ++count;
+        identityMemos.put(obj, idx);
+        if (hash != null)
             memos.put(hash, idx);
-        }
     }
 }
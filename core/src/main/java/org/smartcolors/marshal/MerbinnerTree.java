@@ -1,17 +1,32 @@
 package org.smartcolors.marshal;
 
-import com.google.common.collect.Sets;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
 import com.google.common.hash.HashCode;
+import com.google.common.primitives.UnsignedBytes;
 
-import java.util.Collection;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 
 /**
  * Created by devrandom on 2014-Nov-17.
  */
 public abstract class MerbinnerTree<K, V> extends HashableSerializable {
+    // Key hashes are 256 bits
+    public static final int MAX_PATH_DEPTH = 256;
+
+    /** The entries.  Subclasses that modify this directly must call {@link #invalidateNodes()}. */
     protected Map<K, V> entries;
+    // Explicit tree with cached subtree hashes and sums, built lazily from entries.  Null if not built or empty.
+    private Node<K> root;
+    private boolean nodesValid;
+    // Root commitment of a pruned tree, which has no entries
+    private HashCode prunedHash;
+    private long prunedSum;
+    // Objects whose hash commits to this tree, told of every change
+    private final List<HashableSerializable> owners = Lists.newArrayListWithCapacity(1);
 
     public MerbinnerTree(Map<K, V> entries) {
         this.entries = entries;
@@ -20,6 +35,14 @@ public abstract class MerbinnerTree<K, V> extends HashableSerializable {
     public MerbinnerTree() {
     }
 
+    /**
+     * Have the cached hash of an object that commits to this tree dropped whenever the tree changes,
+     * so that changes made through the tree itself are seen by the owner.
+     */
+    public synchronized void addOwner(HashableSerializable owner) {
+        owners.add(owner);
+    }
+
     public V get(K key) {
         return entries.get(key);
     }
@@ -45,49 +68,469 @@ public abstract class MerbinnerTree<K, V> extends HashableSerializable {
         return entries.values();
     }
 
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Add or replace an entry.  Only the subtree hashes on the path to the root are recomputed
+     * on the next {@link #getHash()}.
+     *
+     * @return the previous value, if any
+     */
+    public synchronized V put(K key, V value) {
+        checkState(!isPruned(), "pruned");
+        V old = entries.put(key, value);
+        if (nodesValid)
+            root = insert(root, key, getKeyHash(key).asBytes(), 0);
+        invalidateOwners();
+        return old;
+    }
+
+    /**
+     * Remove an entry.  Only the subtree hashes on the path to the root are recomputed
+     * on the next {@link #getHash()}.
+     *
+     * @return the removed value, if any
+     */
+    public synchronized V remove(K key) {
+        checkState(!isPruned(), "pruned");
+        if (!entries.containsKey(key))
+            return null;
+        V old = entries.remove(key);
+        if (nodesValid)
+            root = remove(root, key, getKeyHash(key).asBytes(), 0);
+        invalidateOwners();
+        return old;
+    }
+
+    /** Discard the node structure after modifying {@link #entries} directly */
+    protected synchronized void invalidateNodes() {
+        root = null;
+        nodesValid = false;
+        invalidateOwners();
+    }
+
+    private void invalidateOwners() {
+        for (HashableSerializable owner : owners) {
+            owner.invalidateHash();
+        }
+    }
+
+    /**
+     * Replace the entries with a commitment to the root hash and sum.  Membership in a pruned tree
+     * can only be checked with a {@link Path} obtained from the full tree.
+     */
+    public synchronized void setCommitment(HashCode hash, long sum) {
+        if (entries != null)
+            entries.clear();
+        invalidateNodes();
+        prunedHash = hash;
+        prunedSum = sum;
+    }
+
+    public synchronized boolean isPruned() {
+        return prunedHash != null;
+    }
+
+    public void serializeCommitment(Serializer ser) throws SerializationException {
+        ser.write(getHash().asBytes());
+        ser.write(getSum());
+    }
+
+    public void deserializeCommitment(Deserializer des) throws SerializationException {
+        HashCode hash = HashCode.fromBytes(des.readBytes(32));
+        setCommitment(hash, des.readVarulong());
+    }
+
     @Override
-    public void serialize(final Serializer ser) throws SerializationException {
-        serialize(ser, entries.keySet(), 0);
+    public synchronized HashCode getHash() {
+        if (prunedHash != null)
+            return prunedHash;
+        try {
+            return hashOf(getRoot());
+        } catch (SerializationException e) {
+            throw Throwables.propagate(e);
+        }
     }
 
-    private long serialize(Serializer ser, Collection<K> keys, int depth) throws SerializationException {
-        if (keys.isEmpty()) {
+    @Override
+    public synchronized HashCode getCachedHash() {
+        if (prunedHash != null)
+            return prunedHash;
+        return nodesValid && root != null ? root.hash : null;
+    }
+
+    /** Sum of the values, as committed to by the hash */
+    public synchronized long getSum() {
+        if (prunedHash != null)
+            return prunedSum;
+        Node<K> node = getRoot();
+        try {
+            hashOf(node);
+        } catch (SerializationException e) {
+            throw Throwables.propagate(e);
+        }
+        return sumOf(node);
+    }
+
+    @Override
+    public synchronized void serialize(final Serializer ser) throws SerializationException {
+        if (prunedHash != null)
+            throw new SerializationException("cannot serialize a pruned tree");
+        serialize(ser, getRoot());
+    }
+
+    /**
+     * The authentication path of an entry, which proves membership against the root hash
+     * without the rest of the tree.
+     *
+     * @return the path, or null if the key is not in the tree
+     */
+    public synchronized Path getPath(K key) {
+        if (prunedHash != null || !entries.containsKey(key))
+            return null;
+        byte[] keyHash = getKeyHash(key).asBytes();
+        List<HashCode> hashes = Lists.newArrayList();
+        List<Long> sums = Lists.newArrayList();
+        try {
+            Node<K> node = getRoot();
+            // Make sure all sums are current
+            hashOf(node);
+            int depth = 0;
+            while (!node.isLeaf()) {
+                Node<K> sibling;
+                if (SortedKeys.isBitSet(keyHash, depth)) {
+                    sibling = node.right;
+                    node = node.left;
+                } else {
+                    sibling = node.left;
+                    node = node.right;
+                }
+                hashes.add(hashOf(sibling));
+                sums.add(sumOf(sibling));
+                depth++;
+            }
+        } catch (SerializationException e) {
+            throw Throwables.propagate(e);
+        }
+        return new Path(hashes, sums);
+    }
+
+    /** Calculate the root hash implied by an entry and its authentication path */
+    public HashCode calcRootHash(K key, V value, Path path) throws SerializationException {
+        byte[] keyHash = getKeyHash(key).asBytes();
+        checkArgument(path.getDepth() <= keyHash.length * 8, "path too long");
+        HashSerializer ser = new HashSerializer(getHmacKey());
+        ser.write(1);
+        serializeKey(ser, key);
+        serializeValue(ser, value);
+        HashCode hash = ser.getHash();
+        long sum = getSum(value);
+        for (int depth = path.getDepth() - 1; depth >= 0; depth--) {
+            ser = new HashSerializer(getHmacKey());
+            ser.write(2);
+            if (SortedKeys.isBitSet(keyHash, depth)) {
+                ser.write(hash.asBytes());
+                serializeSum(ser, sum);
+                ser.write(path.getHash(depth).asBytes());
+                serializeSum(ser, path.getSum(depth));
+            } else {
+                ser.write(path.getHash(depth).asBytes());
+                serializeSum(ser, path.getSum(depth));
+                ser.write(hash.asBytes());
+                serializeSum(ser, sum);
+            }
+            hash = ser.getHash();
+            sum = doSum(sum, path.getSum(depth));
+        }
+        return hash;
+    }
+
+    /** Check that the entry is in the tree, which may be pruned */
+    public boolean verify(K key, V value, Path path) throws SerializationException {
+        if (path.getDepth() > getKeyHash(key).bits())
+            return false;
+        return calcRootHash(key, value, path).equals(getHash());
+    }
+
+    /**
+     * Authentication path of an entry - the sibling hashes and sums from the root down to the leaf
+     */
+    public static class Path {
+        private final List<HashCode> hashes;
+        private final List<Long> sums;
+
+        public Path(List<HashCode> hashes, List<Long> sums) {
+            checkArgument(hashes.size() == sums.size());
+            this.hashes = hashes;
+            this.sums = sums;
+        }
+
+        public int getDepth() {
+            return hashes.size();
+        }
+
+        /** The hash of the sibling at the depth */
+        public HashCode getHash(int depth) {
+            return hashes.get(depth);
+        }
+
+        /** The sum of the sibling at the depth */
+        public long getSum(int depth) {
+            return sums.get(depth);
+        }
+
+        public void serialize(Serializer ser) throws SerializationException {
+            ser.write(hashes.size());
+            for (int i = 0; i < hashes.size(); i++) {
+                ser.write(hashes.get(i).asBytes());
+                ser.write(sums.get(i));
+            }
+        }
+
+        public static Path deserialize(Deserializer des) throws SerializationException {
+            int depth = des.readVaruint();
+            if (depth > MAX_PATH_DEPTH)
+                throw new SerializationException("path too long " + depth);
+            List<HashCode> hashes = Lists.newArrayListWithCapacity(depth);
+            List<Long> sums = Lists.newArrayListWithCapacity(depth);
+            for (int i = 0; i < depth; i++) {
+                hashes.add(HashCode.fromBytes(des.readBytes(32)));
+                sums.add(des.readVarulong());
+            }
+            return new Path(hashes, sums);
+        }
+
+        @Override
+        public String toString() {
+            return "Path[" + hashes.size() + "]";
+        }
+    }
+
+    private Node<K> getRoot() {
+        if (!nodesValid) {
+            SortedKeys<K> keys = sortKeys(entries.keySet());
+            root = build(keys, 0, keys.size(), 0);
+            nodesValid = true;
+        }
+        return root;
+    }
+
+    /**
+     * A node of the tree.  Leaves hold a key, inner nodes hold at least two keys.  Null stands
+     * for an empty subtree.
+     */
+    private static class Node<K> {
+        // Leaf
+        K key;
+        byte[] keyHash;
+        // Inner
+        Node<K> left;
+        Node<K> right;
+
+        int count;
+        // Null if stale
+        HashCode hash;
+        long sum;
+
+        static <K> Node<K> leaf(K key, byte[] keyHash) {
+            Node<K> node = new Node<K>();
+            node.key = key;
+            node.keyHash = keyHash;
+            node.count = 1;
+            return node;
+        }
+
+        boolean isLeaf() {
+            return keyHash != null;
+        }
+
+        void update() {
+            count = countOf(left) + countOf(right);
+            hash = null;
+        }
+    }
+
+    private static int countOf(Node<?> node) {
+        return node == null ? 0 : node.count;
+    }
+
+    private static long sumOf(Node<?> node) {
+        return node == null ? 0 : node.sum;
+    }
+
+    private Node<K> build(SortedKeys<K> keys, int from, int to, int depth) {
+        if (from == to)
+            return null;
+        if (to - from == 1)
+            return Node.leaf(keys.get(from), keys.getHash(from));
+        int split = keys.split(from, to, depth);
+        Node<K> node = new Node<K>();
+        node.left = build(keys, split, to, depth + 1);
+        node.right = build(keys, from, split, depth + 1);
+        node.update();
+        return node;
+    }
+
+    private Node<K> insert(Node<K> node, K key, byte[] keyHash, int depth) {
+        if (node == null)
+            return Node.leaf(key, keyHash);
+        if (node.isLeaf()) {
+            if (node.key.equals(key)) {
+                node.hash = null;
+                return node;
+            }
+            // Two keys here now, so push the existing leaf down a level
+            Node<K> inner = new Node<K>();
+            if (SortedKeys.isBitSet(node.keyHash, depth))
+                inner.left = node;
+            else
+                inner.right = node;
+            node = inner;
+        }
+        if (SortedKeys.isBitSet(keyHash, depth))
+            node.left = insert(node.left, key, keyHash, depth + 1);
+        else
+            node.right = insert(node.right, key, keyHash, depth + 1);
+        node.update();
+        return node;
+    }
+
+    private Node<K> remove(Node<K> node, K key, byte[] keyHash, int depth) {
+        if (node == null)
+            return null;
+        if (node.isLeaf())
+            return node.key.equals(key) ? null : node;
+        if (SortedKeys.isBitSet(keyHash, depth))
+            node.left = remove(node.left, key, keyHash, depth + 1);
+        else
+            node.right = remove(node.right, key, keyHash, depth + 1);
+        node.update();
+        // Inner nodes hold at least two keys, so a single remaining key is a leaf and moves up
+        if (node.count == 0)
+            return null;
+        if (node.count == 1)
+            return node.left != null ? node.left : node.right;
+        return node;
+    }
+
+    private HashCode hashOf(Node<K> node) throws SerializationException {
+        if (node != null && node.hash != null)
+            return node.hash;
+        HashSerializer ser = new HashSerializer(getHmacKey());
+        serialize(ser, node);
+        HashCode hash = ser.getHash();
+        if (node != null)
+            node.hash = hash;
+        return hash;
+    }
+
+    private void serialize(Serializer ser, Node<K> node) throws SerializationException {
+        if (node == null) {
             ser.write(0);
-            return 0;
-        } else if (keys.size() == 1) {
+        } else if (node.isLeaf()) {
             ser.write(1);
-            K key = keys.iterator().next();
-            serializeKey(ser, key);
-            serializeValue(ser, entries.get(key));
-            return getSum(entries.get(key));
+            V value = entries.get(node.key);
+            serializeKey(ser, node.key);
+            serializeValue(ser, value);
+            node.sum = getSum(value);
         } else {
             ser.write(2);
-            Set<K> left = Sets.newHashSet();
-            Set<K> right = Sets.newHashSet();
+            if (ser instanceof HashSerializer) {
+                // Subtrees are committed to by their cached hash
+                ser.write(hashOf(node.left).asBytes());
+                serializeSum(ser, sumOf(node.left));
+                ser.write(hashOf(node.right).asBytes());
+                serializeSum(ser, sumOf(node.right));
+            } else {
+                serialize(ser, node.left);
+                serialize(ser, node.right);
+            }
+            node.sum = doSum(sumOf(node.left), sumOf(node.right));
+        }
+    }
+
+    /** Compute the hash of each key once, and sort the keys by it */
+    public SortedKeys<K> sortKeys(Collection<K> keys) {
+        return new SortedKeys<K>(this, keys);
+    }
+
+    /**
+     * Keys sorted by their key hash.
+     * <p/>
+     * <p>Keys sharing a prefix of {@code depth} hash bits form a contiguous index range, and within the
+     * range the keys whose next bit is zero come first.  Subtrees are therefore described by index ranges,
+     * and each key is hashed once no matter how deep the tree.</p>
+     */
+    public static class SortedKeys<K> {
+        private static final Comparator<byte[]> COMPARATOR = UnsignedBytes.lexicographicalComparator();
+        private final List<K> keys;
+        private final byte[][] hashes;
+
+        SortedKeys(MerbinnerTree<K, ?> tree, Collection<K> keys) {
+            int size = keys.size();
+            List<KeyHash<K>> items = Lists.newArrayListWithCapacity(size);
             for (K key : keys) {
-                byte[] keyHash = getKeyHash(key).asBytes();
-                boolean side = ((keyHash[depth / 8] >> (7 - (depth % 8))) & 1) == 1;
-                if (side)
-                    left.add(key);
+                items.add(new KeyHash<K>(key, tree.getKeyHash(key).asBytes()));
+            }
+            Collections.sort(items);
+            this.keys = Lists.newArrayListWithCapacity(size);
+            this.hashes = new byte[size][];
+            for (int i = 0; i < size; i++) {
+                this.keys.add(items.get(i).key);
+                this.hashes[i] = items.get(i).hash;
+            }
+        }
+
+        private static class KeyHash<K> implements Comparable<KeyHash<K>> {
+            final K key;
+            final byte[] hash;
+
+            KeyHash(K key, byte[] hash) {
+                this.key = key;
+                this.hash = hash;
+            }
+
+            @Override
+            public int compareTo(KeyHash<K> o) {
+                return COMPARATOR.compare(hash, o.hash);
+            }
+        }
+
+        public int size() {
+            return keys.size();
+        }
+
+        public K get(int index) {
+            return keys.get(index);
+        }
+
+        /** The key hash at the index - must not be modified */
+        public byte[] getHash(int index) {
+            return hashes[index];
+        }
+
+        /**
+         * Split a range of keys sharing their first {@code depth} bits.
+         *
+         * @return the index of the first key in [from, to) with bit {@code depth} set
+         */
+        public int split(int from, int to, int depth) {
+            int lo = from;
+            int hi = to;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (isBitSet(hashes[mid], depth))
+                    hi = mid;
                 else
-                    right.add(key);
+                    lo = mid + 1;
             }
-            long leftSum = subSerialize(ser, left, depth + 1);
-            long rightSum = subSerialize(ser, right, depth + 1);
-            return doSum(leftSum, rightSum);
+            return lo;
         }
-    }
 
-    private long subSerialize(Serializer ser, Set<K> keys, int depth) throws SerializationException {
-        if (ser instanceof HashSerializer) {
-            HashSerializer ser1 = new HashSerializer();
-            long sum = serialize(ser1, keys, depth);
-            HashCode hash = HashSerializer.calcHash(ser1, getHmacKey());
-            ser.write(hash.asBytes());
-            serializeSum(ser, sum);
-            return sum;
-        } else {
-            return serialize(ser, keys, depth);
+        public static boolean isBitSet(byte[] hash, int depth) {
+            return ((hash[depth / 8] >> (7 - (depth % 8))) & 1) == 1;
         }
     }
 
@@ -95,6 +538,7 @@ public abstract class MerbinnerTree<K, V> extends HashableSerializable {
     }
 
     public void deserialize(Deserializer des) throws SerializationException {
+        invalidateNodes();
         long type = des.readVarulong();
         //noinspection StatementWithEmptyBody
         if (type == 0)
@@ -2,20 +2,27 @@ package org.smartcolors.marshal;
 
 import org.bitcoinj.core.TransactionOutPoint;
 
-import java.util.Collection;
-
 /**
  * Created by devrandom on 2015-07-19.
  */
 public class SerializationState {
-    public SerializationState(IterativeSerializable serializable, Collection<TransactionOutPoint> keys, int depth) {
+    public SerializationState(IterativeSerializable serializable) {
+        this(serializable, null, 0, 0, 0);
+    }
+
+    public SerializationState(IterativeSerializable serializable, MerbinnerTree.SortedKeys<TransactionOutPoint> keys, int from, int to, int depth) {
         this.serializable = serializable;
         this.keys = keys;
+        this.from = from;
+        this.to = to;
         this.depth = depth;
     }
 
     public IterativeSerializable serializable;
-    public Collection<TransactionOutPoint> keys;
+    /** Sorted keys of the tree being serialized, of which [from, to) are in this subtree */
+    public MerbinnerTree.SortedKeys<TransactionOutPoint> keys;
+    public int from;
+    public int to;
     public int depth;
     public boolean isDone = false;
 }
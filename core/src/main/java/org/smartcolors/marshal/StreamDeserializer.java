@@ -46,11 +46,7 @@ public class StreamDeserializer implements Deserializer {
     @Override
     public byte[] readBytes(int expectedLength) throws SerializationException {
         byte[] buf = new byte[expectedLength];
-        try {
-            is.read(buf);
-        } catch (IOException e) {
-            throw new SerializationException(e);
-        }
+        readFully(buf);
         return buf;
     }
 
@@ -65,16 +61,22 @@ public class StreamDeserializer implements Deserializer {
         if (length > MAX_BYTES || length < 0)
             throw new RuntimeException("bytes longer than max");
         byte[] buf = new byte[(int) length];
+        readFully(buf);
+        return buf;
+    }
+
+    private void readFully(byte[] buf) throws SerializationException {
         try {
-            if (length > 0) {
-                int len = is.read(buf);
-                if (len < buf.length)
+            int offset = 0;
+            while (offset < buf.length) {
+                int len = is.read(buf, offset, buf.length - offset);
+                if (len < 0)
                     throw new SerializationException("short read");
+                offset += len;
             }
         } catch (IOException e) {
             throw new SerializationException(e);
         }
-        return buf;
     }
 
     public <T> T readObject(ObjectReader<T> reader) throws SerializationException {
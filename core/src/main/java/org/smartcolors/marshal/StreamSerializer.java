@@ -59,7 +59,7 @@ public class StreamSerializer implements Serializer {
             // Switch to iterative serialization
             ArrayDeque<SerializationState> stack = Queues.newArrayDeque();
             IterativeSerializable tree = (PrevoutProofsMerbinnerTree) obj;
-            stack.push(new SerializationState(tree, null, 0));
+            stack.push(new SerializationState(tree));
             while (!stack.isEmpty()) {
                 SerializationState state = stack.getFirst();
                 if (state.isDone) {
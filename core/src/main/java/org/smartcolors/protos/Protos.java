@@ -3205,6 +3205,56 @@ public final class Protos {
          */
         org.smartcolors.protos.Protos.ColorProofOrBuilder getProofsOrBuilder(
                 int index);
+
+        // repeated .smartcolors.ProofReference proof_references = 11;
+
+        /**
+         * <code>repeated .smartcolors.ProofReference proof_references = 11;</code>
+         * <p/>
+         * <pre>
+         * In client tracks, the proofs of the outputs are in the proof store
+         * </pre>
+         */
+        java.util.List<org.smartcolors.protos.Protos.ProofReference>
+        getProofReferencesList();
+
+        /**
+         * <code>repeated .smartcolors.ProofReference proof_references = 11;</code>
+         * <p/>
+         * <pre>
+         * In client tracks, the proofs of the outputs are in the proof store
+         * </pre>
+         */
+        org.smartcolors.protos.Protos.ProofReference getProofReferences(int index);
+
+        /**
+         * <code>repeated .smartcolors.ProofReference proof_references = 11;</code>
+         * <p/>
+         * <pre>
+         * In client tracks, the proofs of the outputs are in the proof store
+         * </pre>
+         */
+        int getProofReferencesCount();
+
+        /**
+         * <code>repeated .smartcolors.ProofReference proof_references = 11;</code>
+         * <p/>
+         * <pre>
+         * In client tracks, the proofs of the outputs are in the proof store
+         * </pre>
+         */
+        java.util.List<? extends org.smartcolors.protos.Protos.ProofReferenceOrBuilder>
+        getProofReferencesOrBuilderList();
+
+        /**
+         * <code>repeated .smartcolors.ProofReference proof_references = 11;</code>
+         * <p/>
+         * <pre>
+         * In client tracks, the proofs of the outputs are in the proof store
+         * </pre>
+         */
+        org.smartcolors.protos.Protos.ProofReferenceOrBuilder getProofReferencesOrBuilder(
+                int index);
     }
 
     /**
@@ -3309,6 +3359,14 @@ public final class Protos {
                             proofs_.add(input.readMessage(org.smartcolors.protos.Protos.ColorProof.PARSER, extensionRegistry));
                             break;
                         }
+                        case 90: {
+                            if (!((mutable_bitField0_ & 0x00000020) == 0x00000020)) {
+                                proofReferences_ = new java.util.ArrayList<org.smartcolors.protos.Protos.ProofReference>();
+                                mutable_bitField0_ |= 0x00000020;
+                            }
+                            proofReferences_.add(input.readMessage(org.smartcolors.protos.Protos.ProofReference.PARSER, extensionRegistry));
+                            break;
+                        }
                     }
                 }
             } catch (com.google.protobuf.InvalidProtocolBufferException e) {
@@ -3329,6 +3387,9 @@ public final class Protos {
                 if (((mutable_bitField0_ & 0x00000010) == 0x00000010)) {
                     proofs_ = java.util.Collections.unmodifiableList(proofs_);
                 }
+                if (((mutable_bitField0_ & 0x00000020) == 0x00000020)) {
+                    proofReferences_ = java.util.Collections.unmodifiableList(proofReferences_);
+                }
                 this.unknownFields = unknownFields.build();
                 makeExtensionsImmutable();
             }
@@ -3551,12 +3612,74 @@ public final class Protos {
             return proofs_.get(index);
         }
 
+        // repeated .smartcolors.ProofReference proof_references = 11;
+        public static final int PROOF_REFERENCES_FIELD_NUMBER = 11;
+        private java.util.List<org.smartcolors.protos.Protos.ProofReference> proofReferences_;
+
+        /**
+         * <code>repeated .smartcolors.ProofReference proof_references = 11;</code>
+         * <p/>
+         * <pre>
+         * In client tracks, the proofs of the outputs are in the proof store
+         * </pre>
+         */
+        public java.util.List<org.smartcolors.protos.Protos.ProofReference> getProofReferencesList() {
+            return proofReferences_;
+        }
+
+        /**
+         * <code>repeated .smartcolors.ProofReference proof_references = 11;</code>
+         * <p/>
+         * <pre>
+         * In client tracks, the proofs of the outputs are in the proof store
+         * </pre>
+         */
+        public java.util.List<? extends org.smartcolors.protos.Protos.ProofReferenceOrBuilder>
+        getProofReferencesOrBuilderList() {
+            return proofReferences_;
+        }
+
+        /**
+         * <code>repeated .smartcolors.ProofReference proof_references = 11;</code>
+         * <p/>
+         * <pre>
+         * In client tracks, the proofs of the outputs are in the proof store
+         * </pre>
+         */
+        public int getProofReferencesCount() {
+            return proofReferences_.size();
+        }
+
+        /**
+         * <code>repeated .smartcolors.ProofReference proof_references = 11;</code>
+         * <p/>
+         * <pre>
+         * In client tracks, the proofs of the outputs are in the proof store
+         * </pre>
+         */
+        public org.smartcolors.protos.Protos.ProofReference getProofReferences(int index) {
+            return proofReferences_.get(index);
+        }
+
+        /**
+         * <code>repeated .smartcolors.ProofReference proof_references = 11;</code>
+         * <p/>
+         * <pre>
+         * In client tracks, the proofs of the outputs are in the proof store
+         * </pre>
+         */
+        public org.smartcolors.protos.Protos.ProofReferenceOrBuilder getProofReferencesOrBuilder(
+                int index) {
+            return proofReferences_.get(index);
+        }
+
         private void initFields() {
             colorDefinition_ = org.smartcolors.protos.Protos.ColorDefinition.getDefaultInstance();
             outputs_ = java.util.Collections.emptyList();
             unspentOutputs_ = java.util.Collections.emptyList();
             txs_ = java.util.Collections.emptyList();
             proofs_ = java.util.Collections.emptyList();
+            proofReferences_ = java.util.Collections.emptyList();
         }
 
         private byte memoizedIsInitialized = -1;
@@ -3597,6 +3720,12 @@ public final class Protos {
                     return false;
                 }
             }
+            for (int i = 0; i < getProofReferencesCount(); i++) {
+                if (!getProofReferences(i).isInitialized()) {
+                    memoizedIsInitialized = 0;
+                    return false;
+                }
+            }
             memoizedIsInitialized = 1;
             return true;
         }
@@ -3619,6 +3748,9 @@ public final class Protos {
             for (int i = 0; i < proofs_.size(); i++) {
                 output.writeMessage(10, proofs_.get(i));
             }
+            for (int i = 0; i < proofReferences_.size(); i++) {
+                output.writeMessage(11, proofReferences_.get(i));
+            }
             getUnknownFields().writeTo(output);
         }
 
@@ -3649,6 +3781,10 @@ public final class Protos {
                 size += com.google.protobuf.CodedOutputStream
                         .computeMessageSize(10, proofs_.get(i));
             }
+            for (int i = 0; i < proofReferences_.size(); i++) {
+                size += com.google.protobuf.CodedOutputStream
+                        .computeMessageSize(11, proofReferences_.get(i));
+            }
             size += getUnknownFields().getSerializedSize();
             memoizedSerializedSize = size;
             return size;
@@ -3783,6 +3919,7 @@ public final class Protos {
                     getUnspentOutputsFieldBuilder();
                     getTxsFieldBuilder();
                     getProofsFieldBuilder();
+                    getProofReferencesFieldBuilder();
                 }
             }
 
@@ -3822,6 +3959,12 @@ public final class Protos {
                 } else {
                     proofsBuilder_.clear();
                 }
+                if (proofReferencesBuilder_ == null) {
+                    proofReferences_ = java.util.Collections.emptyList();
+                    bitField0_ = (bitField0_ & ~0x00000020);
+                } else {
+                    proofReferencesBuilder_.clear();
+                }
                 return this;
             }
 
@@ -3894,6 +4037,15 @@ public final class Protos {
                 } else {
                     result.proofs_ = proofsBuilder_.build();
                 }
+                if (proofReferencesBuilder_ == null) {
+                    if (((bitField0_ & 0x00000020) == 0x00000020)) {
+                        proofReferences_ = java.util.Collections.unmodifiableList(proofReferences_);
+                        bitField0_ = (bitField0_ & ~0x00000020);
+                    }
+                    result.proofReferences_ = proofReferences_;
+                } else {
+                    result.proofReferences_ = proofReferencesBuilder_.build();
+                }
                 result.bitField0_ = to_bitField0_;
                 onBuilt();
                 return result;
@@ -4017,6 +4169,32 @@ public final class Protos {
                         }
                     }
                 }
+                if (proofReferencesBuilder_ == null) {
+                    if (!other.proofReferences_.isEmpty()) {
+                        if (proofReferences_.isEmpty()) {
+                            proofReferences_ = other.proofReferences_;
+                            bitField0_ = (bitField0_ & ~0x00000020);
+                        } else {
+                            ensureProofReferencesIsMutable();
+                            proofReferences_.addAll(other.proofReferences_);
+                        }
+                        onChanged();
+                    }
+                } else {
+                    if (!other.proofReferences_.isEmpty()) {
+                        if (proofReferencesBuilder_.isEmpty()) {
+                            proofReferencesBuilder_.dispose();
+                            proofReferencesBuilder_ = null;
+                            proofReferences_ = other.proofReferences_;
+                            bitField0_ = (bitField0_ & ~0x00000020);
+                            proofReferencesBuilder_ =
+                                    com.google.protobuf.GeneratedMessage.alwaysUseFieldBuilders ?
+                                            getProofReferencesFieldBuilder() : null;
+                        } else {
+                            proofReferencesBuilder_.addAllMessages(other.proofReferences_);
+                        }
+                    }
+                }
                 this.mergeUnknownFields(other.getUnknownFields());
                 return this;
             }
@@ -4054,6 +4232,12 @@ public final class Protos {
                         return false;
                     }
                 }
+                for (int i = 0; i < getProofReferencesCount(); i++) {
+                    if (!getProofReferences(i).isInitialized()) {
+
+                        return false;
+                    }
+                }
                 return true;
             }
 
@@ -5243,69 +5427,401 @@ public final class Protos {
                 return proofsBuilder_;
             }
 
-            // @@protoc_insertion_point(builder_scope:smartcolors.ColorTrack)
-        }
-
-        static {
-            defaultInstance = new ColorTrack(true);
-            defaultInstance.initFields();
-        }
+            // repeated .smartcolors.ProofReference proof_references = 11;
+            private java.util.List<org.smartcolors.protos.Protos.ProofReference> proofReferences_ =
+                    java.util.Collections.emptyList();
 
-        // @@protoc_insertion_point(class_scope:smartcolors.ColorTrack)
-    }
+            private void ensureProofReferencesIsMutable() {
+                if (!((bitField0_ & 0x00000020) == 0x00000020)) {
+                    proofReferences_ = new java.util.ArrayList<org.smartcolors.protos.Protos.ProofReference>(proofReferences_);
+                    bitField0_ |= 0x00000020;
+                }
+            }
 
-    public interface ColorScannerOrBuilder
-            extends com.google.protobuf.MessageOrBuilder {
+            private com.google.protobuf.RepeatedFieldBuilder<
+                    org.smartcolors.protos.Protos.ProofReference, org.smartcolors.protos.Protos.ProofReference.Builder, org.smartcolors.protos.Protos.ProofReferenceOrBuilder> proofReferencesBuilder_;
 
-        // repeated .smartcolors.BlockToSortedTransaction block_to_transaction = 1;
+            /**
+             * <code>repeated .smartcolors.ProofReference proof_references = 11;</code>
+             * <p/>
+             * <pre>
+             * In client tracks, the proofs of the outputs are in the proof store
+             * </pre>
+             */
+            public java.util.List<org.smartcolors.protos.Protos.ProofReference> getProofReferencesList() {
+                if (proofReferencesBuilder_ == null) {
+                    return java.util.Collections.unmodifiableList(proofReferences_);
+                } else {
+                    return proofReferencesBuilder_.getMessageList();
+                }
+            }
 
-        /**
-         * <code>repeated .smartcolors.BlockToSortedTransaction block_to_transaction = 1;</code>
-         */
-        java.util.List<org.smartcolors.protos.Protos.BlockToSortedTransaction>
-        getBlockToTransactionList();
+            /**
+             * <code>repeated .smartcolors.ProofReference proof_references = 11;</code>
+             * <p/>
+             * <pre>
+             * In client tracks, the proofs of the outputs are in the proof store
+             * </pre>
+             */
+            public int getProofReferencesCount() {
+                if (proofReferencesBuilder_ == null) {
+                    return proofReferences_.size();
+                } else {
+                    return proofReferencesBuilder_.getCount();
+                }
+            }
 
-        /**
-         * <code>repeated .smartcolors.BlockToSortedTransaction block_to_transaction = 1;</code>
-         */
-        org.smartcolors.protos.Protos.BlockToSortedTransaction getBlockToTransaction(int index);
+            /**
+             * <code>repeated .smartcolors.ProofReference proof_references = 11;</code>
+             * <p/>
+             * <pre>
+             * In client tracks, the proofs of the outputs are in the proof store
+             * </pre>
+             */
+            public org.smartcolors.protos.Protos.ProofReference getProofReferences(int index) {
+                if (proofReferencesBuilder_ == null) {
+                    return proofReferences_.get(index);
+                } else {
+                    return proofReferencesBuilder_.getMessage(index);
+                }
+            }
 
-        /**
-         * <code>repeated .smartcolors.BlockToSortedTransaction block_to_transaction = 1;</code>
-         */
-        int getBlockToTransactionCount();
+            /**
+             * <code>repeated .smartcolors.ProofReference proof_references = 11;</code>
+             * <p/>
+             * <pre>
+             * In client tracks, the proofs of the outputs are in the proof store
+             * </pre>
+             */
+            public Builder setProofReferences(
+                    int index, org.smartcolors.protos.Protos.ProofReference value) {
+                if (proofReferencesBuilder_ == null) {
+                    if (value == null) {
+                        throw new NullPointerException();
+                    }
+                    ensureProofReferencesIsMutable();
+                    proofReferences_.set(index, value);
+                    onChanged();
+                } else {
+                    proofReferencesBuilder_.setMessage(index, value);
+                }
+                return this;
+            }
 
-        /**
-         * <code>repeated .smartcolors.BlockToSortedTransaction block_to_transaction = 1;</code>
-         */
-        java.util.List<? extends org.smartcolors.protos.Protos.BlockToSortedTransactionOrBuilder>
-        getBlockToTransactionOrBuilderList();
+            /**
+             * <code>repeated .smartcolors.ProofReference proof_references = 11;</code>
+             * <p/>
+             * <pre>
+             * In client tracks, the proofs of the outputs are in the proof store
+             * </pre>
+             */
+            public Builder setProofReferences(
+                    int index, org.smartcolors.protos.Protos.ProofReference.Builder builderForValue) {
+                if (proofReferencesBuilder_ == null) {
+                    ensureProofReferencesIsMutable();
+                    proofReferences_.set(index, builderForValue.build());
+                    onChanged();
+                } else {
+                    proofReferencesBuilder_.setMessage(index, builderForValue.build());
+                }
+                return this;
+            }
 
-        /**
-         * <code>repeated .smartcolors.BlockToSortedTransaction block_to_transaction = 1;</code>
-         */
-        org.smartcolors.protos.Protos.BlockToSortedTransactionOrBuilder getBlockToTransactionOrBuilder(
-                int index);
+            /**
+             * <code>repeated .smartcolors.ProofReference proof_references = 11;</code>
+             * <p/>
+             * <pre>
+             * In client tracks, the proofs of the outputs are in the proof store
+             * </pre>
+             */
+            public Builder addProofReferences(org.smartcolors.protos.Protos.ProofReference value) {
+                if (proofReferencesBuilder_ == null) {
+                    if (value == null) {
+                        throw new NullPointerException();
+                    }
+                    ensureProofReferencesIsMutable();
+                    proofReferences_.add(value);
+                    onChanged();
+                } else {
+                    proofReferencesBuilder_.addMessage(value);
+                }
+                return this;
+            }
 
-        // repeated .smartcolors.ColorTrack tracks = 2;
+            /**
+             * <code>repeated .smartcolors.ProofReference proof_references = 11;</code>
+             * <p/>
+             * <pre>
+             * In client tracks, the proofs of the outputs are in the proof store
+             * </pre>
+             */
+            public Builder addProofReferences(
+                    int index, org.smartcolors.protos.Protos.ProofReference value) {
+                if (proofReferencesBuilder_ == null) {
+                    if (value == null) {
+                        throw new NullPointerException();
+                    }
+                    ensureProofReferencesIsMutable();
+                    proofReferences_.add(index, value);
+                    onChanged();
+                } else {
+                    proofReferencesBuilder_.addMessage(index, value);
+                }
+                return this;
+            }
 
-        /**
-         * <code>repeated .smartcolors.ColorTrack tracks = 2;</code>
-         */
-        java.util.List<org.smartcolors.protos.Protos.ColorTrack>
-        getTracksList();
+            /**
+             * <code>repeated .smartcolors.ProofReference proof_references = 11;</code>
+             * <p/>
+             * <pre>
+             * In client tracks, the proofs of the outputs are in the proof store
+             * </pre>
+             */
+            public Builder addProofReferences(
+                    org.smartcolors.protos.Protos.ProofReference.Builder builderForValue) {
+                if (proofReferencesBuilder_ == null) {
+                    ensureProofReferencesIsMutable();
+                    proofReferences_.add(builderForValue.build());
+                    onChanged();
+                } else {
+                    proofReferencesBuilder_.addMessage(builderForValue.build());
+                }
+                return this;
+            }
 
-        /**
-         * <code>repeated .smartcolors.ColorTrack tracks = 2;</code>
-         */
-        org.smartcolors.protos.Protos.ColorTrack getTracks(int index);
+            /**
+             * <code>repeated .smartcolors.ProofReference proof_references = 11;</code>
+             * <p/>
+             * <pre>
+             * In client tracks, the proofs of the outputs are in the proof store
+             * </pre>
+             */
+            public Builder addProofReferences(
+                    int index, org.smartcolors.protos.Protos.ProofReference.Builder builderForValue) {
+                if (proofReferencesBuilder_ == null) {
+                    ensureProofReferencesIsMutable();
+                    proofReferences_.add(index, builderForValue.build());
+                    onChanged();
+                } else {
+                    proofReferencesBuilder_.addMessage(index, builderForValue.build());
+                }
+                return this;
+            }
 
-        /**
-         * <code>repeated .smartcolors.ColorTrack tracks = 2;</code>
-         */
-        int getTracksCount();
+            /**
+             * <code>repeated .smartcolors.ProofReference proof_references = 11;</code>
+             * <p/>
+             * <pre>
+             * In client tracks, the proofs of the outputs are in the proof store
+             * </pre>
+             */
+            public Builder addAllProofReferences(
+                    java.lang.Iterable<? extends org.smartcolors.protos.Protos.ProofReference> values) {
+                if (proofReferencesBuilder_ == null) {
+                    ensureProofReferencesIsMutable();
+                    super.addAll(values, proofReferences_);
+                    onChanged();
+                } else {
+                    proofReferencesBuilder_.addAllMessages(values);
+                }
+                return this;
+            }
 
-        /**
+            /**
+             * <code>repeated .smartcolors.ProofReference proof_references = 11;</code>
+             * <p/>
+             * <pre>
+             * In client tracks, the proofs of the outputs are in the proof store
+             * </pre>
+             */
+            public Builder clearProofReferences() {
+                if (proofReferencesBuilder_ == null) {
+                    proofReferences_ = java.util.Collections.emptyList();
+                    bitField0_ = (bitField0_ & ~0x00000020);
+                    onChanged();
+                } else {
+                    proofReferencesBuilder_.clear();
+                }
+                return this;
+            }
+
+            /**
+             * <code>repeated .smartcolors.ProofReference proof_references = 11;</code>
+             * <p/>
+             * <pre>
+             * In client tracks, the proofs of the outputs are in the proof store
+             * </pre>
+             */
+            public Builder removeProofReferences(int index) {
+                if (proofReferencesBuilder_ == null) {
+                    ensureProofReferencesIsMutable();
+                    proofReferences_.remove(index);
+                    onChanged();
+                } else {
+                    proofReferencesBuilder_.remove(index);
+                }
+                return this;
+            }
+
+            /**
+             * <code>repeated .smartcolors.ProofReference proof_references = 11;</code>
+             * <p/>
+             * <pre>
+             * In client tracks, the proofs of the outputs are in the proof store
+             * </pre>
+             */
+            public org.smartcolors.protos.Protos.ProofReference.Builder getProofReferencesBuilder(
+                    int index) {
+                return getProofReferencesFieldBuilder().getBuilder(index);
+            }
+
+            /**
+             * <code>repeated .smartcolors.ProofReference proof_references = 11;</code>
+             * <p/>
+             * <pre>
+             * In client tracks, the proofs of the outputs are in the proof store
+             * </pre>
+             */
+            public org.smartcolors.protos.Protos.ProofReferenceOrBuilder getProofReferencesOrBuilder(
+                    int index) {
+                if (proofReferencesBuilder_ == null) {
+                    return proofReferences_.get(index);
+                } else {
+                    return proofReferencesBuilder_.getMessageOrBuilder(index);
+                }
+            }
+
+            /**
+             * <code>repeated .smartcolors.ProofReference proof_references = 11;</code>
+             * <p/>
+             * <pre>
+             * In client tracks, the proofs of the outputs are in the proof store
+             * </pre>
+             */
+            public java.util.List<? extends org.smartcolors.protos.Protos.ProofReferenceOrBuilder>
+            getProofReferencesOrBuilderList() {
+                if (proofReferencesBuilder_ != null) {
+                    return proofReferencesBuilder_.getMessageOrBuilderList();
+                } else {
+                    return java.util.Collections.unmodifiableList(proofReferences_);
+                }
+            }
+
+            /**
+             * <code>repeated .smartcolors.ProofReference proof_references = 11;</code>
+             * <p/>
+             * <pre>
+             * In client tracks, the proofs of the outputs are in the proof store
+             * </pre>
+             */
+            public org.smartcolors.protos.Protos.ProofReference.Builder addProofReferencesBuilder() {
+                return getProofReferencesFieldBuilder().addBuilder(
+                        org.smartcolors.protos.Protos.ProofReference.getDefaultInstance());
+            }
+
+            /**
+             * <code>repeated .smartcolors.ProofReference proof_references = 11;</code>
+             * <p/>
+             * <pre>
+             * In client tracks, the proofs of the outputs are in the proof store
+             * </pre>
+             */
+            public org.smartcolors.protos.Protos.ProofReference.Builder addProofReferencesBuilder(
+                    int index) {
+                return getProofReferencesFieldBuilder().addBuilder(
+                        index, org.smartcolors.protos.Protos.ProofReference.getDefaultInstance());
+            }
+
+            /**
+             * <code>repeated .smartcolors.ProofReference proof_references = 11;</code>
+             * <p/>
+             * <pre>
+             * In client tracks, the proofs of the outputs are in the proof store
+             * </pre>
+             */
+            public java.util.List<org.smartcolors.protos.Protos.ProofReference.Builder>
+            getProofReferencesBuilderList() {
+                return getProofReferencesFieldBuilder().getBuilderList();
+            }
+
+            private com.google.protobuf.RepeatedFieldBuilder<
+                    org.smartcolors.protos.Protos.ProofReference, org.smartcolors.protos.Protos.ProofReference.Builder, org.smartcolors.protos.Protos.ProofReferenceOrBuilder>
+            getProofReferencesFieldBuilder() {
+                if (proofReferencesBuilder_ == null) {
+                    proofReferencesBuilder_ = new com.google.protobuf.RepeatedFieldBuilder<
+                            org.smartcolors.protos.Protos.ProofReference, org.smartcolors.protos.Protos.ProofReference.Builder, org.smartcolors.protos.Protos.ProofReferenceOrBuilder>(
+                            proofReferences_,
+                            ((bitField0_ & 0x00000020) == 0x00000020),
+                            getParentForChildren(),
+                            isClean());
+                    proofReferences_ = null;
+                }
+                return proofReferencesBuilder_;
+            }
+
+            // @@protoc_insertion_point(builder_scope:smartcolors.ColorTrack)
+        }
+
+        static {
+            defaultInstance = new ColorTrack(true);
+            defaultInstance.initFields();
+        }
+
+        // @@protoc_insertion_point(class_scope:smartcolors.ColorTrack)
+    }
+
+    public interface ColorScannerOrBuilder
+            extends com.google.protobuf.MessageOrBuilder {
+
+        // repeated .smartcolors.BlockToSortedTransaction block_to_transaction = 1;
+
+        /**
+         * <code>repeated .smartcolors.BlockToSortedTransaction block_to_transaction = 1;</code>
+         */
+        java.util.List<org.smartcolors.protos.Protos.BlockToSortedTransaction>
+        getBlockToTransactionList();
+
+        /**
+         * <code>repeated .smartcolors.BlockToSortedTransaction block_to_transaction = 1;</code>
+         */
+        org.smartcolors.protos.Protos.BlockToSortedTransaction getBlockToTransaction(int index);
+
+        /**
+         * <code>repeated .smartcolors.BlockToSortedTransaction block_to_transaction = 1;</code>
+         */
+        int getBlockToTransactionCount();
+
+        /**
+         * <code>repeated .smartcolors.BlockToSortedTransaction block_to_transaction = 1;</code>
+         */
+        java.util.List<? extends org.smartcolors.protos.Protos.BlockToSortedTransactionOrBuilder>
+        getBlockToTransactionOrBuilderList();
+
+        /**
+         * <code>repeated .smartcolors.BlockToSortedTransaction block_to_transaction = 1;</code>
+         */
+        org.smartcolors.protos.Protos.BlockToSortedTransactionOrBuilder getBlockToTransactionOrBuilder(
+                int index);
+
+        // repeated .smartcolors.ColorTrack tracks = 2;
+
+        /**
+         * <code>repeated .smartcolors.ColorTrack tracks = 2;</code>
+         */
+        java.util.List<org.smartcolors.protos.Protos.ColorTrack>
+        getTracksList();
+
+        /**
+         * <code>repeated .smartcolors.ColorTrack tracks = 2;</code>
+         */
+        org.smartcolors.protos.Protos.ColorTrack getTracks(int index);
+
+        /**
+         * <code>repeated .smartcolors.ColorTrack tracks = 2;</code>
+         */
+        int getTracksCount();
+
+        /**
          * <code>repeated .smartcolors.ColorTrack tracks = 2;</code>
          */
         java.util.List<? extends org.smartcolors.protos.Protos.ColorTrackOrBuilder>
@@ -6572,100 +7088,721 @@ public final class Protos {
         // @@protoc_insertion_point(class_scope:smartcolors.ColorScanner)
     }
 
-    private static com.google.protobuf.Descriptors.Descriptor
-            internal_static_smartcolors_SortedTransaction_descriptor;
-    private static
-    com.google.protobuf.GeneratedMessage.FieldAccessorTable
-            internal_static_smartcolors_SortedTransaction_fieldAccessorTable;
-    private static com.google.protobuf.Descriptors.Descriptor
-            internal_static_smartcolors_BlockToSortedTransaction_descriptor;
-    private static
-    com.google.protobuf.GeneratedMessage.FieldAccessorTable
-            internal_static_smartcolors_BlockToSortedTransaction_fieldAccessorTable;
-    private static com.google.protobuf.Descriptors.Descriptor
-            internal_static_smartcolors_OutPointValue_descriptor;
-    private static
-    com.google.protobuf.GeneratedMessage.FieldAccessorTable
-            internal_static_smartcolors_OutPointValue_fieldAccessorTable;
-    private static com.google.protobuf.Descriptors.Descriptor
-            internal_static_smartcolors_ColorDefinition_descriptor;
-    private static
-    com.google.protobuf.GeneratedMessage.FieldAccessorTable
-            internal_static_smartcolors_ColorDefinition_fieldAccessorTable;
-    private static com.google.protobuf.Descriptors.Descriptor
-            internal_static_smartcolors_ColorProof_descriptor;
-    private static
-    com.google.protobuf.GeneratedMessage.FieldAccessorTable
-            internal_static_smartcolors_ColorProof_fieldAccessorTable;
-    private static com.google.protobuf.Descriptors.Descriptor
-            internal_static_smartcolors_ColorTrack_descriptor;
-    private static
-    com.google.protobuf.GeneratedMessage.FieldAccessorTable
-            internal_static_smartcolors_ColorTrack_fieldAccessorTable;
-    private static com.google.protobuf.Descriptors.Descriptor
-            internal_static_smartcolors_ColorScanner_descriptor;
-    private static
-    com.google.protobuf.GeneratedMessage.FieldAccessorTable
-            internal_static_smartcolors_ColorScanner_fieldAccessorTable;
+    public interface ProofReferenceOrBuilder
+            extends com.google.protobuf.MessageOrBuilder {
 
-    public static com.google.protobuf.Descriptors.FileDescriptor
-    getDescriptor() {
-        return descriptor;
+        // required bytes outpoint = 1;
+
+        /**
+         * <code>required bytes outpoint = 1;</code>
+         * <p/>
+         * <pre>
+         * Bitcoin serialized outpoint
+         * </pre>
+         */
+        boolean hasOutpoint();
+
+        /**
+         * <code>required bytes outpoint = 1;</code>
+         * <p/>
+         * <pre>
+         * Bitcoin serialized outpoint
+         * </pre>
+         */
+        com.google.protobuf.ByteString getOutpoint();
+
+        // required bytes proof_hash = 2;
+
+        /**
+         * <code>required bytes proof_hash = 2;</code>
+         * <p/>
+         * <pre>
+         * Hash of the proof in the proof store
+         * </pre>
+         */
+        boolean hasProofHash();
+
+        /**
+         * <code>required bytes proof_hash = 2;</code>
+         * <p/>
+         * <pre>
+         * Hash of the proof in the proof store
+         * </pre>
+         */
+        com.google.protobuf.ByteString getProofHash();
     }
 
-    private static com.google.protobuf.Descriptors.FileDescriptor
-            descriptor;
+    /**
+     * Protobuf type {@code smartcolors.ProofReference}
+     */
+    public static final class ProofReference extends
+            com.google.protobuf.GeneratedMessage
+            implements ProofReferenceOrBuilder {
+        // Use ProofReference.newBuilder() to construct.
+        private ProofReference(com.google.protobuf.GeneratedMessage.Builder<?> builder) {
+            super(builder);
+            this.unknownFields = builder.getUnknownFields();
+        }
 
-    static {
-        java.lang.String[] descriptorData = {
-                "\n\rscanner.proto\022\013smartcolors\"7\n\021SortedTr" +
-                        "ansaction\022\023\n\013transaction\030\001 \002(\014\022\r\n\005index\030" +
-                        "\002 \002(\r\"c\n\030BlockToSortedTransaction\022\022\n\nblo" +
-                        "ck_hash\030\001 \002(\014\0223\n\013transaction\030\002 \002(\0132\036.sma" +
-                        "rtcolors.SortedTransaction\";\n\rOutPointVa" +
-                        "lue\022\014\n\004hash\030\001 \002(\014\022\r\n\005index\030\002 \002(\004\022\r\n\005valu" +
-                        "e\030\003 \002(\004\"-\n\017ColorDefinition\022\014\n\004hash\030\001 \002(\014" +
-                        "\022\014\n\004json\030\002 \001(\t\"\032\n\nColorProof\022\014\n\004body\030\001 \002" +
-                        "(\014\"\374\001\n\nColorTrack\0226\n\020color_definition\030\001 " +
-                        "\002(\0132\034.smartcolors.ColorDefinition\022+\n\007out",
-                "puts\030\002 \003(\0132\032.smartcolors.OutPointValue\0223" +
-                        "\n\017unspent_outputs\030\003 \003(\0132\032.smartcolors.Ou" +
-                        "tPointValue\022+\n\003txs\030\004 \003(\0132\036.smartcolors.S" +
-                        "ortedTransaction\022\'\n\006proofs\030\n \003(\0132\027.smart" +
-                        "colors.ColorProof\"\215\001\n\014ColorScanner\022C\n\024bl" +
-                        "ock_to_transaction\030\001 \003(\0132%.smartcolors.B" +
-                        "lockToSortedTransaction\022\'\n\006tracks\030\002 \003(\0132" +
-                        "\027.smartcolors.ColorTrack\022\017\n\007pending\030\003 \003(" +
-                        "\014B \n\026org.smartcolors.protosB\006Protos"
-        };
-        com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner assigner =
-                new com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner() {
-                    public com.google.protobuf.ExtensionRegistry assignDescriptors(
-                            com.google.protobuf.Descriptors.FileDescriptor root) {
-                        descriptor = root;
-                        internal_static_smartcolors_SortedTransaction_descriptor =
-                                getDescriptor().getMessageTypes().get(0);
-                        internal_static_smartcolors_SortedTransaction_fieldAccessorTable = new
-                                com.google.protobuf.GeneratedMessage.FieldAccessorTable(
-                                internal_static_smartcolors_SortedTransaction_descriptor,
-                                new java.lang.String[]{"Transaction", "Index",});
-                        internal_static_smartcolors_BlockToSortedTransaction_descriptor =
-                                getDescriptor().getMessageTypes().get(1);
-                        internal_static_smartcolors_BlockToSortedTransaction_fieldAccessorTable = new
-                                com.google.protobuf.GeneratedMessage.FieldAccessorTable(
-                                internal_static_smartcolors_BlockToSortedTransaction_descriptor,
-                                new java.lang.String[]{"BlockHash", "Transaction",});
-                        internal_static_smartcolors_OutPointValue_descriptor =
-                                getDescriptor().getMessageTypes().get(2);
-                        internal_static_smartcolors_OutPointValue_fieldAccessorTable = new
-                                com.google.protobuf.GeneratedMessage.FieldAccessorTable(
-                                internal_static_smartcolors_OutPointValue_descriptor,
-                                new java.lang.String[]{"Hash", "Index", "Value",});
-                        internal_static_smartcolors_ColorDefinition_descriptor =
-                                getDescriptor().getMessageTypes().get(3);
-                        internal_static_smartcolors_ColorDefinition_fieldAccessorTable = new
-                                com.google.protobuf.GeneratedMessage.FieldAccessorTable(
-                                internal_static_smartcolors_ColorDefinition_descriptor,
+        private ProofReference(boolean noInit) {
+            this.unknownFields = com.google.protobuf.UnknownFieldSet.getDefaultInstance();
+        }
+
+        private static final ProofReference defaultInstance;
+
+        public static ProofReference getDefaultInstance() {
+            return defaultInstance;
+        }
+
+        public ProofReference getDefaultInstanceForType() {
+            return defaultInstance;
+        }
+
+        private final com.google.protobuf.UnknownFieldSet unknownFields;
+
+        @java.lang.Override
+        public final com.google.protobuf.UnknownFieldSet
+        getUnknownFields() {
+            return this.unknownFields;
+        }
+
+        private ProofReference(
+                com.google.protobuf.CodedInputStream input,
+                com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+                throws com.google.protobuf.InvalidProtocolBufferException {
+            initFields();
+            int mutable_bitField0_ = 0;
+            com.google.protobuf.UnknownFieldSet.Builder unknownFields =
+                    com.google.protobuf.UnknownFieldSet.newBuilder();
+            try {
+                boolean done = false;
+                while (!done) {
+                    int tag = input.readTag();
+                    switch (tag) {
+                        case 0:
+                            done = true;
+                            break;
+                        default: {
+                            if (!parseUnknownField(input, unknownFields,
+                                    extensionRegistry, tag)) {
+                                done = true;
+                            }
+                            break;
+                        }
+                        case 10: {
+                            bitField0_ |= 0x00000001;
+                            outpoint_ = input.readBytes();
+                            break;
+                        }
+                        case 18: {
+                            bitField0_ |= 0x00000002;
+                            proofHash_ = input.readBytes();
+                            break;
+                        }
+                    }
+                }
+            } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+                throw e.setUnfinishedMessage(this);
+            } catch (java.io.IOException e) {
+                throw new com.google.protobuf.InvalidProtocolBufferException(
+                        e.getMessage()).setUnfinishedMessage(this);
+            } finally {
+                this.unknownFields = unknownFields.build();
+                makeExtensionsImmutable();
+            }
+        }
+
+        public static final com.google.protobuf.Descriptors.Descriptor
+        getDescriptor() {
+            return org.smartcolors.protos.Protos.internal_static_smartcolors_ProofReference_descriptor;
+        }
+
+        protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+        internalGetFieldAccessorTable() {
+            return org.smartcolors.protos.Protos.internal_static_smartcolors_ProofReference_fieldAccessorTable
+                    .ensureFieldAccessorsInitialized(
+                            org.smartcolors.protos.Protos.ProofReference.class, org.smartcolors.protos.Protos.ProofReference.Builder.class);
+        }
+
+        public static com.google.protobuf.Parser<ProofReference> PARSER =
+                new com.google.protobuf.AbstractParser<ProofReference>() {
+                    public ProofReference parsePartialFrom(
+                            com.google.protobuf.CodedInputStream input,
+                            com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+                            throws com.google.protobuf.InvalidProtocolBufferException {
+                        return new ProofReference(input, extensionRegistry);
+                    }
+                };
+
+        @java.lang.Override
+        public com.google.protobuf.Parser<ProofReference> getParserForType() {
+            return PARSER;
+        }
+
+        private int bitField0_;
+        // required bytes outpoint = 1;
+        public static final int OUTPOINT_FIELD_NUMBER = 1;
+        private com.google.protobuf.ByteString outpoint_;
+
+        /**
+         * <code>required bytes outpoint = 1;</code>
+         * <p/>
+         * <pre>
+         * Bitcoin serialized outpoint
+         * </pre>
+         */
+        public boolean hasOutpoint() {
+            return ((bitField0_ & 0x00000001) == 0x00000001);
+        }
+
+        /**
+         * <code>required bytes outpoint = 1;</code>
+         * <p/>
+         * <pre>
+         * Bitcoin serialized outpoint
+         * </pre>
+         */
+        public com.google.protobuf.ByteString getOutpoint() {
+            return outpoint_;
+        }
+
+        // required bytes proof_hash = 2;
+        public static final int PROOF_HASH_FIELD_NUMBER = 2;
+        private com.google.protobuf.ByteString proofHash_;
+
+        /**
+         * <code>required bytes proof_hash = 2;</code>
+         * <p/>
+         * <pre>
+         * Hash of the proof in the proof store
+         * </pre>
+         */
+        public boolean hasProofHash() {
+            return ((bitField0_ & 0x00000002) == 0x00000002);
+        }
+
+        /**
+         * <code>required bytes proof_hash = 2;</code>
+         * <p/>
+         * <pre>
+         * Hash of the proof in the proof store
+         * </pre>
+         */
+        public com.google.protobuf.ByteString getProofHash() {
+            return proofHash_;
+        }
+
+        private void initFields() {
+            outpoint_ = com.google.protobuf.ByteString.EMPTY;
+            proofHash_ = com.google.protobuf.ByteString.EMPTY;
+        }
+
+        private byte memoizedIsInitialized = -1;
+
+        public final boolean isInitialized() {
+            byte isInitialized = memoizedIsInitialized;
+            if (isInitialized != -1) return isInitialized == 1;
+
+            if (!hasOutpoint()) {
+                memoizedIsInitialized = 0;
+                return false;
+            }
+            if (!hasProofHash()) {
+                memoizedIsInitialized = 0;
+                return false;
+            }
+            memoizedIsInitialized = 1;
+            return true;
+        }
+
+        public void writeTo(com.google.protobuf.CodedOutputStream output)
+                throws java.io.IOException {
+            getSerializedSize();
+            if (((bitField0_ & 0x00000001) == 0x00000001)) {
+                output.writeBytes(1, outpoint_);
+            }
+            if (((bitField0_ & 0x00000002) == 0x00000002)) {
+                output.writeBytes(2, proofHash_);
+            }
+            getUnknownFields().writeTo(output);
+        }
+
+        private int memoizedSerializedSize = -1;
+
+        public int getSerializedSize() {
+            int size = memoizedSerializedSize;
+            if (size != -1) return size;
+
+            size = 0;
+            if (((bitField0_ & 0x00000001) == 0x00000001)) {
+                size += com.google.protobuf.CodedOutputStream
+                        .computeBytesSize(1, outpoint_);
+            }
+            if (((bitField0_ & 0x00000002) == 0x00000002)) {
+                size += com.google.protobuf.CodedOutputStream
+                        .computeBytesSize(2, proofHash_);
+            }
+            size += getUnknownFields().getSerializedSize();
+            memoizedSerializedSize = size;
+            return size;
+        }
+
+        private static final long serialVersionUID = 0L;
+
+        @java.lang.Override
+        protected java.lang.Object writeReplace()
+                throws java.io.ObjectStreamException {
+            return super.writeReplace();
+        }
+
+        public static org.smartcolors.protos.Protos.ProofReference parseFrom(
+                com.google.protobuf.ByteString data)
+                throws com.google.protobuf.InvalidProtocolBufferException {
+            return PARSER.parseFrom(data);
+        }
+
+        public static org.smartcolors.protos.Protos.ProofReference parseFrom(
+                com.google.protobuf.ByteString data,
+                com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+                throws com.google.protobuf.InvalidProtocolBufferException {
+            return PARSER.parseFrom(data, extensionRegistry);
+        }
+
+        public static org.smartcolors.protos.Protos.ProofReference parseFrom(byte[] data)
+                throws com.google.protobuf.InvalidProtocolBufferException {
+            return PARSER.parseFrom(data);
+        }
+
+        public static org.smartcolors.protos.Protos.ProofReference parseFrom(
+                byte[] data,
+                com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+                throws com.google.protobuf.InvalidProtocolBufferException {
+            return PARSER.parseFrom(data, extensionRegistry);
+        }
+
+        public static org.smartcolors.protos.Protos.ProofReference parseFrom(java.io.InputStream input)
+                throws java.io.IOException {
+            return PARSER.parseFrom(input);
+        }
+
+        public static org.smartcolors.protos.Protos.ProofReference parseFrom(
+                java.io.InputStream input,
+                com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+                throws java.io.IOException {
+            return PARSER.parseFrom(input, extensionRegistry);
+        }
+
+        public static org.smartcolors.protos.Protos.ProofReference parseDelimitedFrom(java.io.InputStream input)
+                throws java.io.IOException {
+            return PARSER.parseDelimitedFrom(input);
+        }
+
+        public static org.smartcolors.protos.Protos.ProofReference parseDelimitedFrom(
+                java.io.InputStream input,
+                com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+                throws java.io.IOException {
+            return PARSER.parseDelimitedFrom(input, extensionRegistry);
+        }
+
+        public static org.smartcolors.protos.Protos.ProofReference parseFrom(
+                com.google.protobuf.CodedInputStream input)
+                throws java.io.IOException {
+            return PARSER.parseFrom(input);
+        }
+
+        public static org.smartcolors.protos.Protos.ProofReference parseFrom(
+                com.google.protobuf.CodedInputStream input,
+                com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+                throws java.io.IOException {
+            return PARSER.parseFrom(input, extensionRegistry);
+        }
+
+        public static Builder newBuilder() {
+            return Builder.create();
+        }
+
+        public Builder newBuilderForType() {
+            return newBuilder();
+        }
+
+        public static Builder newBuilder(org.smartcolors.protos.Protos.ProofReference prototype) {
+            return newBuilder().mergeFrom(prototype);
+        }
+
+        public Builder toBuilder() {
+            return newBuilder(this);
+        }
+
+        @java.lang.Override
+        protected Builder newBuilderForType(
+                com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+            Builder builder = new Builder(parent);
+            return builder;
+        }
+
+        /**
+         * Protobuf type {@code smartcolors.ProofReference}
+         */
+        public static final class Builder extends
+                com.google.protobuf.GeneratedMessage.Builder<Builder>
+                implements org.smartcolors.protos.Protos.ProofReferenceOrBuilder {
+            public static final com.google.protobuf.Descriptors.Descriptor
+            getDescriptor() {
+                return org.smartcolors.protos.Protos.internal_static_smartcolors_ProofReference_descriptor;
+            }
+
+            protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+            internalGetFieldAccessorTable() {
+                return org.smartcolors.protos.Protos.internal_static_smartcolors_ProofReference_fieldAccessorTable
+                        .ensureFieldAccessorsInitialized(
+                                org.smartcolors.protos.Protos.ProofReference.class, org.smartcolors.protos.Protos.ProofReference.Builder.class);
+            }
+
+            // Construct using org.smartcolors.protos.Protos.ProofReference.newBuilder()
+            private Builder() {
+                maybeForceBuilderInitialization();
+            }
+
+            private Builder(
+                    com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+                super(parent);
+                maybeForceBuilderInitialization();
+            }
+
+            private void maybeForceBuilderInitialization() {
+                if (com.google.protobuf.GeneratedMessage.alwaysUseFieldBuilders) {
+                }
+            }
+
+            private static Builder create() {
+                return new Builder();
+            }
+
+            public Builder clear() {
+                super.clear();
+                outpoint_ = com.google.protobuf.ByteString.EMPTY;
+                bitField0_ = (bitField0_ & ~0x00000001);
+                proofHash_ = com.google.protobuf.ByteString.EMPTY;
+                bitField0_ = (bitField0_ & ~0x00000002);
+                return this;
+            }
+
+            public Builder clone() {
+                return create().mergeFrom(buildPartial());
+            }
+
+            public com.google.protobuf.Descriptors.Descriptor
+            getDescriptorForType() {
+                return org.smartcolors.protos.Protos.internal_static_smartcolors_ProofReference_descriptor;
+            }
+
+            public org.smartcolors.protos.Protos.ProofReference getDefaultInstanceForType() {
+                return org.smartcolors.protos.Protos.ProofReference.getDefaultInstance();
+            }
+
+            public org.smartcolors.protos.Protos.ProofReference build() {
+                org.smartcolors.protos.Protos.ProofReference result = buildPartial();
+                if (!result.isInitialized()) {
+                    throw newUninitializedMessageException(result);
+                }
+                return result;
+            }
+
+            public org.smartcolors.protos.Protos.ProofReference buildPartial() {
+                org.smartcolors.protos.Protos.ProofReference result = new org.smartcolors.protos.Protos.ProofReference(this);
+                int from_bitField0_ = bitField0_;
+                int to_bitField0_ = 0;
+                if (((from_bitField0_ & 0x00000001) == 0x00000001)) {
+                    to_bitField0_ |= 0x00000001;
+                }
+                result.outpoint_ = outpoint_;
+                if (((from_bitField0_ & 0x00000002) == 0x00000002)) {
+                    to_bitField0_ |= 0x00000002;
+                }
+                result.proofHash_ = proofHash_;
+                result.bitField0_ = to_bitField0_;
+                onBuilt();
+                return result;
+            }
+
+            public Builder mergeFrom(com.google.protobuf.Message other) {
+                if (other instanceof org.smartcolors.protos.Protos.ProofReference) {
+                    return mergeFrom((org.smartcolors.protos.Protos.ProofReference) other);
+                } else {
+                    super.mergeFrom(other);
+                    return this;
+                }
+            }
+
+            public Builder mergeFrom(org.smartcolors.protos.Protos.ProofReference other) {
+                if (other == org.smartcolors.protos.Protos.ProofReference.getDefaultInstance()) return this;
+                if (other.hasOutpoint()) {
+                    setOutpoint(other.getOutpoint());
+                }
+                if (other.hasProofHash()) {
+                    setProofHash(other.getProofHash());
+                }
+                this.mergeUnknownFields(other.getUnknownFields());
+                return this;
+            }
+
+            public final boolean isInitialized() {
+                if (!hasOutpoint()) {
+
+                    return false;
+                }
+                if (!hasProofHash()) {
+
+                    return false;
+                }
+                return true;
+            }
+
+            public Builder mergeFrom(
+                    com.google.protobuf.CodedInputStream input,
+                    com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+                    throws java.io.IOException {
+                org.smartcolors.protos.Protos.ProofReference parsedMessage = null;
+                try {
+                    parsedMessage = PARSER.parsePartialFrom(input, extensionRegistry);
+                } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+                    parsedMessage = (org.smartcolors.protos.Protos.ProofReference) e.getUnfinishedMessage();
+                    throw e;
+                } finally {
+                    if (parsedMessage != null) {
+                        mergeFrom(parsedMessage);
+                    }
+                }
+                return this;
+            }
+
+            private int bitField0_;
+
+            // required bytes outpoint = 1;
+            private com.google.protobuf.ByteString outpoint_ = com.google.protobuf.ByteString.EMPTY;
+
+            /**
+             * <code>required bytes outpoint = 1;</code>
+             * <p/>
+             * <pre>
+             * Bitcoin serialized outpoint
+             * </pre>
+             */
+            public boolean hasOutpoint() {
+                return ((bitField0_ & 0x00000001) == 0x00000001);
+            }
+
+            /**
+             * <code>required bytes outpoint = 1;</code>
+             * <p/>
+             * <pre>
+             * Bitcoin serialized outpoint
+             * </pre>
+             */
+            public com.google.protobuf.ByteString getOutpoint() {
+                return outpoint_;
+            }
+
+            /**
+             * <code>required bytes outpoint = 1;</code>
+             * <p/>
+             * <pre>
+             * Bitcoin serialized outpoint
+             * </pre>
+             */
+            public Builder setOutpoint(com.google.protobuf.ByteString value) {
+                if (value == null) {
+                    throw new NullPointerException();
+                }
+                bitField0_ |= 0x00000001;
+                outpoint_ = value;
+                onChanged();
+                return this;
+            }
+
+            /**
+             * <code>required bytes outpoint = 1;</code>
+             * <p/>
+             * <pre>
+             * Bitcoin serialized outpoint
+             * </pre>
+             */
+            public Builder clearOutpoint() {
+                bitField0_ = (bitField0_ & ~0x00000001);
+                outpoint_ = getDefaultInstance().getOutpoint();
+                onChanged();
+                return this;
+            }
+
+            // required bytes proof_hash = 2;
+            private com.google.protobuf.ByteString proofHash_;
+
+            /**
+             * <code>required bytes proof_hash = 2;</code>
+             * <p/>
+             * <pre>
+             * Hash of the proof in the proof store
+             * </pre>
+             */
+            public boolean hasProofHash() {
+                return ((bitField0_ & 0x00000002) == 0x00000002);
+            }
+
+            /**
+             * <code>required bytes proof_hash = 2;</code>
+             * <p/>
+             * <pre>
+             * Hash of the proof in the proof store
+             * </pre>
+             */
+            public com.google.protobuf.ByteString getProofHash() {
+                return proofHash_;
+            }
+
+            /**
+             * <code>required bytes proof_hash = 2;</code>
+             * <p/>
+             * <pre>
+             * Hash of the proof in the proof store
+             * </pre>
+             */
+            public Builder setProofHash(com.google.protobuf.ByteString value) {
+                if (value == null) {
+                    throw new NullPointerException();
+                }
+                bitField0_ |= 0x00000002;
+                proofHash_ = value;
+                onChanged();
+                return this;
+            }
+
+            /**
+             * <code>required bytes proof_hash = 2;</code>
+             * <p/>
+             * <pre>
+             * Hash of the proof in the proof store
+             * </pre>
+             */
+            public Builder clearProofHash() {
+                bitField0_ = (bitField0_ & ~0x00000002);
+                proofHash_ = getDefaultInstance().getProofHash();
+                onChanged();
+                return this;
+            }
+
+            // @@protoc_insertion_point(builder_scope:smartcolors.ProofReference)
+        }
+
+        static {
+            defaultInstance = new ProofReference(true);
+            defaultInstance.initFields();
+        }
+
+        // @@protoc_insertion_point(class_scope:smartcolors.ProofReference)
+    }
+
+    private static com.google.protobuf.Descriptors.Descriptor
+            internal_static_smartcolors_SortedTransaction_descriptor;
+    private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+            internal_static_smartcolors_SortedTransaction_fieldAccessorTable;
+    private static com.google.protobuf.Descriptors.Descriptor
+            internal_static_smartcolors_BlockToSortedTransaction_descriptor;
+    private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+            internal_static_smartcolors_BlockToSortedTransaction_fieldAccessorTable;
+    private static com.google.protobuf.Descriptors.Descriptor
+            internal_static_smartcolors_OutPointValue_descriptor;
+    private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+            internal_static_smartcolors_OutPointValue_fieldAccessorTable;
+    private static com.google.protobuf.Descriptors.Descriptor
+            internal_static_smartcolors_ColorDefinition_descriptor;
+    private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+            internal_static_smartcolors_ColorDefinition_fieldAccessorTable;
+    private static com.google.protobuf.Descriptors.Descriptor
+            internal_static_smartcolors_ColorProof_descriptor;
+    private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+            internal_static_smartcolors_ColorProof_fieldAccessorTable;
+    private static com.google.protobuf.Descriptors.Descriptor
+            internal_static_smartcolors_ColorTrack_descriptor;
+    private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+            internal_static_smartcolors_ColorTrack_fieldAccessorTable;
+    private static com.google.protobuf.Descriptors.Descriptor
+            internal_static_smartcolors_ColorScanner_descriptor;
+    private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+            internal_static_smartcolors_ColorScanner_fieldAccessorTable;
+    private static com.google.protobuf.Descriptors.Descriptor
+            internal_static_smartcolors_ProofReference_descriptor;
+    private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+            internal_static_smartcolors_ProofReference_fieldAccessorTable;
+
+    public static com.google.protobuf.Descriptors.FileDescriptor
+    getDescriptor() {
+        return descriptor;
+    }
+
+    private static com.google.protobuf.Descriptors.FileDescriptor
+            descriptor;
+
+    static {
+        java.lang.String[] descriptorData = {
+                "\n\rscanner.proto\022\013smartcolors\"7\n\021SortedTr" +
+                        "ansaction\022\023\n\013transaction\030\001 \002(\014\022\r\n\005index\030" +
+                        "\002 \002(\r\"c\n\030BlockToSortedTransaction\022\022\n\nblo" +
+                        "ck_hash\030\001 \002(\014\0223\n\013transaction\030\002 \002(\0132\036.sma" +
+                        "rtcolors.SortedTransaction\";\n\rOutPointVa" +
+                        "lue\022\014\n\004hash\030\001 \002(\014\022\r\n\005index\030\002 \002(\004\022\r\n\005valu" +
+                        "e\030\003 \002(\004\"-\n\017ColorDefinition\022\014\n\004hash\030\001 \002(\014" +
+                        "\022\014\n\004json\030\002 \001(\t\"\032\n\nColorProof\022\014\n\004body\030\001 \002" +
+                        "(\014\"\263\002\n\nColorTrack\0226\n\020color_definition\030\001 " +
+                        "\002(\0132\034.smartcolors.ColorDefinition\022+\n\007out",
+                "puts\030\002 \003(\0132\032.smartcolors.OutPointValue\0223" +
+                        "\n\017unspent_outputs\030\003 \003(\0132\032.smartcolors.Ou" +
+                        "tPointValue\022+\n\003txs\030\004 \003(\0132\036.smartcolors.S" +
+                        "ortedTransaction\022\'\n\006proofs\030\n \003(\0132\027.smart" +
+                        "colors.ColorProof\0225\n\020proof_references\030\013 " +
+                        "\003(\0132\033.smartcolors.ProofReference\"\215\001\n\014Col" +
+                        "orScanner\022C\n\024block_to_transaction\030\001 \003(\0132" +
+                        "%.smartcolors.BlockToSortedTransaction\022\'" +
+                        "\n\006tracks\030\002 \003(\0132\027.smartcolors.ColorTrack\022" +
+                        "\017\n\007pending\030\003 \003(\014\"6\n\016ProofReference\022\020\n\010ou",
+                "tpoint\030\001 \002(\014\022\022\n\nproof_hash\030\002 \002(\014B \n\026org." +
+                        "smartcolors.protosB\006Protos"
+        };
+        com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner assigner =
+                new com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner() {
+                    public com.google.protobuf.ExtensionRegistry assignDescriptors(
+                            com.google.protobuf.Descriptors.FileDescriptor root) {
+                        descriptor = root;
+                        internal_static_smartcolors_SortedTransaction_descriptor =
+                                getDescriptor().getMessageTypes().get(0);
+                        internal_static_smartcolors_SortedTransaction_fieldAccessorTable = new
+                                com.google.protobuf.GeneratedMessage.FieldAccessorTable(
+                                internal_static_smartcolors_SortedTransaction_descriptor,
+                                new java.lang.String[]{"Transaction", "Index",});
+                        internal_static_smartcolors_BlockToSortedTransaction_descriptor =
+                                getDescriptor().getMessageTypes().get(1);
+                        internal_static_smartcolors_BlockToSortedTransaction_fieldAccessorTable = new
+                                com.google.protobuf.GeneratedMessage.FieldAccessorTable(
+                                internal_static_smartcolors_BlockToSortedTransaction_descriptor,
+                                new java.lang.String[]{"BlockHash", "Transaction",});
+                        internal_static_smartcolors_OutPointValue_descriptor =
+                                getDescriptor().getMessageTypes().get(2);
+                        internal_static_smartcolors_OutPointValue_fieldAccessorTable = new
+                                com.google.protobuf.GeneratedMessage.FieldAccessorTable(
+                                internal_static_smartcolors_OutPointValue_descriptor,
+                                new java.lang.String[]{"Hash", "Index", "Value",});
+                        internal_static_smartcolors_ColorDefinition_descriptor =
+                                getDescriptor().getMessageTypes().get(3);
+                        internal_static_smartcolors_ColorDefinition_fieldAccessorTable = new
+                                com.google.protobuf.GeneratedMessage.FieldAccessorTable(
+                                internal_static_smartcolors_ColorDefinition_descriptor,
                                 new java.lang.String[]{"Hash", "Json",});
                         internal_static_smartcolors_ColorProof_descriptor =
                                 getDescriptor().getMessageTypes().get(4);
@@ -6678,13 +7815,19 @@ public final class Protos {
                         internal_static_smartcolors_ColorTrack_fieldAccessorTable = new
                                 com.google.protobuf.GeneratedMessage.FieldAccessorTable(
                                 internal_static_smartcolors_ColorTrack_descriptor,
-                                new java.lang.String[]{"ColorDefinition", "Outputs", "UnspentOutputs", "Txs", "Proofs",});
+                                new java.lang.String[]{"ColorDefinition", "Outputs", "UnspentOutputs", "Txs", "Proofs", "ProofReferences",});
                         internal_static_smartcolors_ColorScanner_descriptor =
                                 getDescriptor().getMessageTypes().get(6);
                         internal_static_smartcolors_ColorScanner_fieldAccessorTable = new
                                 com.google.protobuf.GeneratedMessage.FieldAccessorTable(
                                 internal_static_smartcolors_ColorScanner_descriptor,
                                 new java.lang.String[]{"BlockToTransaction", "Tracks", "Pending",});
+                        internal_static_smartcolors_ProofReference_descriptor =
+                                getDescriptor().getMessageTypes().get(7);
+                        internal_static_smartcolors_ProofReference_fieldAccessorTable = new
+                                com.google.protobuf.GeneratedMessage.FieldAccessorTable(
+                                internal_static_smartcolors_ProofReference_descriptor,
+                                new java.lang.String[]{"Outpoint", "ProofHash",});
                         return null;
                     }
                 };
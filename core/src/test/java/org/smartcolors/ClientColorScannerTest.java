@@ -2,9 +2,13 @@ package org.smartcolors;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.hash.HashCode;
+import com.google.common.io.Files;
 import com.google.common.util.concurrent.ListenableFuture;
 import org.apache.http.ProtocolVersion;
 import org.apache.http.client.methods.CloseableHttpResponse;
@@ -13,6 +17,7 @@ import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.message.BasicStatusLine;
 import org.bitcoinj.core.*;
+import org.bitcoinj.script.Script;
 import org.bitcoinj.testing.FakeTxBuilder;
 import org.bitcoinj.wallet.DeterministicKeyChain;
 import org.bitcoinj.wallet.KeyChain;
@@ -25,14 +30,19 @@ import org.junit.Test;
 import org.smartcolors.core.*;
 import org.smartcolors.protos.Protos;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.security.SecureRandom;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.easymock.EasyMock.*;
 import static org.junit.Assert.*;
@@ -100,6 +110,14 @@ public class ClientColorScannerTest extends ColorTest {
         scanner.onTransaction(multiWallet, tx2);
         assertEquals(1, scanner.pending.size());
         verify(fetchService);
+
+        ScannerSnapshot snapshot1 = scanner.snapshot();
+        assertEquals(1, snapshot1.getPending().size());
+        // Unchanged pending transactions are shared between snapshots
+        track.add(new GenesisOutPointColorProof(def, genesisTx.getOutput(0).getOutPointFor()));
+        ScannerSnapshot snapshot2 = scanner.snapshot();
+        assertTrue(snapshot2.getVersion() > snapshot1.getVersion());
+        assertSame(snapshot1.getPending(), snapshot2.getPending());
     }
 
     @Test
@@ -113,21 +131,24 @@ public class ClientColorScannerTest extends ColorTest {
         expect(proof.getHash()).andStubReturn(HashCode.fromBytes(new byte[32]));
         expect(proof.getOutPoint()).andStubReturn(tx2.getOutput(0).getOutPointFor());
         expect(proof.getQuantity()).andStubReturn(10L);
+        // Once in the parse stage, and again (cached) when added to the track
         proof.validate();
-        expectLastCall();
+        expectLastCall().times(2);
         fetcher.stop();
         expectLastCall().asStub();
         scanner.setFetcher(fetcher);
 
         final TransactionOutPoint point = tx2.getOutput(0).getOutPointFor();
         final CyclicBarrier barrier = new CyclicBarrier(2);
-        expect(fetcher.fetch(point)).andStubAnswer(new IAnswer<ColorProof>() {
+        final ClientColorScanner.OutPointResponse response = new ClientColorScanner.OutPointResponse();
+        expect(fetcher.fetchResponses(Lists.newArrayList(point))).andStubAnswer(new IAnswer<Map<TransactionOutPoint, ClientColorScanner.OutPointResponse>>() {
             @Override
-            public ColorProof answer() throws Throwable {
+            public Map<TransactionOutPoint, ClientColorScanner.OutPointResponse> answer() throws Throwable {
                 barrier.await();
-                return proof;
+                return ImmutableMap.of(point, response);
             }
         });
+        expect(fetcher.parse(response)).andStubReturn(ImmutableList.of(proof));
         replay(fetcher, proof);
         wallet.receiveFromBlock(tx2, FakeTxBuilder.createFakeBlock(blockStore, tx2).storedBlock, AbstractBlockChain.NewBlockType.BEST_CHAIN, 0);
         scanner.onTransaction(multiWallet, tx2);
@@ -157,6 +178,100 @@ public class ClientColorScannerTest extends ColorTest {
         assertEquals(10L, (long) values.get(def));
     }
 
+    @Test
+    public void runningBalances() throws Exception {
+        scanner.start(multiWallet);
+        ColorDefinition bitcoin = scanner.getBitcoinDefinition();
+        assertEquals(0L, (long) scanner.getBalances(multiWallet, colorChain).get(bitcoin));
+
+        Transaction tx3 = new Transaction(params);
+        tx3.addOutput(Coin.CENT, wallet.currentKey(KeyChain.KeyPurpose.RECEIVE_FUNDS));
+        wallet.receiveFromBlock(tx3, FakeTxBuilder.createFakeBlock(blockStore, tx3).storedBlock, AbstractBlockChain.NewBlockType.BEST_CHAIN, 0);
+        assertEquals(Coin.CENT.getValue(), (long) scanner.getBalances(multiWallet, colorChain).get(bitcoin));
+
+        // Pending from the network, so estimated but not available
+        Transaction tx4 = new Transaction(params);
+        tx4.addOutput(Coin.COIN, wallet.currentKey(KeyChain.KeyPurpose.RECEIVE_FUNDS));
+        wallet.receivePending(tx4, Lists.<Transaction>newArrayList());
+        assertEquals(Coin.CENT.add(Coin.COIN).getValue(), (long) scanner.getBalances(multiWallet, colorChain).get(bitcoin));
+        assertEquals(Coin.CENT.getValue(), (long) scanner.getBalances(multiWallet, colorChain, Wallet.BalanceType.AVAILABLE).get(bitcoin));
+
+        // Reading from scratch agrees
+        scanner.reset();
+        assertEquals(Coin.CENT.add(Coin.COIN).getValue(), (long) scanner.getBalances(multiWallet, colorChain).get(bitcoin));
+    }
+
+    @Test
+    public void runningBalancesIncremental() throws Exception {
+        final int[] scans = {0};
+        multiWallet = new TestMultiWallet(wallet) {
+            @Override
+            public List<TransactionOutput> calculateAllSpendCandidates(boolean excludeImmatureCoinbases, boolean excludeUnsignable) {
+                scans[0]++;
+                return super.calculateAllSpendCandidates(excludeImmatureCoinbases, excludeUnsignable);
+            }
+        };
+        scanner.start(multiWallet);
+        ColorDefinition bitcoin = scanner.getBitcoinDefinition();
+        assertEquals(0L, (long) scanner.getBalances(multiWallet, colorChain).get(bitcoin));
+        assertEquals(1, scans[0]);
+
+        Transaction tx4 = new Transaction(params);
+        tx4.addOutput(Coin.COIN, wallet.currentKey(KeyChain.KeyPurpose.RECEIVE_FUNDS));
+        wallet.receivePending(tx4, Lists.<Transaction>newArrayList());
+        assertEquals(Coin.COIN.getValue(), (long) scanner.getBalances(multiWallet, colorChain).get(bitcoin));
+        assertEquals(0L, (long) scanner.getBalances(multiWallet, colorChain, Wallet.BalanceType.AVAILABLE).get(bitcoin));
+
+        // Confirmation and new blocks only touch the outputs they affect
+        wallet.receiveFromBlock(tx4, FakeTxBuilder.createFakeBlock(blockStore, tx4).storedBlock, AbstractBlockChain.NewBlockType.BEST_CHAIN, 0);
+        assertEquals(Coin.COIN.getValue(), (long) scanner.getBalances(multiWallet, colorChain, Wallet.BalanceType.AVAILABLE).get(bitcoin));
+        Transaction tx5 = new Transaction(params);
+        tx5.addOutput(Coin.CENT, wallet.currentKey(KeyChain.KeyPurpose.RECEIVE_FUNDS));
+        wallet.receiveFromBlock(tx5, FakeTxBuilder.createFakeBlock(blockStore, tx5).storedBlock, AbstractBlockChain.NewBlockType.BEST_CHAIN, 0);
+        assertEquals(Coin.COIN.add(Coin.CENT).getValue(), (long) scanner.getBalances(multiWallet, colorChain, Wallet.BalanceType.AVAILABLE).get(bitcoin));
+        assertEquals(1, scans[0]);
+
+        // A reset computes them in full
+        scanner.reset();
+        assertEquals(Coin.COIN.add(Coin.CENT).getValue(), (long) scanner.getBalances(multiWallet, colorChain).get(bitcoin));
+        assertEquals(2, scans[0]);
+    }
+
+    @Test
+    public void snapshot() throws Exception {
+        scanner.start(multiWallet);
+        ColorDefinition bitcoin = scanner.getBitcoinDefinition();
+        Transaction tx3 = new Transaction(params);
+        tx3.addOutput(Coin.CENT, wallet.currentKey(KeyChain.KeyPurpose.RECEIVE_FUNDS));
+        wallet.receiveFromBlock(tx3, FakeTxBuilder.createFakeBlock(blockStore, tx3).storedBlock, AbstractBlockChain.NewBlockType.BEST_CHAIN, 0);
+        ScannerSnapshot snapshot1 = scanner.snapshot();
+        assertEquals(Coin.CENT.getValue(), (long) snapshot1.getBalances(Wallet.BalanceType.ESTIMATED).get(bitcoin));
+        assertEquals(1, snapshot1.getUnspent().size());
+        assertTrue(snapshot1.getOutputs(def).isEmpty());
+
+        GenesisOutPointColorProof genesisProof = new GenesisOutPointColorProof(def, genesisTx.getOutput(0).getOutPointFor());
+        track.add(genesisProof);
+        Transaction tx4 = new Transaction(params);
+        tx4.addOutput(Coin.COIN, wallet.currentKey(KeyChain.KeyPurpose.RECEIVE_FUNDS));
+        wallet.receiveFromBlock(tx4, FakeTxBuilder.createFakeBlock(blockStore, tx4).storedBlock, AbstractBlockChain.NewBlockType.BEST_CHAIN, 0);
+        ScannerSnapshot snapshot2 = scanner.snapshot();
+        assertTrue(snapshot2.getVersion() > snapshot1.getVersion());
+        assertEquals(Coin.CENT.add(Coin.COIN).getValue(), (long) snapshot2.getBalances(Wallet.BalanceType.ESTIMATED).get(bitcoin));
+        assertTrue(snapshot2.contains(genesisTx.getOutput(0).getOutPointFor()));
+
+        // The earlier snapshot is unaffected, and unchanged tracks are shared
+        assertEquals(Coin.CENT.getValue(), (long) snapshot1.getBalances(Wallet.BalanceType.ESTIMATED).get(bitcoin));
+        assertFalse(snapshot1.contains(genesisTx.getOutput(0).getOutPointFor()));
+        // Nothing changed, so the same snapshot is handed out without locking
+        assertSame(snapshot2, scanner.snapshot());
+        Transaction tx5 = new Transaction(params);
+        tx5.addOutput(Coin.CENT, wallet.currentKey(KeyChain.KeyPurpose.RECEIVE_FUNDS));
+        wallet.receiveFromBlock(tx5, FakeTxBuilder.createFakeBlock(blockStore, tx5).storedBlock, AbstractBlockChain.NewBlockType.BEST_CHAIN, 0);
+        ScannerSnapshot snapshot3 = scanner.snapshot();
+        assertTrue(snapshot3.getVersion() > snapshot2.getVersion());
+        assertSame(snapshot2.getOutputs(def), snapshot3.getOutputs(def));
+    }
+
     @Test
     public void testGetNetAssetChange() throws Exception {
         GenesisOutPointColorProof genesisProof = new GenesisOutPointColorProof(def, genesisTx.getOutput(0).getOutPointFor());
@@ -254,6 +369,41 @@ public class ClientColorScannerTest extends ColorTest {
         expected.put(def, 5L);
     }
 
+    @Test
+    public void kernelCache() throws Exception {
+        // Another definition, which does not color the transaction
+        Map<TransactionOutPoint, Long> otherGenesis = Maps.newHashMap();
+        otherGenesis.put(new TransactionOutPoint(params, 0, Sha256Hash.of(new byte[]{1})), 10L);
+        scanner.addDefinition(new ColorDefinition(params, new GenesisOutPointsMerbinnerTree(params, otherGenesis), new GenesisScriptMerbinnerTree()));
+        Transaction tx2 = makeTx2(colorKey);
+        KernelCache cache = scanner.getKernelCache();
+        Map<ColorDefinition, Long> expected = Maps.newHashMap();
+        expected.put(scanner.getUnknownDefinition(), 5L);
+        assertEquals(expected, scanner.getNetAssetChange(tx2, multiWallet, colorChain));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        // One entry for the transaction, whatever the number of definitions
+        assertEquals(1, cache.size());
+
+        // Input becomes colored - cached uncolored result must be dropped
+        GenesisOutPointColorProof genesisProof = new GenesisOutPointColorProof(def, genesisTx.getOutput(0).getOutPointFor());
+        track.add(genesisProof);
+        assertEquals(0, cache.size());
+        expected.clear();
+        expected.put(def, 5L);
+        assertEquals(expected, scanner.getNetAssetChange(tx2, multiWallet, colorChain));
+        assertEquals(2, cache.getMissCount());
+        assertEquals(expected, scanner.getNetAssetChange(tx2, multiWallet, colorChain));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, cache.size());
+        assertEquals(5L, (long) cache.get(tx2).get(def, 0));
+
+        // Removing the coloring definition drops its results
+        assertTrue(scanner.removeDefinition(def));
+        assertEquals(0, cache.size());
+    }
+
     @Test
     public void testGetNetAssetChangeUnconfirmedWithUnknownDependency() throws Exception {
         scanner.start(multiWallet);
@@ -261,19 +411,21 @@ public class ClientColorScannerTest extends ColorTest {
         fetcher.stop();
         expectLastCall().asStub();
         scanner.setFetcher(fetcher);
-        TransactionOutPoint point = genesisTx.getOutput(0).getOutPointFor();
+        final TransactionOutPoint point = genesisTx.getOutput(0).getOutPointFor();
         final GenesisOutPointColorProof genesisProof = new GenesisOutPointColorProof(def, point);
         proofs.put(point, genesisProof);
         // We don't put the genesis in the track so that we get a fetch for it
 
         final CyclicBarrier barrier = new CyclicBarrier(2);
-        expect(fetcher.fetch(point)).andStubAnswer(new IAnswer<ColorProof>() {
+        final ClientColorScanner.OutPointResponse response = new ClientColorScanner.OutPointResponse();
+        expect(fetcher.fetchResponses(Lists.newArrayList(point))).andStubAnswer(new IAnswer<Map<TransactionOutPoint, ClientColorScanner.OutPointResponse>>() {
             @Override
-            public ColorProof answer() throws Throwable {
+            public Map<TransactionOutPoint, ClientColorScanner.OutPointResponse> answer() throws Throwable {
                 barrier.await();
-                return genesisProof;
+                return ImmutableMap.of(point, response);
             }
         });
+        expect(fetcher.parse(response)).andStubReturn(ImmutableList.<ColorProof>of(genesisProof));
         replay(fetcher);
 
         Transaction tx2 = makeTx2(colorKey);
@@ -299,6 +451,17 @@ public class ClientColorScannerTest extends ColorTest {
         String fixture = FixtureHelpers.fixture("tracker1.json");
         ClientColorScanner.OutPointResponse res =
                 mapper.readValue(fixture, ClientColorScanner.OutPointResponse.class);
+        assertEquals("COLORED", res.status);
+        assertEquals(1, res.proofs.size());
+
+        // Proofs for all definitions are kept
+        res = mapper.readValue("{\"status\":\"COLORED\", \"extra\":[1,{}], \"proofs\":{\"00\":{\"01\":\"AQI=\"}, \"02\":{\"03\":\"AwQ=\", \"04\":\"BQ==\"}}}",
+                ClientColorScanner.OutPointResponse.class);
+        assertEquals(3, res.proofs.size());
+        assertArrayEquals(new byte[]{3, 4}, res.proofs.get(1));
+
+        res = mapper.readValue("{\"status\":\"NOT_KNOWN\", \"proofs\":null}", ClientColorScanner.OutPointResponse.class);
+        assertNull(res.proofs);
     }
 
     // Ad-hoc manual test
@@ -423,6 +586,260 @@ public class ClientColorScannerTest extends ColorTest {
         verify(client, response);
     }
 
+    @Test
+    public void fetcherBatch() throws Exception {
+        StandInTracker tracker = new StandInTracker();
+        tracker.start();
+        try {
+            TransactionOutPoint point = genesisTx.getOutput(0).getOutPointFor();
+            TransactionOutPoint uncolored = new TransactionOutPoint(params, 123, Sha256Hash.of(new byte[]{0, 1, 2, 3}));
+            GenesisOutPointColorProof proof = new GenesisOutPointColorProof(def, point);
+            tracker.put(point, proof);
+            ClientColorScanner.Fetcher fetcher = new ClientColorScanner.Fetcher(tracker.getBase(), params);
+
+            Map<TransactionOutPoint, List<ColorProof>> res = fetcher.fetch(Lists.newArrayList(point, uncolored));
+            assertEquals(1, tracker.getRequestCount());
+            assertEquals(2, res.size());
+            assertEquals(proof.getHash(), res.get(point).get(0).getHash());
+            assertTrue(res.get(uncolored).isEmpty());
+
+            // Falls back to one request per outpoint
+            tracker.setBatchSupported(false);
+            res = fetcher.fetch(Lists.newArrayList(point, uncolored));
+            assertEquals(1 + 1 + 2, tracker.getRequestCount());
+            assertEquals(proof.getHash(), res.get(point).get(0).getHash());
+            fetcher.stop();
+        } finally {
+            tracker.stop();
+        }
+    }
+
+    @Test
+    public void fetcherResponseCache() throws Exception {
+        StandInTracker tracker = new StandInTracker();
+        tracker.start();
+        File dir = Files.createTempDir();
+        try {
+            TransactionOutPoint point = genesisTx.getOutput(0).getOutPointFor();
+            GenesisOutPointColorProof proof = new GenesisOutPointColorProof(def, point);
+            tracker.put(point, proof);
+            ClientColorScanner.Fetcher fetcher = new ClientColorScanner.Fetcher(tracker.getBase(), params);
+            fetcher.setResponseCache(new ResponseCache(dir));
+
+            assertEquals(proof.getHash(), fetcher.fetch(point).getHash());
+            assertEquals(1, tracker.getRequestCount());
+
+            // Revalidated
+            assertEquals(proof.getHash(), fetcher.fetch(point).getHash());
+            assertEquals(2, tracker.getRequestCount());
+            assertEquals(1, tracker.getNotModifiedCount());
+
+            // Buried proofs are made immutable by their next fetch, which revalidates them once more
+            fetcher.markBuried(point);
+            assertEquals(proof.getHash(), fetcher.fetch(point).getHash());
+            assertEquals(3, tracker.getRequestCount());
+            assertEquals(2, tracker.getNotModifiedCount());
+
+            // Then they survive a restart and are served without asking
+            fetcher.setResponseCache(new ResponseCache(dir));
+            assertEquals(proof.getHash(), fetcher.fetch(point).getHash());
+            assertEquals(3, tracker.getRequestCount());
+
+            // Evicted beyond the size limit
+            ResponseCache small = new ResponseCache(dir, 1);
+            assertEquals(0, small.size());
+            fetcher.stop();
+        } finally {
+            tracker.stop();
+        }
+    }
+
+    @Test
+    public void fetcherServers() throws Exception {
+        StandInTracker failing = new StandInTracker();
+        StandInTracker slow = new StandInTracker();
+        StandInTracker fast = new StandInTracker();
+        failing.setFailing(true);
+        slow.setLatency(5000);
+        TransactionOutPoint point = genesisTx.getOutput(0).getOutPointFor();
+        GenesisOutPointColorProof proof = new GenesisOutPointColorProof(def, point);
+        for (StandInTracker tracker : ImmutableList.of(failing, slow, fast)) {
+            tracker.put(point, proof);
+            tracker.start();
+        }
+        try {
+            // Failures go to the next server at once, and demote the server
+            ClientColorScanner.Fetcher fetcher =
+                    new ClientColorScanner.Fetcher(ImmutableList.of(failing.getBase(), fast.getBase()), params);
+            assertEquals(proof.getHash(), fetcher.fetch(point).getHash());
+            assertEquals(1, failing.getRequestCount());
+            assertEquals(proof.getHash(), fetcher.fetch(point).getHash());
+            assertEquals(1, failing.getRequestCount());
+            assertEquals(2, fast.getRequestCount());
+            assertTrue(fetcher.getServers().get(0).getFailureRate() > 0);
+            fetcher.stop();
+
+            // Slow requests are hedged
+            fetcher = new ClientColorScanner.Fetcher(ImmutableList.of(slow.getBase(), fast.getBase()), params);
+            long start = System.currentTimeMillis();
+            assertEquals(proof.getHash(), fetcher.fetch(point).getHash());
+            assertTrue(System.currentTimeMillis() - start < 5000);
+            assertEquals(1, fetcher.getHedgedCount());
+            fetcher.stop();
+
+            // Stopping shuts the hedge threads down, and the fetcher can be used again
+            start = System.currentTimeMillis();
+            assertEquals(proof.getHash(), fetcher.fetch(point).getHash());
+            assertTrue(System.currentTimeMillis() - start < 5000);
+            fetcher.stop();
+        } finally {
+            failing.stop();
+            slow.stop();
+            fast.stop();
+        }
+    }
+
+    @Test
+    public void requestLimits() throws Exception {
+        final long[] now = {0};
+        Ticker ticker = new Ticker() {
+            @Override
+            public long read() {
+                return now[0];
+            }
+        };
+        TokenBucket bucket = new TokenBucket(10, 2, ticker);
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+        assertEquals(101, bucket.getMillisUntilAvailable());
+        now[0] += TimeUnit.MILLISECONDS.toNanos(101);
+        assertTrue(bucket.tryAcquire());
+
+        CircuitBreaker breaker = new CircuitBreaker(2, 1000, 3000, ticker);
+        breaker.onFailure();
+        assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        now[0] += TimeUnit.SECONDS.toNanos(1);
+        // A single trial
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        breaker.onFailure();
+        assertEquals(2001, breaker.getMillisUntilRetry());
+        now[0] += TimeUnit.SECONDS.toNanos(2);
+        assertTrue(breaker.allowRequest());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void coalescing() throws Exception {
+        StandInTracker tracker = new StandInTracker();
+        tracker.setLatency(1000);
+        TransactionOutPoint point = genesisTx.getOutput(0).getOutPointFor();
+        tracker.put(point, new GenesisOutPointColorProof(def, point));
+        tracker.start();
+        final AtomicInteger validated = new AtomicInteger();
+        ValidatedProofCache previousCache = ColorProof.getValidatedCache();
+        ColorProof.setValidatedCache(new ValidatedProofCache() {
+            @Override
+            public synchronized void addAll(Collection<? extends ColorProof> proofs) {
+                validated.addAndGet(proofs.size());
+                super.addAll(proofs);
+            }
+        });
+        try {
+            scanner.start(multiWallet);
+            scanner.fetcher.stop();
+            scanner.setFetcher(new ClientColorScanner.Fetcher(tracker.getBase(), params));
+            // Unconfirmed, so each looks up the genesis outpoint it spends
+            Transaction tx2 = makeTx2(colorKey);
+            Transaction tx3 = makeTx2(new ECKey());
+            Transaction tx4 = makeTx2(new ECKey());
+            // Joins the first while queued
+            scanner.fetchService.schedule(scanner.new Lookup(tx2, ClientColorScanner.LookupPriority.NEW), 0, TimeUnit.MILLISECONDS);
+            scanner.fetchService.schedule(scanner.new Lookup(tx3, ClientColorScanner.LookupPriority.NEW), 0, TimeUnit.MILLISECONDS);
+            // Joins the batch in flight
+            scanner.fetchService.schedule(scanner.new Lookup(tx4, ClientColorScanner.LookupPriority.NEW), 500, TimeUnit.MILLISECONDS);
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!track.outputs.containsKey(point) && System.currentTimeMillis() < deadline)
+                Thread.sleep(50);
+            // The lookups are notified in the same task that applies the proof
+            scanner.fetchService.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+            assertTrue(track.outputs.containsKey(point));
+            assertEquals(1, tracker.getRequestCount());
+            assertEquals(2, scanner.getCoalescedCount());
+            assertEquals(1, validated.get());
+            for (Transaction tx : ImmutableList.of(tx2, tx3, tx4)) {
+                assertTrue(scanner.getTransactionWithKnownAssets(tx, multiWallet, colorChain).isDone());
+            }
+        } finally {
+            ColorProof.setValidatedCache(previousCache);
+            tracker.stop();
+        }
+    }
+
+    @Test
+    public void lookupPriority() throws Exception {
+        // One thread per stage, so the pipeline can be drained in order
+        scanner.setFetchParallelism(1, 1, 1);
+        scanner.start(multiWallet);
+        ClientColorScanner.Fetcher fetcher = createMock(ClientColorScanner.Fetcher.class);
+        fetcher.stop();
+        expectLastCall().asStub();
+        scanner.setFetcher(fetcher);
+        final LinkedBlockingQueue<List<TransactionOutPoint>> requests = new LinkedBlockingQueue<List<TransactionOutPoint>>();
+        // Every outpoint fails, and is retried after a backoff
+        expect(fetcher.fetchResponses(anyObject(List.class))).andStubAnswer(new IAnswer<Map<TransactionOutPoint, ClientColorScanner.OutPointResponse>>() {
+            @Override
+            public Map<TransactionOutPoint, ClientColorScanner.OutPointResponse> answer() throws Throwable {
+                requests.add(Lists.newArrayList((List<TransactionOutPoint>) getCurrentArguments()[0]));
+                return Maps.newHashMap();
+            }
+        });
+        replay(fetcher);
+
+        Transaction backlogTx = makeTx2(colorKey);
+        Transaction waitedTx = new Transaction(params);
+        waitedTx.addInput(Sha256Hash.of(new byte[]{1}), 0, new Script(new byte[0]));
+        waitedTx.addOutput(Coin.CENT, new ECKey());
+        TransactionOutPoint backlogPoint = backlogTx.getInput(0).getOutpoint();
+        TransactionOutPoint waitedPoint = waitedTx.getInput(0).getOutpoint();
+        scanner.fetchService.schedule(scanner.new Lookup(backlogTx, ClientColorScanner.LookupPriority.BACKLOG), 0, TimeUnit.MILLISECONDS);
+        scanner.fetchService.schedule(scanner.new Lookup(waitedTx, ClientColorScanner.LookupPriority.WAITED_ON), 0, TimeUnit.MILLISECONDS);
+
+        // Queued later, dispatched first
+        assertEquals(ImmutableList.of(waitedPoint, backlogPoint), requests.poll(5, TimeUnit.SECONDS));
+        drainPipeline();
+
+        // Both now wait out a backoff of at least two seconds, except the promoted one
+        long start = System.currentTimeMillis();
+        scanner.prioritize(backlogTx);
+        assertEquals(ImmutableList.of(backlogPoint), requests.poll(5, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        verify(fetcher);
+    }
+
+    // Wait for the batches dispatched so far to be applied, with one thread per stage
+    private void drainPipeline() throws Exception {
+        Runnable noop = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        scanner.networkService.submit(noop).get();
+        scanner.parseService.submit(noop).get();
+        scanner.fetchService.submit(noop).get();
+    }
+
     private void mockResponse(CloseableHttpClient client, Capture<HttpGet> cap, CloseableHttpResponse response, String body) throws IOException {
         expect(response.getStatusLine()).andReturn(new BasicStatusLine(new ProtocolVersion("HTTP", 1, 1), 200, "OK"));
         expect(response.getEntity()).andReturn(new StringEntity(body));
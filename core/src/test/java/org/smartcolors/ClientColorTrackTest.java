@@ -8,9 +8,12 @@ import org.junit.Test;
 import org.smartcolors.core.*;
 import org.smartcolors.protos.Protos;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 public class ClientColorTrackTest {
     public static final Script EMPTY_SCRIPT = new Script(new byte[0]);
@@ -47,4 +50,42 @@ public class ClientColorTrackTest {
         assertEquals(1, track1.getOutputs().size());
         assertEquals(proof.getQuantity(), (long) track1.getOutputs().values().iterator().next());
     }
+
+    @Test
+    public void proofReferences() throws Exception {
+        Transaction genesisTx = new Transaction(params);
+        genesisTx.addOutput(ASSET_COIN_ONE, new Script(new byte[0]));
+        genesisTx.addOutput(ASSET_COIN_ONE, new Script(new byte[0]));
+        TransactionOutPoint genesisOutPoint = new TransactionOutPoint(params, 0, genesisTx);
+        TransactionOutPoint genesisOutPoint1 = new TransactionOutPoint(params, 1, genesisTx);
+        Map<TransactionOutPoint, Long> nodes = Maps.newHashMap();
+        nodes.put(genesisOutPoint, 1L);
+        nodes.put(genesisOutPoint1, 2L);
+        ColorDefinition def = new ColorDefinition(params, new GenesisOutPointsMerbinnerTree(params, nodes), new GenesisScriptMerbinnerTree());
+        File file = File.createTempFile("proofs", null);
+        file.deleteOnExit();
+        ProofStore store = new ProofStore(params, file);
+        ClientColorTrack track = new ClientColorTrack(def);
+        track.setProofStore(store);
+        GenesisOutPointColorProof proof = new GenesisOutPointColorProof(def, genesisOutPoint);
+        track.add(proof);
+
+        SmartwalletExtension ext = new SmartwalletExtension(params);
+        Protos.ColorTrack trackp = ext.serializeTrack(track);
+        assertEquals(0, trackp.getProofsCount());
+        assertEquals(1, trackp.getProofReferencesCount());
+        ClientColorTrack track1 = new ClientColorTrack(def);
+        track1.setProofStore(store);
+        SmartwalletExtension.deserializeTrackClient(params, trackp, track1);
+        assertEquals(proof.getHash(), track1.getProof(genesisOutPoint).getHash());
+
+        // A failing store is an I/O failure, not an invalid proof
+        store.close();
+        try {
+            track.add(new GenesisOutPointColorProof(def, genesisOutPoint1));
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
 }
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.InjectableValues;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
 import com.google.common.io.Resources;
 import org.bitcoinj.core.*;
 import org.bitcoinj.script.Script;
@@ -12,13 +13,13 @@ import org.junit.Test;
 import org.smartcolors.core.*;
 import org.smartcolors.marshal.*;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 
-import static org.junit.Assert.assertArrayEquals;
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 import static org.smartcolors.Utils.parseHex;
 
 public class ColorDefinitionTest {
@@ -38,6 +39,7 @@ public class ColorDefinitionTest {
     @Before
     public void setUp() {
         params = NetworkParameters.fromID(NetworkParameters.ID_TESTNET);
+        ColorProof.setValidatedCache(new ValidatedProofCache());
         def = new ColorDefinition(params, new GenesisOutPointsMerbinnerTree(params), new GenesisScriptMerbinnerTree());
         mapper = new ObjectMapper();
     }
@@ -67,10 +69,108 @@ public class ColorDefinitionTest {
     }
 
     @Test
-    public void scdef() throws IOException, SerializationException {
+    public void treeChangesReachHash() throws SerializationException {
+        Map<TransactionOutPoint, Long> points = Maps.newHashMap();
+        for (int i = 0; i < 20; i++) {
+            points.put(new TransactionOutPoint(params, i, Sha256Hash.ZERO_HASH), 1000L + i);
+        }
+        ColorDefinition def = new ColorDefinition(params, new GenesisOutPointsMerbinnerTree(params, Maps.newHashMap(points)), new GenesisScriptMerbinnerTree());
+        HashCode hash = def.getHash();
+        TransactionOutPoint point = new TransactionOutPoint(params, 100, Sha256Hash.ZERO_HASH);
+
+        // Changed through the tree rather than the definition
+        def.getOutPointGenesisPoints().put(point, 5L);
+        points.put(point, 5L);
+        HashCode expected = new ColorDefinition(params, new GenesisOutPointsMerbinnerTree(params, points), new GenesisScriptMerbinnerTree()).getHash();
+        assertFalse(hash.equals(def.getHash()));
+        assertEquals(expected, def.getHash());
+
+        def.getOutPointGenesisPoints().remove(point);
+        assertEquals(hash, def.getHash());
+    }
+
+    @Test
+    public void pruned() throws SerializationException {
+        Map<TransactionOutPoint, Long> points = Maps.newHashMap();
+        for (int i = 0; i < 20; i++) {
+            points.put(new TransactionOutPoint(params, i, Sha256Hash.ZERO_HASH), 1000L + i);
+        }
+        Script script = new Script(parseHex("76a914000000000000000000000000000000000000000088ac"));
+        Map<Script, Void> scripts = Maps.newHashMap();
+        scripts.put(script, null);
+        ColorDefinition full = new ColorDefinition(params, new GenesisOutPointsMerbinnerTree(params, points), new GenesisScriptMerbinnerTree(scripts));
+        ColorDefinition pruned = full.toPruned();
+        assertEquals(full.getHash(), pruned.getHash());
+        assertTrue(pruned.isPruned());
+        assertTrue(pruned.contains(script));
+
+        BytesSerializer ser = new BytesSerializer();
+        pruned.serialize(ser);
+        ColorDefinition pruned1 = ColorDefinition.deserialize(params, new BytesDeserializer(ser.getBytes()));
+        assertTrue(pruned1.isPruned());
+        assertEquals(full.getHash(), pruned1.getHash());
+        assertTrue(pruned1.contains(script));
+
+        TransactionOutPoint point = new TransactionOutPoint(params, 7, Sha256Hash.ZERO_HASH);
+        MerbinnerTree.Path path = full.getGenesisPath(point);
+        assertTrue(pruned1.verifyGenesisPoint(point, 1007L, path));
+        assertFalse(pruned1.verifyGenesisPoint(point, 1008L, path));
+        assertFalse(pruned1.verifyGenesisPoint(new TransactionOutPoint(params, 8, Sha256Hash.ZERO_HASH), 1007L, path));
+        assertNull(full.getGenesisPath(new TransactionOutPoint(params, 100, Sha256Hash.ZERO_HASH)));
+
+        GenesisOutPointColorProof proof = new GenesisOutPointColorProof(pruned1, point, 1007L, path);
+        assertEquals(new GenesisOutPointColorProof(full, point).getHash(), proof.getHash());
+        ser = new BytesSerializer();
+        proof.serialize(ser);
+        ColorProof proof1 = ColorProof.deserialize(params, new BytesDeserializer(ser.getBytes()));
+        assertEquals(proof.getHash(), proof1.getHash());
+        assertEquals(1007L, proof1.getQuantity());
+
+        // The hash, which proof caches and stores key on, covers the quantity even though the path is not hashed
+        GenesisOutPointColorProof forged = new GenesisOutPointColorProof(pruned1, point, 1007L, path) {
+            {
+                quantity = 1000000L;
+                invalidateHash();
+            }
+        };
+        assertFalse(proof.getHash().equals(forged.getHash()));
+    }
+
+    @Test
+    public void forgedQuantity() throws Exception {
+        Map<TransactionOutPoint, Long> points = Maps.newHashMap();
+        for (int i = 0; i < 20; i++) {
+            points.put(new TransactionOutPoint(params, i, Sha256Hash.ZERO_HASH), 1000L + i);
+        }
+        ColorDefinition full = new ColorDefinition(params, new GenesisOutPointsMerbinnerTree(params, points), new GenesisScriptMerbinnerTree());
+        ColorDefinition pruned = full.toPruned();
+        TransactionOutPoint point = new TransactionOutPoint(params, 7, Sha256Hash.ZERO_HASH);
+        MerbinnerTree.Path path = full.getGenesisPath(point);
+
+        GenesisOutPointColorProof honest = new GenesisOutPointColorProof(pruned, point, 1007L, path);
+        assertTrue(ColorProof.getValidatedCache().contains(honest));
+        // The honest proof being validated must not let another quantity for the outpoint through
+        try {
+            new GenesisOutPointColorProof(pruned, point, 1000000L, path);
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof ColorProof.ValidationException);
+        }
+        try {
+            new GenesisOutPointColorProof(pruned, point, 1000000L, full.getGenesisPath(new TransactionOutPoint(params, 8, Sha256Hash.ZERO_HASH)));
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof ColorProof.ValidationException);
+        }
+    }
+
+    @Test
+    public void scdef() throws Exception {
         InputStream is = Resources.getResource("gold.scdef").openStream();
         ColorDefinition def = ColorDefinition.deserializeFromFile(params, is);
         assertEquals("812d469f6aa2c320767c7444610df2b7bcb048d1a5f11630e4a9c0d1051c0bd3", def.getHash().toString());
+        ColorDefinition mapped = ColorDefinition.deserializeFromFile(params, new File(Resources.getResource("gold.scdef").toURI()));
+        assertEquals(def.getHash(), mapped.getHash());
         BytesSerializer ser = new BytesSerializer();
         def.serialize(ser);
         System.out.println(Utils.HEX.encode(ser.getBytes()));
@@ -104,6 +204,14 @@ public class ColorDefinitionTest {
 
         Long[] colorOut = def.applyKernel(tx, item.inputs);
         assertArrayEquals(item.comment, item.expected, colorOut);
+
+        long[] primitiveOut = new long[ColorDefinition.MAX_COLOR_OUTPUTS];
+        int colored = 0;
+        for (int i = 0; i < item.inputs.length; i++) {
+            if (item.inputs[i] != null)
+                colored = def.applyColorTransferred(tx.getInput(i), item.inputs[i], primitiveOut, colored, tx);
+        }
+        assertArrayEquals(item.comment, item.expected, ColorDefinition.toBoxed(primitiveOut, colored, item.outputs.size()));
     }
 
     @Test
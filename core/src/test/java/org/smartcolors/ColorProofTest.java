@@ -1,18 +1,36 @@
 package org.smartcolors;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
 import com.google.common.io.Resources;
 import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.TransactionOutPoint;
 import org.junit.Before;
 import org.junit.Test;
 import org.smartcolors.core.*;
 import org.smartcolors.marshal.BytesDeserializer;
 import org.smartcolors.marshal.BytesSerializer;
+import org.smartcolors.marshal.Deserializer;
 import org.smartcolors.marshal.SerializationException;
+import org.smartcolors.marshal.Serializer;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 /**
@@ -25,6 +43,7 @@ public class ColorProofTest {
     @Before
     public void setUp() {
         params = NetworkParameters.fromID(NetworkParameters.ID_TESTNET);
+        ColorProof.setValidatedCache(new ValidatedProofCache());
     }
 
     @Test
@@ -39,9 +58,20 @@ public class ColorProofTest {
         InputStream is = Resources.getResource("proofs/genesis/2709f98721fbe6d3f78b45364cc2745e29da71c6c479498d4c91792af5c5fa9e:0.scproof").openStream();
         ColorProof proof = ColorProof.deserializeFromFile(params, is);
         assertEquals("f8bcdc4311624b8a0dcf79a92a46d08c26d1409066bb888f32d25f5f400e138d", proof.getHash().toString());
+        assertTrue(ColorProof.getValidatedCache().contains(proof));
         testMutate(proof);
     }
 
+    @Test
+    public void fileRoundTrip() throws Exception {
+        InputStream is = Resources.getResource("proofs/genesis/2709f98721fbe6d3f78b45364cc2745e29da71c6c479498d4c91792af5c5fa9e:0.scproof").openStream();
+        ColorProof proof = ColorProof.deserializeFromFile(params, is);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        proof.serializeToFile(os);
+        ColorProof proof1 = ColorProof.deserializeFromFile(params, new ByteArrayInputStream(os.toByteArray()));
+        assertEquals(proof.getHash(), proof1.getHash());
+    }
+
     @Test
     public void genesis2() throws Exception {
         InputStream is = Resources.getResource("proofs/genesis/1051584e9e19f740ddf32b7b3d30c274ae23f2ff2b706f1446e4f7815563c3fd:0.scproof").openStream();
@@ -75,6 +105,189 @@ public class ColorProofTest {
         }
     }
 
+    @Test
+    public void parallelValidate() throws Exception {
+        ColorProof proof = readProof("proofs/transferred/29ac0d5313882c337921dd34fee09efce6bd9fcc2d5c16155e9c22af1b4b9a13:0.scproof");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ColorProof.getValidatedCache().clear();
+            proof.validate(executor);
+            assertTrue(ColorProof.getValidatedCache().contains(proof));
+
+            // Wide enough to be split into chunks, with invalid proofs in several of them
+            ColorDefinition def = new ColorDefinition(params, new GenesisOutPointsMerbinnerTree(params), new GenesisScriptMerbinnerTree());
+            Set<Integer> invalid = Sets.newHashSet(300, 301, 700, 1100);
+            List<ColorProof> children = Lists.newArrayList();
+            for (int i = 0; i < 1200; i++) {
+                children.add(new WideProof(def, i, invalid.contains(i), Collections.<ColorProof>emptyList()));
+            }
+            WideProof root = new WideProof(def, -1, false, children);
+            String expected = null;
+            try {
+                root.validate();
+                fail();
+            } catch (ColorProof.ValidationException e) {
+                expected = e.getMessage();
+            }
+            assertEquals("invalid proof 300", expected);
+            ColorProof.getValidatedCache().clear();
+            WideProof.threads.clear();
+            try {
+                root.validate(executor);
+                fail();
+            } catch (ColorProof.ValidationException e) {
+                assertEquals(expected, e.getMessage());
+            }
+            assertFalse(ColorProof.getValidatedCache().contains(root));
+            // Checked on the executor, not in the calling thread
+            assertFalse(WideProof.threads.contains(Thread.currentThread()));
+
+            children.set(300, new WideProof(def, 300, false, Collections.<ColorProof>emptyList()));
+            children.set(301, new WideProof(def, 301, false, Collections.<ColorProof>emptyList()));
+            children.set(700, new WideProof(def, 700, false, Collections.<ColorProof>emptyList()));
+            children.set(1100, new WideProof(def, 1100, false, Collections.<ColorProof>emptyList()));
+            root = new WideProof(def, -1, false, children);
+            root.validate(executor);
+            assertTrue(ColorProof.getValidatedCache().contains(root));
+            assertTrue(ColorProof.getValidatedCache().contains(children.get(1199)));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // A proof depending on its children, failing validation if marked invalid
+    static class WideProof extends ColorProof {
+        static final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+        private final int id;
+        private final boolean invalid;
+        private final List<ColorProof> children;
+
+        WideProof(ColorDefinition def, int id, boolean invalid, List<ColorProof> children) {
+            this.def = def;
+            this.params = def.getParams();
+            this.id = id;
+            this.invalid = invalid;
+            this.children = children;
+        }
+
+        @Override
+        protected void deserialize(Deserializer des) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void serialize(Serializer ser) throws SerializationException {
+            super.serialize(ser);
+            ser.write(id + 1);
+        }
+
+        @Override
+        protected int getType() {
+            return 100;
+        }
+
+        @Override
+        protected void doValidate(Queue<ColorProof> queue) throws ValidationException {
+            threads.add(Thread.currentThread());
+            queue.addAll(children);
+            if (invalid)
+                throw new ValidationException("invalid proof " + id);
+        }
+
+        @Override
+        protected void addPrevious(Queue<ColorProof> queue) {
+            queue.addAll(children);
+        }
+
+        @Override
+        public TransactionOutPoint getOutPoint() {
+            return null;
+        }
+    }
+
+    @Test
+    public void proofStore() throws Exception {
+        ColorProof proof = readProof("proofs/transferred/29ac0d5313882c337921dd34fee09efce6bd9fcc2d5c16155e9c22af1b4b9a13:0.scproof");
+        File file = File.createTempFile("proofs", ".store");
+        file.deleteOnExit();
+        ProofStore store = new ProofStore(params, file);
+        try {
+            HashCode hash = store.put(proof);
+            assertEquals(proof.getHash(), hash);
+            assertTrue(store.contains(proof.getDefinition().getHash()));
+            int size = store.size();
+            store.put(proof);
+            assertEquals(size, store.size());
+        } finally {
+            store.close();
+        }
+        store = new ProofStore(params, file);
+        try {
+            ColorProof proof1 = store.getProof(proof.getHash());
+            assertEquals(proof.getHash(), proof1.getHash());
+            assertEquals(proof.getQuantity(), proof1.getQuantity());
+            assertEquals(proof.getDefinition().getHash(), store.getDefinition(proof.getDefinition().getHash()).getHash());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void proofStoreInterruptedPut() throws Exception {
+        ColorProof proof = readProof("proofs/transferred/29ac0d5313882c337921dd34fee09efce6bd9fcc2d5c16155e9c22af1b4b9a13:0.scproof");
+        File file = File.createTempFile("proofs", ".store");
+        file.deleteOnExit();
+        // Fail after the definition and the first proof record
+        ProofStore store = new ProofStore(params, file) {
+            int appends;
+
+            @Override
+            protected void append(HashCode hash, int kind, byte[] body) throws IOException {
+                if (++appends > 2)
+                    throw new IOException("disk full");
+                super.append(hash, kind, body);
+            }
+        };
+        try {
+            store.put(proof);
+            fail();
+        } catch (IOException e) {
+            // expected
+        } finally {
+            store.close();
+        }
+
+        store = new ProofStore(params, file);
+        try {
+            assertFalse(store.contains(proof.getHash()));
+            // Whatever was stored has its whole history stored
+            List<ColorProof> nodes = Lists.newArrayList(proof);
+            Set<HashCode> seen = Sets.newHashSet();
+            int stored = 0;
+            for (int i = 0; i < nodes.size(); i++) {
+                ColorProof node = nodes.get(i);
+                if (!seen.add(node.getHash()))
+                    continue;
+                if (store.contains(node.getHash())) {
+                    assertEquals(node.getHash(), store.getProof(node.getHash()).getHash());
+                    stored++;
+                }
+                if (node instanceof TransferColorProof) {
+                    PrevoutProofsMerbinnerTree prevouts = ((TransferColorProof) node).getPrevouts();
+                    for (TransactionOutPoint point : prevouts.keySet()) {
+                        nodes.add(prevouts.get(point));
+                    }
+                }
+            }
+            assertEquals(1, stored);
+            // And the put can be completed
+            store.put(proof);
+            assertEquals(proof.getHash(), store.getProof(proof.getHash()).getHash());
+        } finally {
+            store.close();
+        }
+    }
+
     private void testMutate(ColorProof proof) throws SerializationException {
         if (DISABLE_SLOW_TESTS) return;
         System.out.println("testMutate " + proof.getHash());
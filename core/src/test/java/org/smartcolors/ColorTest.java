@@ -38,6 +38,7 @@ public class ColorTest {
     public void setUp() throws Exception {
         params = NetworkParameters.fromID(NetworkParameters.ID_REGTEST);
         new Context(params);
+        ColorProof.setValidatedCache(new ValidatedProofCache());
         blockStore = new MemoryBlockStore(params);
         genesisTx = new Transaction(params);
         genesisTx.addInput(Sha256Hash.ZERO_HASH, 0, EMPTY_SCRIPT);
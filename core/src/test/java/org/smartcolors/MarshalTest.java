@@ -2,13 +2,17 @@ package org.smartcolors;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.hash.HashCode;
 import org.junit.Before;
 import org.junit.Test;
 import org.smartcolors.marshal.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -256,4 +260,168 @@ public class MarshalTest {
             }
         }
     }
+
+    @Test
+    public void testMerbinnerIncremental() throws IOException, SerializationException {
+        List<List<Object>> items =
+                mapper.readValue(FixtureHelpers.fixture("marshal/merbinnertree_hashes.json"),
+                        new TypeReference<List<List<Object>>>() {
+                        });
+        for (List<Object> entry : items) {
+            if (entry.size() == 1 || !entry.get(1).equals("hash")) continue;
+            Map<String, String> map = (Map<String, String>) entry.get(0);
+            byte[] expected = Utils.HEX.decode(((String) entry.get(2)).replaceAll(" ", ""));
+            TestMerbinnerTree tree = new TestMerbinnerTree(Maps.<byte[], byte[]>newHashMap());
+            HashCode emptyHash = tree.getHash();
+            List<byte[]> keys = Lists.newArrayList();
+            for (String keyString : map.keySet()) {
+                byte[] key = Utils.HEX.decode(keyString);
+                keys.add(key);
+                tree.put(key, Utils.HEX.decode(map.get(keyString)));
+                // Hash intermediate states, so that later updates only touch their path
+                tree.getHash();
+            }
+            assertArrayEquals(expected, tree.getHash().asBytes());
+            for (byte[] key : keys) {
+                tree.remove(key);
+                Map<byte[], byte[]> nodes = Maps.newHashMap();
+                for (byte[] remaining : tree.keySet()) {
+                    nodes.put(remaining, tree.get(remaining));
+                }
+                assertEquals(new TestMerbinnerTree(nodes).getHash(), tree.getHash());
+            }
+            assertEquals(emptyHash, tree.getHash());
+        }
+    }
+
+    @Test
+    public void testByteBufferShortReads() throws SerializationException {
+        // Varint continued past the end
+        try {
+            new BytesDeserializer(new byte[]{(byte) 0x80}).readVarulong();
+            fail();
+        } catch (SerializationException e) {
+            // expected
+        }
+        try {
+            new BytesDeserializer(new byte[]{1, 2, 3}).readBytes(4);
+            fail();
+        } catch (SerializationException e) {
+            // expected
+        }
+        try {
+            new BytesDeserializer(new byte[]{1, 2, 3}).readBytes(-1);
+            fail();
+        } catch (SerializationException e) {
+            // expected
+        }
+        // Length prefix beyond the end
+        try {
+            new BytesDeserializer(new byte[]{5, 1, 2}).readBytes();
+            fail();
+        } catch (SerializationException e) {
+            // expected
+        }
+        BytesDeserializer des = new BytesDeserializer(new byte[]{2, 1, 2});
+        assertArrayEquals(new byte[]{1, 2}, des.readBytes());
+        assertEquals(0, des.remaining());
+        try {
+            des.readVarulong();
+            fail();
+        } catch (SerializationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testByteBufferSlices() throws SerializationException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(6);
+        buf.put(new byte[]{9, 3, 1, 2, 3, 4});
+        buf.flip();
+        // Reads start at the position, and leave the caller's buffer alone
+        buf.position(1);
+        ByteBufferDeserializer des = new ByteBufferDeserializer(buf);
+        ByteBuffer slice = des.readSlice();
+        assertEquals(1, buf.position());
+        assertEquals(3, slice.remaining());
+        assertTrue(slice.isReadOnly());
+        byte[] bytes = new byte[3];
+        slice.get(bytes);
+        assertArrayEquals(new byte[]{1, 2, 3}, bytes);
+        assertEquals(1, des.remaining());
+        try {
+            des.readSlice(2);
+            fail();
+        } catch (SerializationException e) {
+            // expected
+        }
+        try {
+            des.readSlice(-1);
+            fail();
+        } catch (SerializationException e) {
+            // expected
+        }
+        assertEquals(4, des.readSlice(1).get());
+        assertEquals(0, des.readSlice(0).remaining());
+    }
+
+    @Test
+    public void testByteBufferVarints() throws SerializationException {
+        // Ten bytes carry all 64 bits
+        byte[] max = new byte[10];
+        Arrays.fill(max, (byte) 0xff);
+        max[9] = 1;
+        assertEquals(-1L, new BytesDeserializer(max).readVarulong());
+        try {
+            new BytesDeserializer(max).readVaruint();
+            fail();
+        } catch (SerializationException e) {
+            // expected
+        }
+        byte[] tooLong = new byte[11];
+        Arrays.fill(tooLong, (byte) 0x80);
+        tooLong[10] = 1;
+        try {
+            new BytesDeserializer(tooLong).readVarulong();
+            fail();
+        } catch (SerializationException e) {
+            assertEquals("varint too long", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testMemoizedByteBuffer() throws SerializationException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        MemoizedSerializer ser = new MemoizedSerializer(os);
+        BoxedBytes boxed = new BoxedBytes(new byte[]{1, 2, 3});
+        ser.write(boxed);
+        ser.write(boxed);
+        Deserializer.ObjectReader<BoxedBytes> reader = new Deserializer.ObjectReader<BoxedBytes>() {
+            @Override
+            public BoxedBytes readObject(Deserializer des) throws SerializationException {
+                return BoxedBytes.deserialize(des, null);
+            }
+        };
+        byte[] bytes = os.toByteArray();
+        MemoizedByteBufferDeserializer des = new MemoizedByteBufferDeserializer(ByteBuffer.wrap(bytes));
+        BoxedBytes first = des.readObject(reader);
+        assertArrayEquals(boxed.bytes, first.bytes);
+        assertSame(first, des.readObject(reader));
+        assertEquals(0, des.remaining());
+
+        // A reference to an object not read yet
+        try {
+            new MemoizedByteBufferDeserializer(ByteBuffer.wrap(new byte[]{1})).readObject(reader);
+            fail();
+        } catch (SerializationException e) {
+            // expected
+        }
+        // Truncated inside the object
+        try {
+            new MemoizedByteBufferDeserializer(ByteBuffer.wrap(bytes, 0, 3)).readObject(reader);
+            fail();
+        } catch (SerializationException e) {
+            // expected
+        }
+    }
 }
@@ -52,6 +52,27 @@ public class SPVColorScannerTest extends ColorTest {
         assertTrue(colors.contains(scanner.getBitcoinDefinition()));
         assertTrue(colors.contains(scanner.getUnknownDefinition()));
         assertTrue(colors.contains(def));
+        assertEquals(def, scanner.getColorDefinitionByHash(def.getHash()));
+        assertEquals(scanner.getBitcoinDefinition(), scanner.getColorDefinitionByHash(scanner.getBitcoinDefinition().getHash()));
+        assertEquals(def, scanner.getColorTrackByHash(def.getHash()).getDefinition());
+        assertSame(scanner.getColorTrackByHash(def.getHash()), scanner.getColorTrackByDefinition(def));
+        ColorTrack track = scanner.getColorTrackByDefinition(def);
+        try {
+            scanner.addDefinition(def);
+            fail();
+        } catch (ColorScanner.ColorDefinitionExists e) {
+            // expected
+        }
+        // The existing track is left as it was
+        assertSame(track, scanner.getColorTrackByDefinition(def));
+        assertEquals(3, scanner.getDefinitions().size());
+
+        // Snapshots are not affected by later changes
+        assertTrue(scanner.removeDefinition(def));
+        assertFalse(scanner.removeDefinition(def));
+        assertEquals(3, colors.size());
+        assertEquals(2, scanner.getDefinitions().size());
+        assertNull(scanner.getColorTrackByHash(def.getHash()));
     }
 
     @Test
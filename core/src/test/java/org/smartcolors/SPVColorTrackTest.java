@@ -1,5 +1,6 @@
 package org.smartcolors;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import org.bitcoinj.core.*;
 import org.bitcoinj.script.Script;
@@ -13,6 +14,8 @@ import java.util.HashMap;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.smartcolors.core.SmartColors.makeAssetInput;
 
@@ -152,6 +155,105 @@ public class SPVColorTrackTest {
         assertEquals(track.getStateHash(), proof2.getStateHash());
     }
 
+    @Test
+    public void fusedKernel() {
+        Transaction genesisTx1 = new Transaction(params);
+        genesisTx1.addOutput(ASSET_COIN_ONE, EMPTY_SCRIPT);
+        Transaction genesisTx2 = new Transaction(params);
+        genesisTx2.addOutput(Utils.makeAssetCoin(3), EMPTY_SCRIPT);
+        SPVColorTrack track1 = new SPVColorTrack(new ColorDefinition(params, makeTree(genesisTx1.getOutput(0).getOutPointFor()), new GenesisScriptMerbinnerTree()));
+        SPVColorTrack track2 = new SPVColorTrack(new ColorDefinition(params, makeTree(genesisTx2.getOutput(0).getOutPointFor()), new GenesisScriptMerbinnerTree()));
+        track1.add(genesisTx1);
+        track2.add(genesisTx2);
+
+        Transaction tx = new Transaction(params);
+        tx.addInput(makeAssetInput(tx, genesisTx1, 0));
+        tx.addInput(makeAssetInput(tx, genesisTx2, 0));
+        tx.addOutput(Utils.makeAssetCoin(2), EMPTY_SCRIPT);
+        tx.addOutput(Utils.makeAssetCoin(2), EMPTY_SCRIPT);
+        tx.addOutput(Utils.makeAssetCoin(2), EMPTY_SCRIPT);
+
+        KernelOutputs kernel = KernelOutputs.apply(tx, Lists.newArrayList(track1, track2));
+        for (SPVColorTrack track : Lists.newArrayList(track1, track2)) {
+            Long[] expected = track.applyKernel(tx);
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(expected[i], kernel.get(track.getDefinition(), i));
+            }
+        }
+        assertEquals(1L, (long) kernel.get(track1.getDefinition(), 0));
+        assertNull(kernel.get(track1.getDefinition(), 1));
+        assertEquals(2L, (long) kernel.get(track2.getDefinition(), 0));
+        assertEquals(1L, (long) kernel.get(track2.getDefinition(), 1));
+        assertNull(kernel.get(track2.getDefinition(), 2));
+    }
+
+    @Test
+    public void outPointIndex() {
+        Transaction genesisTx1 = new Transaction(params);
+        genesisTx1.addOutput(ASSET_COIN_ONE, EMPTY_SCRIPT);
+        Transaction genesisTx2 = new Transaction(params);
+        genesisTx2.addOutput(Utils.makeAssetCoin(3), EMPTY_SCRIPT);
+        SPVColorTrack track1 = new SPVColorTrack(new ColorDefinition(params, makeTree(genesisTx1.getOutput(0).getOutPointFor()), new GenesisScriptMerbinnerTree()));
+        SPVColorTrack track2 = new SPVColorTrack(new ColorDefinition(params, makeTree(genesisTx2.getOutput(0).getOutPointFor()), new GenesisScriptMerbinnerTree()));
+        final OutPointIndex index = new OutPointIndex();
+        ColorTrack.OutputListener listener = new ColorTrack.OutputListener() {
+            @Override
+            public void onOutputChanged(ColorTrack track, TransactionOutPoint point) {
+                index.update(track, point);
+            }
+
+            @Override
+            public void onOutputsReset(ColorTrack track) {
+                index.reindex(track);
+            }
+        };
+        track1.setListener(listener);
+        track2.setListener(listener);
+        track1.add(genesisTx1);
+        track2.add(genesisTx2);
+        TransactionOutPoint point1 = genesisTx1.getOutput(0).getOutPointFor();
+        assertEquals(1L, index.get(point1).getValue());
+        assertEquals(track1.getDefinition(), index.get(point1).getDefinition());
+        assertNull(index.get(point1).getNext());
+        assertEquals(2, index.size());
+
+        Transaction tx = new Transaction(params);
+        tx.addInput(makeAssetInput(tx, genesisTx1, 0));
+        tx.addInput(makeAssetInput(tx, genesisTx2, 0));
+        tx.addOutput(Utils.makeAssetCoin(2), EMPTY_SCRIPT);
+        tx.addOutput(Utils.makeAssetCoin(2), EMPTY_SCRIPT);
+        KernelOutputs byTracks = KernelOutputs.apply(tx, Lists.newArrayList(track1, track2));
+        KernelOutputs byIndex = KernelOutputs.apply(tx, index);
+        for (SPVColorTrack track : Lists.newArrayList(track1, track2)) {
+            for (int i = 0; i < 2; i++) {
+                assertEquals(byTracks.get(track.getDefinition(), i), byIndex.get(track.getDefinition(), i));
+            }
+        }
+
+        // Scratch reuses its vectors for the next transaction
+        KernelOutputs scratch = new KernelOutputs();
+        long[] vector = scratch.compute(tx, index).getColorOuts(track1.getDefinition());
+        assertEquals(byIndex.get(track1.getDefinition(), 0), scratch.get(track1.getDefinition(), 0));
+        Transaction tx2 = new Transaction(params);
+        tx2.addInput(makeAssetInput(tx2, genesisTx2, 0));
+        tx2.addOutput(Utils.makeAssetCoin(2), EMPTY_SCRIPT);
+        tx2.addOutput(Utils.makeAssetCoin(2), EMPTY_SCRIPT);
+        scratch.compute(tx2, index);
+        assertSame(vector, scratch.getColorOuts(track2.getDefinition()));
+        assertNull(scratch.get(track1.getDefinition(), 0));
+        for (int i = 0; i < 2; i++) {
+            assertEquals(KernelOutputs.apply(tx2, index).get(track2.getDefinition(), i), scratch.get(track2.getDefinition(), i));
+        }
+
+        track1.add(tx);
+        assertEquals(3, index.size());
+        track1.undoLast();
+        assertEquals(2, index.size());
+        track1.reset();
+        assertNull(index.get(point1));
+        assertEquals(1, index.size());
+    }
+
     @Test
     public void complexAdd() {
         // TODO
@@ -0,0 +1,160 @@
+package org.smartcolors;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.smartcolors.core.ColorProof;
+import org.smartcolors.marshal.BytesSerializer;
+import org.smartcolors.marshal.SerializationException;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local stand-in for the proof tracker server, for tests and benchmarks.
+ * <p/>
+ * <p>Serves the per-outpoint and the batch endpoints from an in-memory map of proofs.  Outpoints
+ * without a proof are reported as not colored.  Per-outpoint responses carry an ETag and honor If-None-Match.
+ * Latency and failures can be injected.</p>
+ */
+public class StandInTracker {
+    private final HttpServer server;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ConcurrentMap<TransactionOutPoint, ColorProof> proofs = Maps.newConcurrentMap();
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final AtomicInteger notModifiedCount = new AtomicInteger();
+    private volatile long latencyMillis;
+    private volatile boolean batchSupported = true;
+    private volatile boolean failing;
+
+    public StandInTracker() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/outpoint/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if (failing) {
+                    respond(exchange, 500, null);
+                    return;
+                }
+                String[] parts = exchange.getRequestURI().getPath().split("/");
+                TransactionOutPoint point = new TransactionOutPoint(null, Long.parseLong(parts[3]), Sha256Hash.wrap(parts[2]));
+                byte[] body = mapper.writeValueAsBytes(describe(point));
+                String etag = "\"" + Hashing.sha256().hashBytes(body) + "\"";
+                exchange.getResponseHeaders().set("ETag", etag);
+                if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    notModifiedCount.incrementAndGet();
+                    respond(exchange, 304, null);
+                } else {
+                    respond(exchange, 200, body);
+                }
+            }
+        });
+        server.createContext("/outpoints", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if (failing) {
+                    respond(exchange, 500, null);
+                    return;
+                }
+                if (!batchSupported || !"POST".equals(exchange.getRequestMethod())) {
+                    respond(exchange, 404, mapper.writeValueAsBytes(ImmutableMap.of("status", "NOT_FOUND")));
+                    return;
+                }
+                ClientColorScanner.BatchRequest request =
+                        mapper.readValue(ByteStreams.toByteArray(exchange.getRequestBody()), ClientColorScanner.BatchRequest.class);
+                Map<String, Object> outpoints = Maps.newLinkedHashMap();
+                for (String key : request.outpoints) {
+                    String[] parts = key.split(":");
+                    TransactionOutPoint point = new TransactionOutPoint(null, Long.parseLong(parts[1]), Sha256Hash.wrap(parts[0]));
+                    outpoints.put(key, describe(point));
+                }
+                respond(exchange, 200, mapper.writeValueAsBytes(ImmutableMap.of("status", "OK", "outpoints", outpoints)));
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    public URI getBase() {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+    }
+
+    public void put(TransactionOutPoint point, ColorProof proof) {
+        proofs.put(point, proof);
+    }
+
+    /** Simulated round trip time, added to each request */
+    public void setLatency(long millis) {
+        this.latencyMillis = millis;
+    }
+
+    /** Answer every request with an internal server error */
+    public void setFailing(boolean failing) {
+        this.failing = failing;
+    }
+
+    public void setBatchSupported(boolean batchSupported) {
+        this.batchSupported = batchSupported;
+    }
+
+    /** The number of requests served */
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /** The number of conditional requests answered with 304 Not Modified */
+    public int getNotModifiedCount() {
+        return notModifiedCount.get();
+    }
+
+    private Map<String, Object> describe(TransactionOutPoint point) throws IOException {
+        ColorProof proof = proofs.get(point);
+        if (proof == null)
+            return ImmutableMap.<String, Object>of("status", "NOT_COLORED", "proofs", ImmutableMap.of());
+        BytesSerializer ser = new BytesSerializer();
+        try {
+            proof.serialize(ser);
+        } catch (SerializationException e) {
+            throw new IOException(e);
+        }
+        Map<String, byte[]> byHash = ImmutableMap.of(proof.getHash().toString(), ser.getBytes());
+        return ImmutableMap.<String, Object>of("status", "COLORED",
+                "proofs", ImmutableMap.of(proof.getDefinition().getHash().toString(), byHash));
+    }
+
+    // A null body sends no content
+    private void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        requestCount.incrementAndGet();
+        if (latencyMillis > 0)
+            Uninterruptibles.sleepUninterruptibly(latencyMillis, TimeUnit.MILLISECONDS);
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+        } else {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, body.length);
+            exchange.getResponseBody().write(body);
+        }
+        exchange.close();
+    }
+}
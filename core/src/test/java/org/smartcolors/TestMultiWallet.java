@@ -41,6 +41,13 @@ public class TestMultiWallet extends SmartMultiWallet {
             @Override
             public void onTransactionConfidenceChanged(Wallet wallet, Transaction tx) {
                 super.onTransactionConfidenceChanged(wallet, tx);
+                listener.onTransactionConfidenceChanged(TestMultiWallet.this, tx);
+            }
+
+            @Override
+            public void onReorganize(Wallet wallet) {
+                super.onReorganize(wallet);
+                listener.onReorganize(TestMultiWallet.this);
             }
         };
         listenerMap.put(listener, walletListener);
@@ -0,0 +1,55 @@
+package org.smartcolors.tools;
+
+import com.google.common.collect.Lists;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.smartcolors.ClientColorScanner;
+import org.smartcolors.StandInTracker;
+
+import java.util.List;
+
+/**
+ * Compare fetching outpoints one request at a time against batched fetching, against a local
+ * stand-in tracker with a simulated round trip time.
+ * <p/>
+ * <p>Usage: FetchBenchmark [outpoints] [latency-millis]</p>
+ */
+public class FetchBenchmark {
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        long latency = args.length > 1 ? Long.parseLong(args[1]) : 20;
+        NetworkParameters params = NetworkParameters.fromID(NetworkParameters.ID_TESTNET);
+        List<TransactionOutPoint> points = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            points.add(new TransactionOutPoint(params, i % 4, Sha256Hash.of(new byte[]{(byte) (i >> 8), (byte) i})));
+        }
+
+        StandInTracker tracker = new StandInTracker();
+        tracker.setLatency(latency);
+        tracker.start();
+        ClientColorScanner.Fetcher fetcher = new ClientColorScanner.Fetcher(tracker.getBase(), params);
+        try {
+            long start = System.nanoTime();
+            for (TransactionOutPoint point : points) {
+                fetcher.fetch(point);
+            }
+            report("serial", start, tracker.getRequestCount());
+
+            int before = tracker.getRequestCount();
+            start = System.nanoTime();
+            for (List<TransactionOutPoint> batch : Lists.partition(points, ClientColorScanner.MAX_BATCH_SIZE)) {
+                fetcher.fetch(batch);
+            }
+            report("batched", start, tracker.getRequestCount() - before);
+        } finally {
+            fetcher.stop();
+            tracker.stop();
+        }
+    }
+
+    private static void report(String name, long start, int requests) {
+        long millis = (System.nanoTime() - start) / 1000000;
+        System.out.println(String.format("  %-8s %6d ms, %5d requests", name, millis, requests));
+    }
+}
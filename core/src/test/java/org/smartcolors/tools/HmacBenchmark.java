@@ -0,0 +1,60 @@
+package org.smartcolors.tools;
+
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.smartcolors.core.Hashes;
+import org.smartcolors.marshal.Hmacs;
+
+/**
+ * Compare outpoint hashing with a new HMAC engine per hash against the per-thread cached engines.
+ */
+public class HmacBenchmark {
+    private static final int WARMUP = 200000;
+    private static final int ITERATIONS = 1000000;
+    // The results of all timed loops, so that they can't be optimized away
+    private static long checksum;
+
+    public static void main(String[] args) {
+        NetworkParameters params = NetworkParameters.fromID(NetworkParameters.ID_TESTNET);
+        byte[] content = new TransactionOutPoint(params, 1, Sha256Hash.ZERO_HASH).bitcoinSerialize();
+
+        for (int round = 0; round < 3; round++) {
+            System.out.println("round " + round);
+            uncached(content, WARMUP);
+            report("new engine", uncached(content, ITERATIONS));
+            cached(content, WARMUP);
+            report("cached engine", cached(content, ITERATIONS));
+        }
+        // Reported so that the measured results are used
+        System.out.println("checksum " + checksum);
+    }
+
+    private static long uncached(byte[] content, int iterations) {
+        long start = System.nanoTime();
+        int sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            sink += Hmacs.create(Hashes.OUT_POINT_HMAC_KEY).doFinal(content)[0];
+        }
+        return finish(start, iterations, sink);
+    }
+
+    private static long cached(byte[] content, int iterations) {
+        long start = System.nanoTime();
+        int sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            sink += Hmacs.calc(content, Hashes.OUT_POINT_HMAC_KEY)[0];
+        }
+        return finish(start, iterations, sink);
+    }
+
+    private static long finish(long start, int iterations, int sink) {
+        long elapsed = System.nanoTime() - start;
+        checksum += sink;
+        return elapsed / iterations;
+    }
+
+    private static void report(String name, long nanos) {
+        System.out.println(String.format("  %-14s %6d ns/op", name, nanos));
+    }
+}
@@ -0,0 +1,149 @@
+package org.smartcolors.tools;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.script.Script;
+import org.smartcolors.ClientColorTrack;
+import org.smartcolors.ColorTrack;
+import org.smartcolors.KernelOutputs;
+import org.smartcolors.OutPointIndex;
+import org.smartcolors.core.ColorDefinition;
+import org.smartcolors.core.GenesisOutPointColorProof;
+import org.smartcolors.core.GenesisOutPointsMerbinnerTree;
+import org.smartcolors.core.GenesisScriptMerbinnerTree;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compare finding the color of inputs by probing every track against the scanner-wide outpoint index.
+ * <p/>
+ * <p>Usage: OutPointIndexBenchmark [definitions] [outputs-per-definition]</p>
+ */
+public class OutPointIndexBenchmark {
+    private static final int WARMUP = 200000;
+    private static final int ITERATIONS = 1000000;
+    // The results of all timed loops, so that they can't be optimized away
+    private static long checksum;
+    private static final int INPUTS = 4;
+    private static final Script EMPTY_SCRIPT = new Script(new byte[0]);
+
+    public static void main(String[] args) throws Exception {
+        int numDefinitions = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int numOutputs = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        NetworkParameters params = NetworkParameters.fromID(NetworkParameters.ID_TESTNET);
+        Random random = new Random(1);
+
+        List<ClientColorTrack> tracks = Lists.newArrayList();
+        List<TransactionOutPoint> colored = Lists.newArrayList();
+        OutPointIndex index = new OutPointIndex();
+        for (int d = 0; d < numDefinitions; d++) {
+            Map<TransactionOutPoint, Long> nodes = Maps.newHashMap();
+            for (int i = 0; i < numOutputs; i++) {
+                nodes.put(new TransactionOutPoint(params, i, randomHash(random)), 1L + random.nextInt(1000));
+            }
+            ColorDefinition def = new ColorDefinition(params, new GenesisOutPointsMerbinnerTree(params, nodes), new GenesisScriptMerbinnerTree());
+            ClientColorTrack track = new ClientColorTrack(def);
+            for (TransactionOutPoint point : nodes.keySet()) {
+                track.add(new GenesisOutPointColorProof(def, point));
+                colored.add(point);
+            }
+            index.reindex(track);
+            tracks.add(track);
+        }
+
+        // Half of the probes are colored
+        TransactionOutPoint[] probes = new TransactionOutPoint[1024];
+        for (int i = 0; i < probes.length; i++) {
+            probes[i] = i % 2 == 0 ? colored.get(random.nextInt(colored.size())) : new TransactionOutPoint(params, 0, randomHash(random));
+        }
+        Transaction tx = new Transaction(params);
+        for (int i = 0; i < INPUTS; i++) {
+            TransactionOutPoint point = colored.get(random.nextInt(colored.size()));
+            tx.addInput(point.getHash(), point.getIndex(), EMPTY_SCRIPT);
+            tx.addOutput(Coin.valueOf(1000), EMPTY_SCRIPT);
+        }
+
+        System.out.println(numDefinitions + " definitions, " + index.size() + " colored outpoints");
+        for (int round = 0; round < 3; round++) {
+            System.out.println("round " + round);
+            probeTracks(tracks, probes, WARMUP);
+            report("probe tracks", probeTracks(tracks, probes, ITERATIONS));
+            probeIndex(index, probes, WARMUP);
+            report("index", probeIndex(index, probes, ITERATIONS));
+            kernelTracks(tracks, tx, WARMUP / 10);
+            report("kernel tracks", kernelTracks(tracks, tx, ITERATIONS / 10));
+            kernelIndex(index, tx, WARMUP / 10);
+            report("kernel index", kernelIndex(index, tx, ITERATIONS / 10));
+        }
+        // Reported so that the measured results are used
+        System.out.println("checksum " + checksum);
+    }
+
+    private static Sha256Hash randomHash(Random random) {
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        return Sha256Hash.wrap(bytes);
+    }
+
+    private static long probeTracks(List<? extends ColorTrack> tracks, TransactionOutPoint[] probes, int iterations) {
+        long start = System.nanoTime();
+        int sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            TransactionOutPoint point = probes[i & (probes.length - 1)];
+            for (ColorTrack track : tracks) {
+                if (track.getOutputs().get(point) != null) {
+                    sink++;
+                    break;
+                }
+            }
+        }
+        return finish(start, iterations, sink);
+    }
+
+    private static long probeIndex(OutPointIndex index, TransactionOutPoint[] probes, int iterations) {
+        long start = System.nanoTime();
+        int sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            if (index.get(probes[i & (probes.length - 1)]) != null)
+                sink++;
+        }
+        return finish(start, iterations, sink);
+    }
+
+    private static long kernelTracks(List<? extends ColorTrack> tracks, Transaction tx, int iterations) {
+        long start = System.nanoTime();
+        int sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            if (KernelOutputs.apply(tx, tracks).isEmpty())
+                sink++;
+        }
+        return finish(start, iterations, sink);
+    }
+
+    private static long kernelIndex(OutPointIndex index, Transaction tx, int iterations) {
+        long start = System.nanoTime();
+        int sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            if (KernelOutputs.apply(tx, index).isEmpty())
+                sink++;
+        }
+        return finish(start, iterations, sink);
+    }
+
+    private static long finish(long start, int iterations, int sink) {
+        long elapsed = System.nanoTime() - start;
+        checksum += sink;
+        return elapsed / iterations;
+    }
+
+    private static void report(String name, long nanos) {
+        System.out.println(String.format("  %-14s %6d ns/op", name, nanos));
+    }
+}
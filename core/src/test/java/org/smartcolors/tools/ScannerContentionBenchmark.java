@@ -0,0 +1,169 @@
+package org.smartcolors.tools;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.smartcolors.ClientColorScanner;
+import org.smartcolors.ClientColorTrack;
+import org.smartcolors.core.ColorDefinition;
+import org.smartcolors.core.ColorProof;
+import org.smartcolors.core.GenesisOutPointColorProof;
+import org.smartcolors.core.GenesisOutPointsMerbinnerTree;
+import org.smartcolors.core.GenesisScriptMerbinnerTree;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measure scanner queries from several threads while a writer keeps adding proofs, as the fetcher does.
+ * <p/>
+ * <p>In exclusive mode the readers take the write lock around each query, as every query did when the
+ * scanner had a single lock.  In shared mode they call the query as is, which reads the outpoint index without
+ * locking.  Reports the read throughput, the share of queries that hit, and how long the writer waited for the lock.</p>
+ * <p/>
+ * <p>Usage: ScannerContentionBenchmark [max-readers] [seconds-per-run]</p>
+ */
+public class ScannerContentionBenchmark {
+    private static final int DEFINITIONS = 20;
+    private static final int OUTPUTS = 500;
+    // The writer adds a proof about this often, in microseconds
+    private static final long WRITE_INTERVAL_US = 200;
+
+    public static void main(String[] args) throws Exception {
+        int maxReaders = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        NetworkParameters params = NetworkParameters.fromID(NetworkParameters.ID_TESTNET);
+        Random random = new Random(1);
+
+        ClientColorScanner scanner = new ClientColorScanner(params, new URI("http://localhost:8888/"));
+        List<TransactionOutPoint> points = Lists.newArrayList();
+        List<ColorProof> proofs = Lists.newArrayList();
+        for (int d = 0; d < DEFINITIONS; d++) {
+            Map<TransactionOutPoint, Long> nodes = Maps.newHashMap();
+            for (int i = 0; i < OUTPUTS; i++) {
+                nodes.put(new TransactionOutPoint(params, i, randomHash(random)), 1L + random.nextInt(1000));
+            }
+            ColorDefinition def = new ColorDefinition(params, new GenesisOutPointsMerbinnerTree(params, nodes), new GenesisScriptMerbinnerTree());
+            scanner.addDefinition(def);
+            ClientColorTrack track = (ClientColorTrack) scanner.getColorTrackByDefinition(def);
+            for (TransactionOutPoint point : nodes.keySet()) {
+                ColorProof proof = new GenesisOutPointColorProof(def, point);
+                track.add(proof);
+                proofs.add(proof);
+                points.add(point);
+            }
+        }
+        // Half of the queries miss
+        for (int i = 0; i < DEFINITIONS * OUTPUTS; i++) {
+            points.add(new TransactionOutPoint(params, 0, randomHash(random)));
+        }
+
+        System.out.println(String.format("%-10s %7s %14s %7s %16s %15s", "mode", "readers", "reads/s", "hit %", "write wait us", "max wait us"));
+        for (int round = 0; round < 2; round++) {
+            for (int readers = 1; readers <= maxReaders; readers *= 2) {
+                for (boolean exclusive : new boolean[]{true, false}) {
+                    run(scanner, points, proofs, readers, exclusive, seconds, round > 0);
+                }
+            }
+        }
+    }
+
+    private static void run(final ClientColorScanner scanner, final List<TransactionOutPoint> points,
+                            final List<ColorProof> proofs, int readers, final boolean exclusive,
+                            int seconds, boolean report) throws Exception {
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicLong reads = new AtomicLong();
+        // The query results, so the reads can't be optimized away
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong writes = new AtomicLong();
+        final AtomicLong waitNanos = new AtomicLong();
+        final AtomicLong maxWaitNanos = new AtomicLong();
+        final CountDownLatch finished = new CountDownLatch(readers + 1);
+
+        for (int r = 0; r < readers; r++) {
+            final int offset = r * 7919;
+            new Thread("reader " + r) {
+                @Override
+                public void run() {
+                    long count = 0;
+                    long hitCount = 0;
+                    int size = points.size();
+                    for (int i = offset; !done.get(); i++) {
+                        TransactionOutPoint point = points.get(i % size);
+                        boolean hit;
+                        if (exclusive) {
+                            scanner.lock();
+                            try {
+                                hit = scanner.contains(point);
+                            } finally {
+                                scanner.unlock();
+                            }
+                        } else {
+                            hit = scanner.contains(point);
+                        }
+                        if (hit)
+                            hitCount++;
+                        count++;
+                    }
+                    reads.addAndGet(count);
+                    hits.addAndGet(hitCount);
+                    finished.countDown();
+                }
+            }.start();
+        }
+
+        new Thread("writer") {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; !done.get(); i++) {
+                        ColorProof proof = proofs.get(i % proofs.size());
+                        ClientColorTrack track = (ClientColorTrack) scanner.getColorTrackByDefinition(proof.getDefinition());
+                        long start = System.nanoTime();
+                        scanner.lock();
+                        long waited = System.nanoTime() - start;
+                        try {
+                            track.add(proof);
+                        } finally {
+                            scanner.unlock();
+                        }
+                        waitNanos.addAndGet(waited);
+                        if (waited > maxWaitNanos.get())
+                            maxWaitNanos.set(waited);
+                        writes.incrementAndGet();
+                        TimeUnit.MICROSECONDS.sleep(WRITE_INTERVAL_US);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    finished.countDown();
+                }
+            }
+        }.start();
+
+        TimeUnit.SECONDS.sleep(seconds);
+        done.set(true);
+        finished.await();
+        if (hits.get() == 0)
+            throw new IllegalStateException("no query hit");
+        if (report) {
+            System.out.println(String.format("%-10s %7d %14d %7d %16d %15d",
+                    exclusive ? "exclusive" : "shared", readers, reads.get() / seconds, hits.get() * 100 / reads.get(),
+                    waitNanos.get() / Math.max(1, writes.get()) / 1000, maxWaitNanos.get() / 1000));
+        }
+    }
+
+    private static Sha256Hash randomHash(Random random) {
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        return Sha256Hash.wrap(bytes);
+    }
+}
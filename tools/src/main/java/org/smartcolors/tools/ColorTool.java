@@ -62,6 +62,7 @@ public class ColorTool {
     private static File checkpointFile;
     private static ColorKeyChain colorChain;
     private static OptionSpec<String> mnemonicSpec;
+    private static OptionSpec<String> trackerSpec;
     private static boolean useElectrum = false;
 
     public static void main(String[] args) throws IOException {
@@ -79,6 +80,7 @@ public class ColorTool {
         parser.accepts("debug");
         parser.accepts("verbose");
         mnemonicSpec = parser.accepts("mnemonic", "mnemonic phrase").withRequiredArg();
+        trackerSpec = parser.accepts("tracker", "proof tracker URL, may be repeated").withRequiredArg();
         OptionSpec<String> walletFileNameSpec = parser.accepts("wallet").withRequiredArg();
         parser.nonOptions("COMMAND: one of:" +
                 "\n help" +
@@ -368,16 +370,21 @@ public class ColorTool {
     }
 
     private static void makeScanner() {
-        URI baseUri = null;
+        List<URI> servers = Lists.newArrayList();
         try {
-            if (isRegTest())
-                baseUri = new URI("http://localhost:8888/");
-            else
-                baseUri = new URI("http://tracker0.smartcolors.org:8888/");
+            for (String tracker : trackerSpec.values(options)) {
+                servers.add(new URI(tracker));
+            }
+            if (servers.isEmpty()) {
+                if (isRegTest())
+                    servers.add(new URI("http://localhost:8888/"));
+                else
+                    servers.add(new URI("http://tracker0.smartcolors.org:8888/"));
+            }
         } catch (URISyntaxException e) {
             Throwables.propagate(e);
         }
-        scanner = new ClientColorScanner(params, baseUri);
+        scanner = new ClientColorScanner(params, servers);
     }
 
     private static void addBuiltins() {
@@ -609,9 +616,11 @@ public class ColorTool {
                 System.out.println("" + i + " " + key.toAddress(params));
             }
         }
+        // One snapshot, so that the values and the balances agree
+        ScannerSnapshot snapshot = scanner.snapshot();
         System.out.println("************** Unspent Transactions:");
         for (Transaction tx : multiWallet.getTransactionPool(WalletTransaction.Pool.UNSPENT).values()) {
-            Map<ColorDefinition, Long> values = scanner.getOutputValues(tx, wallet, colorChain);
+            Map<ColorDefinition, Long> values = snapshot.getOutputValues(tx);
             System.out.print(tx.getHash());
             for (Map.Entry<ColorDefinition, Long> entry : values.entrySet()) {
                 BigDecimal divisibilityDivider = getDivider(entry.getKey());
@@ -622,7 +631,7 @@ public class ColorTool {
             System.out.println();
         }
         System.out.println("\n************** Balances:");
-        Map<ColorDefinition, Long> balances = scanner.getBalances(multiWallet, colorChain);
+        Map<ColorDefinition, Long> balances = snapshot.getBalances(Wallet.BalanceType.ESTIMATED);
         for (Map.Entry<ColorDefinition, Long> entry : balances.entrySet()) {
             BigDecimal divisibilityDivider = getDivider(entry.getKey());
             BigDecimal amount = BigDecimal.valueOf(entry.getValue()).divide(divisibilityDivider);